@@ -32,6 +32,7 @@ import android.view.View;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.lifecycle.ViewModelProvider;
@@ -47,13 +48,16 @@ import butterknife.ButterKnife;
 import butterknife.OnClick;
 import no.nordicsemi.android.ble.livedata.state.ConnectionState;
 import no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice;
+import no.nordicsemi.android.blinky.scanner.DeviceRegistry;
 import no.nordicsemi.android.blinky.viewmodels.BlinkyViewModel;
 
 import static java.lang.Thread.sleep;
 
 @SuppressWarnings("ConstantConditions")
 public class BlinkyActivity extends AppCompatActivity {
-	public static final String EXTRA_DEVICE = "no.nordicsemi.android.blinky.EXTRA_DEVICE";
+	/** The packed device address, see {@link DiscoveredBluetoothDevice#getKey()}. */
+	public static final String EXTRA_DEVICE_KEY = "no.nordicsemi.android.blinky.EXTRA_DEVICE_KEY";
+	private static final String STATE_DEVICE_NAME = "device_name";
 
 	private BlinkyViewModel viewModel;
 
@@ -67,10 +71,30 @@ public class BlinkyActivity extends AppCompatActivity {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.activity_blinky);
 		ButterKnife.bind(this);
+		// Configure the view model. The device is looked up by its key in the device registry.
+		// The name is saved in the instance state, in case the process is restarted.
 		final Intent intent = getIntent();
-		final DiscoveredBluetoothDevice device = intent.getParcelableExtra(EXTRA_DEVICE);
-		final String deviceName = device.getName();
-		final String deviceAddress = device.getAddress();
+		if (!intent.hasExtra(EXTRA_DEVICE_KEY)) {
+			finish();
+			return;
+		}
+		final long deviceKey = intent.getLongExtra(EXTRA_DEVICE_KEY, 0);
+		// A new screen must be opened for a device from the scanner. Only when the activity is
+		// recreated after the process was restarted, the registry is empty and the device is
+		// created from its address.
+		if (savedInstanceState == null && DeviceRegistry.getInstance().get(deviceKey) == null) {
+			finish();
+			return;
+		}
+		final String savedName = savedInstanceState != null
+				? savedInstanceState.getString(STATE_DEVICE_NAME) : null;
+		viewModel = new ViewModelProvider(this).get(BlinkyViewModel.class);
+		if (!viewModel.connect(deviceKey, savedName)) {
+			finish();
+			return;
+		}
+		final String deviceName = viewModel.getDeviceName();
+		final String deviceAddress = viewModel.getDeviceAddress();
 
 		final MaterialToolbar toolbar = findViewById(R.id.toolbar);
 		toolbar.setTitle(deviceName != null ? deviceName : getString(R.string.unknown_device));
@@ -78,10 +102,6 @@ public class BlinkyActivity extends AppCompatActivity {
 		setSupportActionBar(toolbar);
 		getSupportActionBar().setDisplayHomeAsUpEnabled(true);
 
-		// Configure the view model.
-		viewModel = new ViewModelProvider(this).get(BlinkyViewModel.class);
-		viewModel.connect(device);
-
 		// Set up views.
 		final TextView ledState = findViewById(R.id.led_state);
 		final LinearLayout progressContainer = findViewById(R.id.progress_container);
@@ -218,6 +238,12 @@ public class BlinkyActivity extends AppCompatActivity {
 	}
 
 
+	@Override
+	protected void onSaveInstanceState(@NonNull final Bundle outState) {
+		super.onSaveInstanceState(outState);
+		outState.putString(STATE_DEVICE_NAME, viewModel.getDeviceName());
+	}
+
 	@OnClick(R.id.action_clear_cache)
 	public void onTryAgainClicked() {
 		viewModel.reconnect();
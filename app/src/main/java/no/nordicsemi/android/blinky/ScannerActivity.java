@@ -25,18 +25,26 @@ package no.nordicsemi.android.blinky;
 import android.Manifest;
 import android.bluetooth.BluetoothAdapter;
 import android.content.Intent;
+import android.content.pm.PackageManager;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.provider.Settings;
+import android.text.TextUtils;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
+import android.widget.EditText;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SearchView;
 import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.DividerItemDecoration;
 import androidx.recyclerview.widget.LinearLayoutManager;
@@ -50,12 +58,17 @@ import butterknife.ButterKnife;
 import butterknife.OnClick;
 import no.nordicsemi.android.blinky.adapter.DevicesAdapter;
 import no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice;
+import no.nordicsemi.android.blinky.filter.FilterExpression;
+import no.nordicsemi.android.blinky.filter.FilterPredicate;
+import no.nordicsemi.android.blinky.filter.FilterProgram;
 import no.nordicsemi.android.blinky.utils.Utils;
+import no.nordicsemi.android.blinky.viewmodels.DeviceSortOrder;
 import no.nordicsemi.android.blinky.viewmodels.ScannerStateLiveData;
 import no.nordicsemi.android.blinky.viewmodels.ScannerViewModel;
 
 public class ScannerActivity extends AppCompatActivity implements DevicesAdapter.OnItemClickListener {
     private static final int REQUEST_ACCESS_FINE_LOCATION = 1022; // random number
+    private static final int REQUEST_ACCESS_BACKGROUND_LOCATION = 1023;
 
     private ScannerViewModel scannerViewModel;
 
@@ -97,7 +110,10 @@ public class ScannerActivity extends AppCompatActivity implements DevicesAdapter
     @Override
     protected void onRestart() {
         super.onRestart();
-        clear();
+        // Keep the devices found by the background scan.
+        if (!scannerViewModel.isBackgroundScanEnabled()) {
+            clear();
+        }
     }
 
     @Override
@@ -111,6 +127,31 @@ public class ScannerActivity extends AppCompatActivity implements DevicesAdapter
         getMenuInflater().inflate(R.menu.filter, menu);
         menu.findItem(R.id.filter_uuid).setChecked(scannerViewModel.isUuidFilterEnabled());
         menu.findItem(R.id.filter_nearby).setChecked(scannerViewModel.isNearbyFilterEnabled());
+        menu.findItem(getSortMenuItemId(scannerViewModel.getSortOrder())).setChecked(true);
+        menu.findItem(R.id.background_scan).setChecked(scannerViewModel.isBackgroundScanEnabled());
+
+        final MenuItem searchItem = menu.findItem(R.id.search);
+        final SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint(getString(R.string.menu_search_hint));
+        final String query = scannerViewModel.getSearchQuery();
+        if (!TextUtils.isEmpty(query)) {
+            searchItem.expandActionView();
+            searchView.setQuery(query, false);
+        }
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(final String query) {
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(final String newText) {
+                // The list is narrowed on every keystroke.
+                scannerViewModel.search(newText);
+                return true;
+            }
+        });
         return true;
     }
 
@@ -125,14 +166,92 @@ public class ScannerActivity extends AppCompatActivity implements DevicesAdapter
                 item.setChecked(!item.isChecked());
                 scannerViewModel.filterByDistance(item.isChecked());
                 return true;
+            case R.id.filter_expression:
+                showFilterExpressionDialog();
+                return true;
+            case R.id.sort_discovery:
+                item.setChecked(true);
+                scannerViewModel.sortBy(DeviceSortOrder.DISCOVERY);
+                return true;
+            case R.id.sort_rssi:
+                item.setChecked(true);
+                scannerViewModel.sortBy(DeviceSortOrder.RSSI);
+                return true;
+            case R.id.sort_name:
+                item.setChecked(true);
+                scannerViewModel.sortBy(DeviceSortOrder.NAME);
+                return true;
+            case R.id.sort_last_seen:
+                item.setChecked(true);
+                scannerViewModel.sortBy(DeviceSortOrder.LAST_SEEN);
+                return true;
+            case R.id.background_scan:
+                item.setChecked(!item.isChecked());
+                if (item.isChecked()) {
+                    requestBackgroundLocationPermission();
+                }
+                scannerViewModel.setBackgroundScanEnabled(item.isChecked());
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Shows a dialog for editing the custom filter expression. An empty expression removes
+     * the custom filter.
+     */
+    private void showFilterExpressionDialog() {
+        final FilterExpression current = scannerViewModel.getFilterExpression();
+        final EditText input = new EditText(this);
+        input.setHint(R.string.filter_expression_hint);
+        input.setSingleLine();
+        if (current != null) {
+            input.setText(current.toString());
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.menu_filter_expression)
+                .setView(input)
+                .setPositiveButton(android.R.string.ok, (dialog, which) -> {
+                    final String text = input.getText().toString().trim();
+                    if (text.isEmpty()) {
+                        scannerViewModel.filterByExpression(null);
+                        return;
+                    }
+                    try {
+                        final FilterExpression expression = FilterExpression.parse(text);
+                        // Check the limits of the program, as combined with the other filters.
+                        FilterProgram.compile(FilterExpression.and(
+                                FilterPredicate.lbsService(), FilterPredicate.nearby(), expression));
+                        scannerViewModel.filterByExpression(expression);
+                    } catch (final IllegalArgumentException e) {
+                        Toast.makeText(this, getString(R.string.filter_expression_invalid, e.getMessage()),
+                                Toast.LENGTH_LONG).show();
+                    }
+                })
+                .setNeutralButton(R.string.filter_expression_clear,
+                        (dialog, which) -> scannerViewModel.filterByExpression(null))
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private static int getSortMenuItemId(@NonNull final DeviceSortOrder order) {
+        switch (order) {
+            case RSSI:
+                return R.id.sort_rssi;
+            case NAME:
+                return R.id.sort_name;
+            case LAST_SEEN:
+                return R.id.sort_last_seen;
+            default:
+                return R.id.sort_discovery;
+        }
+    }
+
     @Override
     public void onItemClick(@NonNull final DiscoveredBluetoothDevice device) {
         final Intent controlBlinkIntent = new Intent(this, BlinkyActivity.class);
-        controlBlinkIntent.putExtra(BlinkyActivity.EXTRA_DEVICE, device);
+        // Only the key is passed, the device is looked up in the device registry.
+        controlBlinkIntent.putExtra(BlinkyActivity.EXTRA_DEVICE_KEY, device.getKey());
         startActivity(controlBlinkIntent);
     }
 
@@ -146,6 +265,21 @@ public class ScannerActivity extends AppCompatActivity implements DevicesAdapter
         }
     }
 
+    /**
+     * On Android 10+ scanning in the background requires the background location permission.
+     * Without it, the background scan is started, but no results are delivered.
+     */
+    private void requestBackgroundLocationPermission() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_BACKGROUND_LOCATION)
+                        != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(
+                    this,
+                    new String[]{Manifest.permission.ACCESS_BACKGROUND_LOCATION},
+                    REQUEST_ACCESS_BACKGROUND_LOCATION);
+        }
+    }
+
     @OnClick(R.id.action_enable_location)
     public void onEnableLocationClicked() {
         final Intent intent = new Intent(Settings.ACTION_LOCATION_SOURCE_SETTINGS);
@@ -206,7 +340,7 @@ public class ScannerActivity extends AppCompatActivity implements DevicesAdapter
                 noBluetoothView.setVisibility(View.VISIBLE);
                 scanningView.setVisibility(View.INVISIBLE);
                 emptyView.setVisibility(View.GONE);
-                clear();
+                // The devices are cleared by the scan session when Bluetooth is disabled.
             }
         } else {
             noLocationPermissionView.setVisibility(View.VISIBLE);
@@ -228,10 +362,10 @@ public class ScannerActivity extends AppCompatActivity implements DevicesAdapter
     }
 
     /**
-     * Clears the list of devices, which will notify the observer.
+     * Clears the list of devices, which will notify the observer. Known devices are shown
+     * again as last seen.
      */
     private void clear() {
-        scannerViewModel.getDevices().clear();
-        scannerViewModel.getScannerState().clearRecords();
+        scannerViewModel.clearDevices();
     }
 }
@@ -22,38 +22,36 @@
 
 package no.nordicsemi.android.blinky.adapter;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.DiffUtil;
 
-import java.util.List;
-
-public class DeviceDiffCallback extends DiffUtil.Callback {
-	private final List<DiscoveredBluetoothDevice> oldList;
-	private final List<DiscoveredBluetoothDevice> newList;
-
-	DeviceDiffCallback(final List<DiscoveredBluetoothDevice> oldList,
-					   final List<DiscoveredBluetoothDevice> newList) {
-		this.oldList = oldList;
-		this.newList = newList;
-	}
-
-	@Override
-	public int getOldListSize() {
-		return oldList != null ? oldList.size() : 0;
-	}
+public class DeviceDiffCallback extends DiffUtil.ItemCallback<DeviceSnapshot> {
+	/**
+	 * Payload sent when only the RSSI level has changed.
+	 */
+	/* package */ static final Object PAYLOAD_RSSI = new Object();
 
 	@Override
-	public int getNewListSize() {
-		return newList != null ? newList.size() : 0;
+	public boolean areItemsTheSame(@NonNull final DeviceSnapshot oldItem,
+								   @NonNull final DeviceSnapshot newItem) {
+		// A device evicted and discovered again is a new object, but the same item.
+		return oldItem.getDevice().getKey() == newItem.getDevice().getKey();
 	}
 
 	@Override
-	public boolean areItemsTheSame(final int oldItemPosition, final int newItemPosition) {
-		return oldList.get(oldItemPosition) == newList.get(newItemPosition);
+	public boolean areContentsTheSame(@NonNull final DeviceSnapshot oldItem,
+									  @NonNull final DeviceSnapshot newItem) {
+		return oldItem.hasSameContent(newItem);
 	}
 
+	@Nullable
 	@Override
-	public boolean areContentsTheSame(final int oldItemPosition, final int newItemPosition) {
-		final DiscoveredBluetoothDevice device = oldList.get(oldItemPosition);
-		return device.hasRssiLevelChanged();
+	public Object getChangePayload(@NonNull final DeviceSnapshot oldItem,
+								   @NonNull final DeviceSnapshot newItem) {
+		// If only the RSSI level has changed, rebind only the RSSI icon.
+		if (oldItem.hasSameName(newItem) && oldItem.isRestored() == newItem.isRestored())
+			return PAYLOAD_RSSI;
+		return null;
 	}
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.adapter;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * An immutable view of a {@link DiscoveredBluetoothDevice} taken at the time the device list
+ * was published. The {@link DevicesAdapter} diffs lists of snapshots on a background thread,
+ * so they must not change after being created.
+ */
+public final class DeviceSnapshot {
+	@NonNull
+	private final DiscoveredBluetoothDevice device;
+	@NonNull
+	private final String address;
+	@Nullable
+	private final String name;
+	private final int rssiLevel;
+	private final boolean restored;
+	private final long lastSeenTime;
+
+	/* package */ DeviceSnapshot(@NonNull final DiscoveredBluetoothDevice device) {
+		this.device = device;
+		this.address = device.getAddress();
+		this.name = device.getName();
+		this.rssiLevel = device.getRssiLevel();
+		this.restored = device.isRestored();
+		// The last-seen time of a restored device does not change until it's seen again,
+		// which creates a new snapshot. Other devices update it with every packet.
+		this.lastSeenTime = restored ? device.getLastSeenTime() : 0;
+	}
+
+	/**
+	 * Returns the live device this snapshot was taken from.
+	 */
+	@NonNull
+	public DiscoveredBluetoothDevice getDevice() {
+		return device;
+	}
+
+	@NonNull
+	public String getAddress() {
+		return address;
+	}
+
+	@Nullable
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the RSSI level, that is the index of the bar in
+	 * {@link no.nordicsemi.android.blinky.R.drawable#ic_signal_bar}.
+	 */
+	public int getRssiLevel() {
+		return rssiLevel;
+	}
+
+	/**
+	 * Returns whether the device was restored from the known devices and has not been seen yet.
+	 *
+	 * @see DiscoveredBluetoothDevice#isRestored()
+	 */
+	public boolean isRestored() {
+		return restored;
+	}
+
+	/**
+	 * Returns the time a restored device was last seen, in milliseconds since boot, or 0 if
+	 * the device is not restored. The current values of a device that is being scanned, like
+	 * the RSSI or the last-seen time, should be read from {@link #getDevice()}.
+	 */
+	public long getLastSeenTime() {
+		return lastSeenTime;
+	}
+
+	/**
+	 * Returns whether the other snapshot would be displayed the same way as this one.
+	 *
+	 * @param other the snapshot to compare.
+	 * @return True, if name, RSSI level and the restored state are equal.
+	 */
+	/* package */ boolean hasSameContent(@NonNull final DeviceSnapshot other) {
+		return rssiLevel == other.rssiLevel && restored == other.restored && hasSameName(other);
+	}
+
+	/**
+	 * Returns whether the other snapshot has the same name as this one.
+	 *
+	 * @param other the snapshot to compare.
+	 * @return True, if both names are equal or both are null.
+	 */
+	/* package */ boolean hasSameName(@NonNull final DeviceSnapshot other) {
+		return name == null ? other.name == null : name.equals(other.name);
+	}
+}
@@ -22,7 +22,9 @@
 
 package no.nordicsemi.android.blinky.adapter;
 
+import android.os.SystemClock;
 import android.text.TextUtils;
+import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -30,7 +32,7 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
-import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.AsyncListDiffer;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.List;
@@ -43,7 +45,14 @@ import no.nordicsemi.android.blinky.viewmodels.DevicesLiveData;
 
 @SuppressWarnings("unused")
 public class DevicesAdapter extends RecyclerView.Adapter<DevicesAdapter.ViewHolder> {
-	private List<DiscoveredBluetoothDevice> devices;
+	/** The alpha of the RSSI icon of devices that have not been seen yet. */
+	private static final float RESTORED_ALPHA = 0.4f;
+	/**
+	 * The differ calculates the difference between published lists of device snapshots on
+	 * a background thread and dispatches the updates to the adapter on the main thread.
+	 */
+	private final AsyncListDiffer<DeviceSnapshot> differ =
+			new AsyncListDiffer<>(this, new DeviceDiffCallback());
 	private OnItemClickListener onItemClickListener;
 
 	@FunctionalInterface
@@ -58,12 +67,7 @@ public class DevicesAdapter extends RecyclerView.Adapter<DevicesAdapter.ViewHold
 	public DevicesAdapter(@NonNull final ScannerActivity activity,
 						  @NonNull final DevicesLiveData devicesLiveData) {
 		setHasStableIds(true);
-		devicesLiveData.observe(activity, newDevices -> {
-			final DiffUtil.DiffResult result = DiffUtil.calculateDiff(
-					new DeviceDiffCallback(devices, newDevices), false);
-			devices = newDevices;
-			result.dispatchUpdatesTo(this);
-		});
+		devicesLiveData.observe(activity, differ::submitList);
 	}
 
 	@NonNull
@@ -76,32 +80,61 @@ public class DevicesAdapter extends RecyclerView.Adapter<DevicesAdapter.ViewHold
 
 	@Override
 	public void onBindViewHolder(@NonNull final ViewHolder holder, final int position) {
-		final DiscoveredBluetoothDevice device = devices.get(position);
+		final DeviceSnapshot device = differ.getCurrentList().get(position);
 		final String deviceName = device.getName();
 
 		if (!TextUtils.isEmpty(deviceName))
 			holder.deviceName.setText(deviceName);
 		else
 			holder.deviceName.setText(R.string.unknown_device);
-		holder.deviceAddress.setText(device.getAddress());
-		final int rssiPercent = (int) (100.0f * (127.0f + device.getRssi()) / (127.0f + 20.0f));
-		holder.rssi.setImageLevel(rssiPercent);
+		if (device.isRestored()) {
+			// The device has not been seen in this session yet.
+			final CharSequence lastSeen = DateUtils.getRelativeTimeSpanString(device.getLastSeenTime(),
+					SystemClock.elapsedRealtime(), DateUtils.MINUTE_IN_MILLIS);
+			holder.deviceAddress.setText(holder.itemView.getContext()
+					.getString(R.string.last_seen, device.getAddress(), lastSeen));
+			holder.rssi.setAlpha(RESTORED_ALPHA);
+		} else {
+			holder.deviceAddress.setText(device.getAddress());
+			holder.rssi.setAlpha(1.0f);
+		}
+		holder.rssi.setImageLevel(DiscoveredBluetoothDevice.toDrawableLevel(device.getRssiLevel()));
+	}
+
+	@Override
+	public void onBindViewHolder(@NonNull final ViewHolder holder, final int position,
+								 @NonNull final List<Object> payloads) {
+		// Only the RSSI has changed, skip rebinding the text views.
+		if (!payloads.isEmpty() && onlyRssiChanged(payloads)) {
+			final DeviceSnapshot device = differ.getCurrentList().get(position);
+			holder.rssi.setImageLevel(DiscoveredBluetoothDevice.toDrawableLevel(device.getRssiLevel()));
+			return;
+		}
+		onBindViewHolder(holder, position);
 	}
 
 	@Override
 	public long getItemId(final int position) {
-		return devices.get(position).hashCode();
+		return differ.getCurrentList().get(position).getDevice().getKey();
 	}
 
 	@Override
 	public int getItemCount() {
-		return devices != null ? devices.size() : 0;
+		return differ.getCurrentList().size();
 	}
 
 	public boolean isEmpty() {
 		return getItemCount() == 0;
 	}
 
+	private static boolean onlyRssiChanged(@NonNull final List<Object> payloads) {
+		for (final Object payload : payloads) {
+			if (payload != DeviceDiffCallback.PAYLOAD_RSSI)
+				return false;
+		}
+		return true;
+	}
+
 	final class ViewHolder extends RecyclerView.ViewHolder {
 		@BindView(R.id.device_address) TextView deviceAddress;
 		@BindView(R.id.device_name) TextView deviceName;
@@ -112,8 +145,9 @@ public class DevicesAdapter extends RecyclerView.Adapter<DevicesAdapter.ViewHold
 			ButterKnife.bind(this, view);
 
 			view.findViewById(R.id.device_container).setOnClickListener(v -> {
-				if (onItemClickListener != null) {
-					onItemClickListener.onItemClick(devices.get(getAdapterPosition()));
+				final int position = getAdapterPosition();
+				if (onItemClickListener != null && position != RecyclerView.NO_POSITION) {
+					onItemClickListener.onItemClick(differ.getCurrentList().get(position).getDevice());
 				}
 			});
 		}
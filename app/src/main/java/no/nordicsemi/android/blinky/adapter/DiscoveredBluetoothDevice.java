@@ -23,25 +23,103 @@
 package no.nordicsemi.android.blinky.adapter;
 
 import android.bluetooth.BluetoothDevice;
-import android.os.Parcel;
-import android.os.Parcelable;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import no.nordicsemi.android.support.v18.scanner.ScanResult;
+import no.nordicsemi.android.blinky.profile.BlinkyProfile;
+import no.nordicsemi.android.blinky.scanner.KnownDevice;
+import no.nordicsemi.android.blinky.utils.AdvertisingDataParser;
+
+/**
+ * A discovered device with a compact summary of its last advertising packet.
+ * The scan result is not retained, only the values needed for display and filtering.
+ */
+public class DiscoveredBluetoothDevice {
+	/** Value returned by {@link #getManufacturerId()} when no manufacturer data were advertised. */
+	public static final int NO_MANUFACTURER_ID = AdvertisingDataParser.NOT_PRESENT;
+	private static final long LBS_SERVICE_UUID_MSB = BlinkyProfile.LBS_UUID_SERVICE.getMostSignificantBits();
+	private static final long LBS_SERVICE_UUID_LSB = BlinkyProfile.LBS_UUID_SERVICE.getLeastSignificantBits();
+	/** The RSSI of a restored device that has never been seen, shown as no signal. */
+	public static final int NO_RSSI = KnownDevice.RSSI_UNKNOWN;
+	/** The RSSI above which a device is considered nearby. */
+	public static final int NEARBY_RSSI = -50; // [dBm]
+	/** The weight of a new RSSI sample in the exponential moving average. */
+	private static final float RSSI_SMOOTHING_FACTOR = 0.25f;
+	/**
+	 * The margin by which the smoothed RSSI must cross a threshold before the RSSI level
+	 * or the nearby state changes.
+	 */
+	private static final float RSSI_HYSTERESIS = 3.0f; // [dBm]
+	/** The maximum drawable levels of each bar in {@code ic_signal_bar}. */
+	private static final int[] RSSI_DRAWABLE_LEVELS = { 10, 28, 45, 65, 100 };
 
-public class DiscoveredBluetoothDevice implements Parcelable {
 	private final BluetoothDevice device;
-	private ScanResult lastScanResult;
+	/** The device address packed into the lower 48 bits. */
+	private final long key;
+	private boolean lbsServiceAdvertised;
+	private int manufacturerId = NO_MANUFACTURER_ID;
+	/** A copy of the manufacturer data, reused between updates. */
+	private byte[] manufacturerData;
+	private int manufacturerDataLength;
 	private String name;
 	private int rssi;
-	private int previousRssi;
 	private int highestRssi = -128;
+	private float smoothedRssi;
+	private int rssiLevel = -1;
+	private int previousRssiLevel = -1;
+	private boolean nearby;
+	private long lastSeenTime;
+	/** Whether the device was restored from the known devices and has not been seen since. */
+	private boolean restored;
+	private DeviceSnapshot snapshot;
+	/** The cached filter predicate results, see {@link no.nordicsemi.android.blinky.filter.FilterProgram}. */
+	private long filterResults;
+	/** The order in which the device was discovered or restored. */
+	private long discoverySequence;
 
-	public DiscoveredBluetoothDevice(@NonNull final ScanResult scanResult) {
-		device = scanResult.getDevice();
-		update(scanResult);
+	/**
+	 * Creates a device without any advertising data. The device must be updated with
+	 * {@link #update(int, long, byte[], int, AdvertisingDataParser)} before it's displayed.
+	 *
+	 * @param device the Bluetooth device.
+	 * @param key    the packed device address, as returned by {@link #toKey(String)}.
+	 */
+	public DiscoveredBluetoothDevice(@NonNull final BluetoothDevice device, final long key) {
+		this.device = device;
+		this.key = key;
+	}
+
+	/**
+	 * Creates a device restored from the known devices, before any advertising packet has been
+	 * received. The device is shown as last seen until it's updated.
+	 *
+	 * @param device               the Bluetooth device.
+	 * @param key                  the packed device address, as returned by {@link #toKey(String)}.
+	 * @param name                 the last known name, or null.
+	 * @param rssi                 the last known RSSI, in dBm, or {@link #NO_RSSI}.
+	 * @param lbsServiceAdvertised whether the device advertised the Led-Button Service UUID.
+	 * @param lastSeenTime         the time the device was last seen, in milliseconds since boot.
+	 */
+	public DiscoveredBluetoothDevice(@NonNull final BluetoothDevice device, final long key,
+									 @Nullable final String name, final int rssi,
+									 final boolean lbsServiceAdvertised, final long lastSeenTime) {
+		this.device = device;
+		this.key = key;
+		this.name = name;
+		this.rssi = rssi;
+		this.highestRssi = rssi;
+		this.lbsServiceAdvertised = lbsServiceAdvertised;
+		this.lastSeenTime = lastSeenTime;
+		this.restored = true;
+		if (rssi != NO_RSSI) {
+			updateSmoothedRssi(rssi);
+		} else {
+			// The device has been connected to, but never scanned. It's shown with no signal,
+			// and the first scanned RSSI is taken as is.
+			smoothedRssi = NO_RSSI;
+			rssiLevel = previousRssiLevel = 0;
+		}
 	}
 
 	@NonNull
@@ -49,6 +127,16 @@ public class DiscoveredBluetoothDevice implements Parcelable {
 		return device;
 	}
 
+	/**
+	 * Returns the device address packed into a long. The key uniquely identifies the device
+	 * and can be used as a stable ID.
+	 *
+	 * @return The 48-bit device address.
+	 */
+	public long getKey() {
+		return key;
+	}
+
 	@NonNull
 	public String getAddress() {
 		return device.getAddress();
@@ -64,10 +152,80 @@ public class DiscoveredBluetoothDevice implements Parcelable {
 		return rssi;
 	}
 
-	@NonNull
-	public ScanResult getScanResult() {
-		return lastScanResult;
+	/**
+	 * Returns whether the last advertising packet contained the Led-Button Service UUID.
+	 */
+	public boolean isLbsServiceAdvertised() {
+		return lbsServiceAdvertised;
+	}
+
+	/**
+	 * Returns the Company Identifier of the first manufacturer specific data in the last
+	 * advertising packet, or {@link #NO_MANUFACTURER_ID}.
+	 */
+	public int getManufacturerId() {
+		return manufacturerId;
+	}
+
+	/**
+	 * Returns the length of the manufacturer data in the last advertising packet, following the
+	 * Company Identifier, or 0 if no manufacturer data were advertised.
+	 */
+	public int getManufacturerDataLength() {
+		return manufacturerDataLength;
+	}
+
+	/**
+	 * Returns a byte of the manufacturer data in the last advertising packet.
+	 *
+	 * @param index the index in the manufacturer data, following the Company Identifier.
+	 * @return The byte at the given index.
+	 * @see #getManufacturerDataLength()
+	 */
+	public byte getManufacturerData(final int index) {
+		if (index < 0 || index >= manufacturerDataLength)
+			throw new IndexOutOfBoundsException("Index: " + index + ", length: " + manufacturerDataLength);
+		return manufacturerData[index];
+	}
+
+	/**
+	 * Returns the results of the filter predicates cached for this device, one bit for
+	 * each predicate.
+	 *
+	 * @see no.nordicsemi.android.blinky.filter.FilterProgram
+	 */
+	public long getFilterResults() {
+		return filterResults;
+	}
+
+	/**
+	 * Caches the results of the filter predicates. This is set by the device registry after
+	 * each update, or when the filter changes.
+	 *
+	 * @param filterResults the predicate results, one bit for each predicate.
+	 */
+	public void setFilterResults(final long filterResults) {
+		this.filterResults = filterResults;
+	}
+
+	/**
+	 * Returns the order in which the device was discovered or restored, used to sort
+	 * the device list.
+	 */
+	public long getDiscoverySequence() {
+		return discoverySequence;
 	}
+
+	/**
+	 * Sets the order in which the device was discovered or restored. This is set once by
+	 * the device registry, when the device is created.
+	 *
+	 * @param discoverySequence the sequence number, unique in the registry.
+	 */
+	public void setDiscoverySequence(final long discoverySequence) {
+		this.discoverySequence = discoverySequence;
+	}
+
 	/**
 	 * Returns the highest recorded RSSI value during the scan.
 	 *
@@ -78,103 +236,233 @@ public class DiscoveredBluetoothDevice implements Parcelable {
 	}
 
 	/**
-	 * This method returns true if the RSSI range has changed. The RSSI range depends on drawable
-	 * levels from {@link no.nordicsemi.android.blinky.R.drawable#ic_signal_bar}.
+	 * Returns the time when the device was last seen, in milliseconds since boot.
+	 *
+	 * @return The time of the last scan result.
+	 * @see android.os.SystemClock#elapsedRealtime()
+	 */
+	public long getLastSeenTime() {
+		return lastSeenTime;
+	}
+
+	/**
+	 * Returns whether the device was restored from the known devices and no advertising packet
+	 * has been received from it since.
+	 *
+	 * @return True, if the device is shown as last seen.
+	 */
+	public boolean isRestored() {
+		return restored;
+	}
+
+	/**
+	 * Returns the RSSI smoothed with an exponential moving average.
+	 *
+	 * @return The smoothed RSSI value in dBm.
+	 */
+	public float getSmoothedRssi() {
+		return smoothedRssi;
+	}
+
+	/**
+	 * Returns the current RSSI level, that is the index of the bar in
+	 * {@link no.nordicsemi.android.blinky.R.drawable#ic_signal_bar}. The level is based on
+	 * the smoothed RSSI and changes only when the smoothed RSSI crosses the bucket boundary
+	 * by more than the hysteresis margin.
+	 *
+	 * @return The RSSI level, from 0 to 4, 0 also if the RSSI is unknown.
+	 */
+	public int getRssiLevel() {
+		return rssiLevel;
+	}
+
+	/**
+	 * Returns whether the device is nearby. A device becomes nearby when its smoothed RSSI
+	 * reaches {@link #NEARBY_RSSI}, and stops being nearby when it drops below that value
+	 * by more than the hysteresis margin.
+	 *
+	 * @return True, if the device is nearby.
+	 */
+	public boolean isNearby() {
+		return nearby;
+	}
+
+	/**
+	 * This method returns true if the RSSI range has changed with the last update.
+	 * The RSSI range depends on drawable levels from
+	 * {@link no.nordicsemi.android.blinky.R.drawable#ic_signal_bar}.
 	 *
 	 * @return True, if the RSSI range has changed.
 	 */
 	/* package */ boolean hasRssiLevelChanged() {
-		final int newLevel =
-				rssi <= 10 ?
-						0 :
-						rssi <= 28 ?
-								1 :
-								rssi <= 45 ?
-										2 :
-										rssi <= 65 ?
-												3 :
-												4;
-		final int oldLevel =
-				previousRssi <= 10 ?
-						0 :
-						previousRssi <= 28 ?
-								1 :
-								previousRssi <= 45 ?
-										2 :
-										previousRssi <= 65 ?
-												3 :
-												4;
-		return newLevel != oldLevel;
-	}
-
-	/**
-	 * Updates the device values based on the scan result.
-	 *
-	 * @param scanResult the new received scan result.
-	 */
-	public void update(@NonNull final ScanResult scanResult) {
-		lastScanResult = scanResult;
-		name = scanResult.getScanRecord() != null ?
-				scanResult.getScanRecord().getDeviceName() : null;
-		previousRssi = rssi;
-		rssi = scanResult.getRssi();
+		return rssiLevel != previousRssiLevel;
+	}
+
+	/**
+	 * Returns an immutable snapshot of the device. The snapshot is cached until the name,
+	 * the RSSI level or the restored state changes, so devices that did not change are published with the same
+	 * snapshot instance.
+	 *
+	 * @return The snapshot of the current device state.
+	 */
+	@NonNull
+	public DeviceSnapshot getSnapshot() {
+		if (snapshot == null)
+			snapshot = new DeviceSnapshot(this);
+		return snapshot;
+	}
+
+	/**
+	 * Updates the device values based on the raw values of a scan result. The data array is
+	 * not retained and may be reused by the caller afterwards. The advertising data are parsed
+	 * using the given parser, which should be reused for all scan results.
+	 *
+	 * @param rssi           the received RSSI, in dBm.
+	 * @param timestampNanos the time the packet was received, in nanoseconds since boot.
+	 * @param data           the raw advertising data, may be null.
+	 * @param dataLength     the number of valid bytes in the data array.
+	 * @param parser         the parser used to read the advertising data.
+	 */
+	public void update(final int rssi, final long timestampNanos,
+					   @Nullable final byte[] data, final int dataLength,
+					   @NonNull final AdvertisingDataParser parser) {
+		parser.parse(data, dataLength);
+
+		// The name is decoded only when it has changed.
+		if (!parser.isLocalNameEqualTo(name)) {
+			name = parser.getLocalName();
+			snapshot = null;
+		}
+		this.rssi = rssi;
 		if (highestRssi < rssi)
 			highestRssi = rssi;
+		updateSmoothedRssi(rssi);
+		lastSeenTime = timestampNanos / 1000000L;
+		if (hasRssiLevelChanged() || restored)
+			snapshot = null;
+		restored = false;
+
+		lbsServiceAdvertised = parser.containsServiceUuid(LBS_SERVICE_UUID_MSB, LBS_SERVICE_UUID_LSB);
+		manufacturerId = parser.getManufacturerId();
+		updateManufacturerData(parser);
 	}
 
-	public boolean matches(@NonNull final ScanResult scanResult) {
-		return device.getAddress().equals(scanResult.getDevice().getAddress());
+	private void updateManufacturerData(@NonNull final AdvertisingDataParser parser) {
+		final byte[] data = parser.getData();
+		final int length = parser.getManufacturerDataLength();
+		if (data == null || length <= 0) {
+			manufacturerDataLength = 0;
+			return;
+		}
+		if (manufacturerData == null || manufacturerData.length < length)
+			manufacturerData = new byte[length];
+		System.arraycopy(data, parser.getManufacturerDataOffset(), manufacturerData, 0, length);
+		manufacturerDataLength = length;
+	}
+
+	private void updateSmoothedRssi(final int sample) {
+		final boolean firstSample = rssiLevel < 0 || smoothedRssi == NO_RSSI;
+		if (firstSample) {
+			smoothedRssi = sample;
+			nearby = smoothedRssi >= NEARBY_RSSI;
+		} else {
+			smoothedRssi += RSSI_SMOOTHING_FACTOR * (sample - smoothedRssi);
+			nearby = smoothedRssi >= (nearby ? NEARBY_RSSI - RSSI_HYSTERESIS : NEARBY_RSSI);
+		}
+
+		previousRssiLevel = rssiLevel;
+		final int level = toRssiLevel(smoothedRssi);
+		if (firstSample
+				|| (level > rssiLevel && toRssiLevel(smoothedRssi - RSSI_HYSTERESIS) > rssiLevel)
+				|| (level < rssiLevel && toRssiLevel(smoothedRssi + RSSI_HYSTERESIS) < rssiLevel)) {
+			rssiLevel = level;
+		}
 	}
 
 	@Override
 	public int hashCode() {
-		return device.hashCode();
+		return (int) (key ^ (key >>> 32));
 	}
 
 	@Override
 	public boolean equals(final Object o) {
 		if (o instanceof DiscoveredBluetoothDevice) {
 			final DiscoveredBluetoothDevice that = (DiscoveredBluetoothDevice) o;
-			return device.getAddress().equals(that.device.getAddress());
+			return key == that.key;
 		}
 		return super.equals(o);
 	}
 
-	// Parcelable implementation
+	/**
+	 * Packs the Bluetooth address in format "AA:BB:CC:DD:EE:FF" into the lower 48 bits of
+	 * a long. This method does not allocate.
+	 *
+	 * @param address the Bluetooth address, as returned by {@link BluetoothDevice#getAddress()}.
+	 * @return The packed address.
+	 * @throws IllegalArgumentException if the address is not valid.
+	 */
+	public static long toKey(@NonNull final String address) {
+		if (address.length() != 17)
+			throw new IllegalArgumentException("Invalid Bluetooth address: " + address);
 
-	private DiscoveredBluetoothDevice(final Parcel in) {
-		device = in.readParcelable(BluetoothDevice.class.getClassLoader());
-		lastScanResult = in.readParcelable(ScanResult.class.getClassLoader());
-		name = in.readString();
-		rssi = in.readInt();
-		previousRssi = in.readInt();
-		highestRssi = in.readInt();
+		long key = 0;
+		for (int i = 0; i < 17; i += 3) {
+			key = (key << 8) | (hexDigit(address, i) << 4) | hexDigit(address, i + 1);
+		}
+		return key;
 	}
 
-	@Override
-	public void writeToParcel(final Parcel parcel, final int flags) {
-		parcel.writeParcelable(device, flags);
-		parcel.writeParcelable(lastScanResult, flags);
-		parcel.writeString(name);
-		parcel.writeInt(rssi);
-		parcel.writeInt(previousRssi);
-		parcel.writeInt(highestRssi);
+	/**
+	 * Converts the packed address back to the format "AA:BB:CC:DD:EE:FF".
+	 * This method allocates a new String.
+	 *
+	 * @param key the packed address, as returned by {@link #toKey(String)}.
+	 * @return The Bluetooth address.
+	 */
+	@NonNull
+	public static String toAddress(final long key) {
+		final char[] address = new char[17];
+		for (int i = 0; i < 6; ++i) {
+			final int b = (int) (key >>> (40 - 8 * i)) & 0xFF;
+			address[i * 3] = Character.toUpperCase(Character.forDigit(b >>> 4, 16));
+			address[i * 3 + 1] = Character.toUpperCase(Character.forDigit(b & 0x0F, 16));
+			if (i < 5)
+				address[i * 3 + 2] = ':';
+		}
+		return new String(address);
 	}
 
-	@Override
-	public int describeContents() {
-		return 0;
+	private static int hexDigit(@NonNull final String address, final int index) {
+		final int digit = Character.digit(address.charAt(index), 16);
+		if (digit < 0)
+			throw new IllegalArgumentException("Invalid Bluetooth address: " + address);
+		return digit;
 	}
 
-	public static final Creator<DiscoveredBluetoothDevice> CREATOR = new Creator<DiscoveredBluetoothDevice>() {
-		@Override
-		public DiscoveredBluetoothDevice createFromParcel(final Parcel source) {
-			return new DiscoveredBluetoothDevice(source);
+	/**
+	 * Converts the RSSI value to a level of
+	 * {@link no.nordicsemi.android.blinky.R.drawable#ic_signal_bar}.
+	 *
+	 * @param rssi the RSSI value in dBm.
+	 * @return The RSSI level, from 0 to 4, 0 also if the RSSI is unknown.
+	 */
+	private static int toRssiLevel(final float rssi) {
+		final float percent = 100.0f * (127.0f + rssi) / (127.0f + 20.0f);
+		for (int level = 0; level < RSSI_DRAWABLE_LEVELS.length - 1; ++level) {
+			if (percent <= RSSI_DRAWABLE_LEVELS[level])
+				return level;
 		}
+		return RSSI_DRAWABLE_LEVELS.length - 1;
+	}
 
-		@Override
-		public DiscoveredBluetoothDevice[] newArray(final int size) {
-			return new DiscoveredBluetoothDevice[size];
-		}
-	};
+	/**
+	 * Converts the RSSI level to a drawable level of
+	 * {@link no.nordicsemi.android.blinky.R.drawable#ic_signal_bar}.
+	 *
+	 * @param rssiLevel the RSSI level, from 0 to 4.
+	 * @return The drawable level, in range 0-100.
+	 */
+	/* package */ static int toDrawableLevel(final int rssiLevel) {
+		return RSSI_DRAWABLE_LEVELS[rssiLevel];
+	}
 }
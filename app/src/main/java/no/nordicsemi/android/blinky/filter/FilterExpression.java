@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.filter;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A scan filter expression. Expressions are immutable trees of {@link FilterPredicate}s
+ * combined with {@link #and(FilterExpression...)}, {@link #or(FilterExpression...)} and
+ * {@link #not(FilterExpression)}. An expression is compiled to a {@link FilterProgram}
+ * before it's evaluated.
+ * <p>
+ * The {@link #toString()} method returns the textual form of the expression, which can be
+ * parsed back using {@link #parse(String)}, for example:
+ * <pre>
+ * and(or(name("Nordic"), manufacturer(0x0059)), rssi(-70, 0), not(address("C0:FF:EE:C0:FF:EE")))
+ * </pre>
+ */
+public abstract class FilterExpression {
+
+	/* package */ FilterExpression() {
+		// Expressions are created using the static factory methods.
+	}
+
+	/**
+	 * Returns an expression matching devices that match all the operands.
+	 * An empty conjunction matches all devices.
+	 */
+	@NonNull
+	public static FilterExpression and(@NonNull final FilterExpression... operands) {
+		return new Composite(Composite.AND, operands);
+	}
+
+	/**
+	 * Returns an expression matching devices that match at least one of the operands.
+	 * An empty disjunction matches no devices.
+	 */
+	@NonNull
+	public static FilterExpression or(@NonNull final FilterExpression... operands) {
+		return new Composite(Composite.OR, operands);
+	}
+
+	/**
+	 * Returns an expression matching devices that do not match the operand.
+	 */
+	@NonNull
+	public static FilterExpression not(@NonNull final FilterExpression operand) {
+		return new Not(operand);
+	}
+
+	/**
+	 * Parses the textual form of an expression, as returned by {@link #toString()}.
+	 *
+	 * @param text the expression.
+	 * @return The parsed expression.
+	 * @throws IllegalArgumentException if the text is not a valid expression.
+	 */
+	@NonNull
+	public static FilterExpression parse(@NonNull final String text) {
+		return new FilterParser(text).parse();
+	}
+
+	/**
+	 * Emits the program code evaluating this expression.
+	 */
+	/* package */ abstract void compile(@NonNull FilterProgram.Compiler compiler);
+
+	/**
+	 * Returns the textual form of the expression.
+	 */
+	@NonNull
+	@Override
+	public abstract String toString();
+
+	/* package */ static final class Composite extends FilterExpression {
+		/* package */ static final String AND = "and";
+		/* package */ static final String OR = "or";
+
+		@NonNull
+		private final String operator;
+		@NonNull
+		private final List<FilterExpression> operands;
+
+		/* package */ Composite(@NonNull final String operator, @NonNull final FilterExpression... operands) {
+			this.operator = operator;
+			this.operands = Collections.unmodifiableList(Arrays.asList(operands.clone()));
+		}
+
+		@Override
+		/* package */ void compile(@NonNull final FilterProgram.Compiler compiler) {
+			final boolean and = AND.equals(operator);
+			if (operands.isEmpty()) {
+				compiler.emit(and ? FilterProgram.OP_TRUE : FilterProgram.OP_FALSE);
+				return;
+			}
+			operands.get(0).compile(compiler);
+			for (int i = 1; i < operands.size(); ++i) {
+				operands.get(i).compile(compiler);
+				compiler.emit(and ? FilterProgram.OP_AND : FilterProgram.OP_OR);
+			}
+		}
+
+		@NonNull
+		@Override
+		public String toString() {
+			final StringBuilder builder = new StringBuilder(operator).append('(');
+			for (int i = 0; i < operands.size(); ++i) {
+				if (i > 0)
+					builder.append(", ");
+				builder.append(operands.get(i));
+			}
+			return builder.append(')').toString();
+		}
+
+		@Override
+		public boolean equals(@Nullable final Object o) {
+			if (this == o)
+				return true;
+			if (!(o instanceof Composite))
+				return false;
+			final Composite that = (Composite) o;
+			return operator.equals(that.operator) && operands.equals(that.operands);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * operator.hashCode() + operands.hashCode();
+		}
+	}
+
+	/* package */ static final class Not extends FilterExpression {
+		@NonNull
+		private final FilterExpression operand;
+
+		/* package */ Not(@NonNull final FilterExpression operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		/* package */ void compile(@NonNull final FilterProgram.Compiler compiler) {
+			operand.compile(compiler);
+			compiler.emit(FilterProgram.OP_NOT);
+		}
+
+		@NonNull
+		@Override
+		public String toString() {
+			return "not(" + operand + ")";
+		}
+
+		@Override
+		public boolean equals(@Nullable final Object o) {
+			return o instanceof Not && operand.equals(((Not) o).operand);
+		}
+
+		@Override
+		public int hashCode() {
+			return ~operand.hashCode();
+		}
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.filter;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A recursive descent parser of the textual form of {@link FilterExpression}s.
+ * <pre>
+ * expression := and(expression, ...) | or(expression, ...) | not(expression) | predicate
+ * predicate  := name("prefix") | manufacturer(id) | data(offset, "hex value" [, "hex mask"])
+ *             | rssi(min, max) | address("AA:BB:CC:DD:EE:FF", ...) | lbs() | nearby()
+ * </pre>
+ * Numbers may be decimal or hexadecimal with the "0x" prefix. Strings are quoted with '"',
+ * and '"' and '\' in strings are escaped with '\'.
+ */
+/* package */ final class FilterParser {
+	@NonNull
+	private final String text;
+	private int position;
+
+	/* package */ FilterParser(@NonNull final String text) {
+		this.text = text;
+	}
+
+	@NonNull
+	/* package */ FilterExpression parse() {
+		final FilterExpression expression = parseExpression();
+		skipWhitespace();
+		if (position != text.length())
+			throw error("Unexpected character");
+		return expression;
+	}
+
+	@NonNull
+	private FilterExpression parseExpression() {
+		final String function = parseIdentifier();
+		expect('(');
+		final FilterExpression expression;
+		switch (function) {
+			case FilterExpression.Composite.AND:
+			case FilterExpression.Composite.OR: {
+				final List<FilterExpression> operands = new ArrayList<>();
+				if (!peek(')')) {
+					do {
+						operands.add(parseExpression());
+					} while (accept(','));
+				}
+				final FilterExpression[] array = operands.toArray(new FilterExpression[0]);
+				expression = FilterExpression.Composite.AND.equals(function) ?
+						FilterExpression.and(array) : FilterExpression.or(array);
+				break;
+			}
+			case "not":
+				expression = FilterExpression.not(parseExpression());
+				break;
+			case "name":
+				expression = FilterPredicate.namePrefix(parseString());
+				break;
+			case "manufacturer":
+				expression = FilterPredicate.manufacturerId((int) parseNumber());
+				break;
+			case "data": {
+				final int offset = (int) parseNumber();
+				expect(',');
+				final byte[] value = fromHex(parseString());
+				final byte[] mask = accept(',') ? fromHex(parseString()) : null;
+				expression = FilterPredicate.manufacturerData(offset, value, mask);
+				break;
+			}
+			case "rssi": {
+				final int min = (int) parseNumber();
+				expect(',');
+				expression = FilterPredicate.rssiRange(min, (int) parseNumber());
+				break;
+			}
+			case "address": {
+				final List<String> addresses = new ArrayList<>();
+				do {
+					addresses.add(parseString());
+				} while (accept(','));
+				expression = FilterPredicate.address(addresses.toArray(new String[0]));
+				break;
+			}
+			case "lbs":
+				expression = FilterPredicate.lbsService();
+				break;
+			case "nearby":
+				expression = FilterPredicate.nearby();
+				break;
+			default:
+				throw error("Unknown function " + function);
+		}
+		expect(')');
+		return expression;
+	}
+
+	@NonNull
+	private String parseIdentifier() {
+		skipWhitespace();
+		final int start = position;
+		while (position < text.length() && Character.isLetter(text.charAt(position)))
+			position++;
+		if (start == position)
+			throw error("Expected function name");
+		return text.substring(start, position);
+	}
+
+	private long parseNumber() {
+		skipWhitespace();
+		final int start = position;
+		if (position < text.length() && text.charAt(position) == '-')
+			position++;
+		while (position < text.length() && Character.isLetterOrDigit(text.charAt(position)))
+			position++;
+		final String number = text.substring(start, position);
+		final boolean negative = number.startsWith("-");
+		final String digits = negative ? number.substring(1) : number;
+		try {
+			if (digits.startsWith("0x") || digits.startsWith("0X")) {
+				final long value = Long.parseLong(digits.substring(2), 16);
+				return negative ? -value : value;
+			}
+			return Long.parseLong(number);
+		} catch (final NumberFormatException e) {
+			throw error("Invalid number " + number);
+		}
+	}
+
+	@NonNull
+	private String parseString() {
+		expect('"');
+		final StringBuilder builder = new StringBuilder();
+		while (position < text.length()) {
+			char c = text.charAt(position++);
+			if (c == '"')
+				return builder.toString();
+			if (c == '\\' && position < text.length())
+				c = text.charAt(position++);
+			builder.append(c);
+		}
+		throw error("Unterminated string");
+	}
+
+	private void expect(final char c) {
+		if (!accept(c))
+			throw error("Expected '" + c + "'");
+	}
+
+	private boolean accept(final char c) {
+		if (peek(c)) {
+			position++;
+			return true;
+		}
+		return false;
+	}
+
+	private boolean peek(final char c) {
+		skipWhitespace();
+		return position < text.length() && text.charAt(position) == c;
+	}
+
+	private void skipWhitespace() {
+		while (position < text.length() && Character.isWhitespace(text.charAt(position)))
+			position++;
+	}
+
+	@NonNull
+	private IllegalArgumentException error(@NonNull final String message) {
+		return new IllegalArgumentException(message + " at " + position + " in filter: " + text);
+	}
+
+	@NonNull
+	/* package */ static String quote(@NonNull final String value) {
+		final StringBuilder builder = new StringBuilder(value.length() + 2).append('"');
+		for (int i = 0; i < value.length(); ++i) {
+			final char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				builder.append('\\');
+			builder.append(c);
+		}
+		return builder.append('"').toString();
+	}
+
+	@NonNull
+	/* package */ static String toHex(@NonNull final byte[] bytes) {
+		final StringBuilder builder = new StringBuilder(bytes.length * 2);
+		for (final byte b : bytes)
+			builder.append(Character.toUpperCase(Character.forDigit((b >> 4) & 0x0F, 16)))
+					.append(Character.toUpperCase(Character.forDigit(b & 0x0F, 16)));
+		return builder.toString();
+	}
+
+	@NonNull
+	private byte[] fromHex(@NonNull final String hex) {
+		if (hex.length() % 2 != 0)
+			throw error("Invalid hex value " + hex);
+		final byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; ++i) {
+			final int high = Character.digit(hex.charAt(2 * i), 16);
+			final int low = Character.digit(hex.charAt(2 * i + 1), 16);
+			if (high < 0 || low < 0)
+				throw error("Invalid hex value " + hex);
+			bytes[i] = (byte) ((high << 4) | low);
+		}
+		return bytes;
+	}
+}
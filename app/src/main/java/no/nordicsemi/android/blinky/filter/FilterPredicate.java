@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.filter;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice;
+
+/**
+ * A leaf of a {@link FilterExpression}, testing a single property of a device.
+ * <p>
+ * Predicates are compared by value, so that a recompiled program can reuse the results
+ * of predicates that have not changed.
+ */
+public abstract class FilterPredicate extends FilterExpression {
+
+	/* package */ FilterPredicate() {
+		// Predicates are created using the static factory methods.
+	}
+
+	/**
+	 * Returns a predicate matching devices whose name starts with the given prefix.
+	 */
+	@NonNull
+	public static FilterPredicate namePrefix(@NonNull final String prefix) {
+		return new NamePrefix(prefix);
+	}
+
+	/**
+	 * Returns a predicate matching devices advertising manufacturer data with the given
+	 * Company Identifier.
+	 */
+	@NonNull
+	public static FilterPredicate manufacturerId(final int companyId) {
+		return new ManufacturerId(companyId);
+	}
+
+	/**
+	 * Returns a predicate matching devices whose manufacturer data, following the Company
+	 * Identifier, contain the given bytes at the given offset.
+	 *
+	 * @param offset the offset in the manufacturer data.
+	 * @param value  the expected bytes.
+	 * @param mask   the mask applied to the data before comparing, of the same length as
+	 *               the value, or null to compare all bits.
+	 */
+	@NonNull
+	public static FilterPredicate manufacturerData(final int offset, @NonNull final byte[] value,
+												   @Nullable final byte[] mask) {
+		return new ManufacturerData(offset, value, mask);
+	}
+
+	/**
+	 * Returns a predicate matching devices with the smoothed RSSI in the given range.
+	 *
+	 * @param min the minimum RSSI, in dBm, inclusive.
+	 * @param max the maximum RSSI, in dBm, inclusive.
+	 */
+	@NonNull
+	public static FilterPredicate rssiRange(final int min, final int max) {
+		return new RssiRange(min, max);
+	}
+
+	/**
+	 * Returns a predicate matching devices with one of the given addresses. Combined with
+	 * {@link #not(FilterExpression)} it can be used as a deny list.
+	 *
+	 * @param addresses the Bluetooth addresses, in format "AA:BB:CC:DD:EE:FF".
+	 */
+	@NonNull
+	public static FilterPredicate address(@NonNull final String... addresses) {
+		final long[] keys = new long[addresses.length];
+		for (int i = 0; i < addresses.length; ++i)
+			keys[i] = DiscoveredBluetoothDevice.toKey(addresses[i]);
+		return new AddressList(keys);
+	}
+
+	/**
+	 * Returns a predicate matching devices advertising the Led-Button Service UUID.
+	 */
+	@NonNull
+	public static FilterPredicate lbsService() {
+		return LbsService.INSTANCE;
+	}
+
+	/**
+	 * Returns a predicate matching devices that are nearby.
+	 *
+	 * @see DiscoveredBluetoothDevice#isNearby()
+	 */
+	@NonNull
+	public static FilterPredicate nearby() {
+		return Nearby.INSTANCE;
+	}
+
+	/**
+	 * Tests the device. This method is called after each device update and must not allocate.
+	 *
+	 * @param device the device.
+	 * @return True, if the device matches the predicate.
+	 */
+	public abstract boolean test(@NonNull DiscoveredBluetoothDevice device);
+
+	@Override
+	/* package */ void compile(@NonNull final FilterProgram.Compiler compiler) {
+		compiler.emitPredicate(this);
+	}
+
+	/* package */ static final class NamePrefix extends FilterPredicate {
+		@NonNull
+		private final String prefix;
+
+		private NamePrefix(@NonNull final String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public boolean test(@NonNull final DiscoveredBluetoothDevice device) {
+			final String name = device.getName();
+			return name != null && name.startsWith(prefix);
+		}
+
+		@NonNull
+		@Override
+		public String toString() {
+			return "name(" + FilterParser.quote(prefix) + ")";
+		}
+
+		@Override
+		public boolean equals(@Nullable final Object o) {
+			return o instanceof NamePrefix && prefix.equals(((NamePrefix) o).prefix);
+		}
+
+		@Override
+		public int hashCode() {
+			return prefix.hashCode();
+		}
+	}
+
+	/* package */ static final class ManufacturerId extends FilterPredicate {
+		private final int companyId;
+
+		private ManufacturerId(final int companyId) {
+			this.companyId = companyId;
+		}
+
+		@Override
+		public boolean test(@NonNull final DiscoveredBluetoothDevice device) {
+			return device.getManufacturerId() == companyId;
+		}
+
+		@NonNull
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "manufacturer(0x%04X)", companyId);
+		}
+
+		@Override
+		public boolean equals(@Nullable final Object o) {
+			return o instanceof ManufacturerId && companyId == ((ManufacturerId) o).companyId;
+		}
+
+		@Override
+		public int hashCode() {
+			return companyId;
+		}
+	}
+
+	/* package */ static final class ManufacturerData extends FilterPredicate {
+		private final int offset;
+		@NonNull
+		private final byte[] value;
+		@Nullable
+		private final byte[] mask;
+
+		private ManufacturerData(final int offset, @NonNull final byte[] value, @Nullable final byte[] mask) {
+			if (offset < 0)
+				throw new IllegalArgumentException("Offset must not be negative");
+			if (mask != null && mask.length != value.length)
+				throw new IllegalArgumentException("Mask and value must have the same length");
+			this.offset = offset;
+			this.value = value.clone();
+			this.mask = mask != null ? mask.clone() : null;
+		}
+
+		@Override
+		public boolean test(@NonNull final DiscoveredBluetoothDevice device) {
+			if (device.getManufacturerDataLength() < offset + value.length)
+				return false;
+			for (int i = 0; i < value.length; ++i) {
+				final int m = mask != null ? mask[i] & 0xFF : 0xFF;
+				if ((device.getManufacturerData(offset + i) & m) != (value[i] & m))
+					return false;
+			}
+			return true;
+		}
+
+		@NonNull
+		@Override
+		public String toString() {
+			final StringBuilder builder = new StringBuilder("data(").append(offset).append(", ")
+					.append(FilterParser.quote(FilterParser.toHex(value)));
+			if (mask != null)
+				builder.append(", ").append(FilterParser.quote(FilterParser.toHex(mask)));
+			return builder.append(')').toString();
+		}
+
+		@Override
+		public boolean equals(@Nullable final Object o) {
+			if (!(o instanceof ManufacturerData))
+				return false;
+			final ManufacturerData that = (ManufacturerData) o;
+			return offset == that.offset && Arrays.equals(value, that.value) && Arrays.equals(mask, that.mask);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * offset + Arrays.hashCode(value)) + Arrays.hashCode(mask);
+		}
+	}
+
+	/* package */ static final class RssiRange extends FilterPredicate {
+		private final int min;
+		private final int max;
+
+		private RssiRange(final int min, final int max) {
+			if (min > max)
+				throw new IllegalArgumentException("Invalid RSSI range");
+			this.min = min;
+			this.max = max;
+		}
+
+		@Override
+		public boolean test(@NonNull final DiscoveredBluetoothDevice device) {
+			final float rssi = device.getSmoothedRssi();
+			return rssi >= min && rssi <= max;
+		}
+
+		@NonNull
+		@Override
+		public String toString() {
+			return "rssi(" + min + ", " + max + ")";
+		}
+
+		@Override
+		public boolean equals(@Nullable final Object o) {
+			if (!(o instanceof RssiRange))
+				return false;
+			final RssiRange that = (RssiRange) o;
+			return min == that.min && max == that.max;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * min + max;
+		}
+	}
+
+	/* package */ static final class AddressList extends FilterPredicate {
+		/** The packed addresses, sorted. */
+		@NonNull
+		private final long[] keys;
+
+		private AddressList(@NonNull final long[] keys) {
+			this.keys = keys;
+			Arrays.sort(this.keys);
+		}
+
+		@Override
+		public boolean test(@NonNull final DiscoveredBluetoothDevice device) {
+			return Arrays.binarySearch(keys, device.getKey()) >= 0;
+		}
+
+		@NonNull
+		@Override
+		public String toString() {
+			final StringBuilder builder = new StringBuilder("address(");
+			for (int i = 0; i < keys.length; ++i) {
+				if (i > 0)
+					builder.append(", ");
+				builder.append(FilterParser.quote(DiscoveredBluetoothDevice.toAddress(keys[i])));
+			}
+			return builder.append(')').toString();
+		}
+
+		@Override
+		public boolean equals(@Nullable final Object o) {
+			return o instanceof AddressList && Arrays.equals(keys, ((AddressList) o).keys);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(keys);
+		}
+	}
+
+	/* package */ static final class LbsService extends FilterPredicate {
+		private static final LbsService INSTANCE = new LbsService();
+
+		@Override
+		public boolean test(@NonNull final DiscoveredBluetoothDevice device) {
+			return device.isLbsServiceAdvertised();
+		}
+
+		@NonNull
+		@Override
+		public String toString() {
+			return "lbs()";
+		}
+	}
+
+	/* package */ static final class Nearby extends FilterPredicate {
+		private static final Nearby INSTANCE = new Nearby();
+
+		@Override
+		public boolean test(@NonNull final DiscoveredBluetoothDevice device) {
+			return device.isNearby();
+		}
+
+		@NonNull
+		@Override
+		public String toString() {
+			return "nearby()";
+		}
+	}
+}
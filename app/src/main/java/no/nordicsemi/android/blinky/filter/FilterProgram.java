@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.filter;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice;
+
+/**
+ * A {@link FilterExpression} compiled into a flat program.
+ * <p>
+ * The distinct predicates of the expression are numbered, and their results for a device are
+ * kept as bits of a long. The program is a sequence of instructions in postfix order, which
+ * combine the predicate results using a stack of bits, also kept in a long. Evaluating the
+ * program does not allocate.
+ * <p>
+ * The predicate results are cached per device, so when the filter changes, only the
+ * predicates that were not part of the previous program need to be evaluated, see
+ * {@link #migrateResults(int[], long, DiscoveredBluetoothDevice)}.
+ */
+public final class FilterProgram {
+	/** The maximum number of distinct predicates, one bit for each. */
+	public static final int MAX_PREDICATES = 64;
+
+	// Instructions. Non-negative values push the result of the predicate with that index.
+	/* package */ static final int OP_AND = -1;
+	/* package */ static final int OP_OR = -2;
+	/* package */ static final int OP_NOT = -3;
+	/* package */ static final int OP_TRUE = -4;
+	/* package */ static final int OP_FALSE = -5;
+
+	/** A program that matches all devices. */
+	public static final FilterProgram MATCH_ALL = compile(null);
+
+	@NonNull
+	private final FilterPredicate[] predicates;
+	@NonNull
+	private final int[] code;
+	@Nullable
+	private final FilterExpression expression;
+
+	private FilterProgram(@Nullable final FilterExpression expression,
+						  @NonNull final FilterPredicate[] predicates, @NonNull final int[] code) {
+		this.expression = expression;
+		this.predicates = predicates;
+		this.code = code;
+	}
+
+	/**
+	 * Compiles the expression.
+	 *
+	 * @param expression the expression, or null to match all devices.
+	 * @return The program.
+	 * @throws IllegalArgumentException if the expression has more than {@link #MAX_PREDICATES}
+	 *                                  distinct predicates or is nested too deep.
+	 */
+	@NonNull
+	public static FilterProgram compile(@Nullable final FilterExpression expression) {
+		final Compiler compiler = new Compiler();
+		if (expression != null)
+			expression.compile(compiler);
+		else
+			compiler.emit(OP_TRUE);
+		return compiler.build(expression);
+	}
+
+	/**
+	 * Returns the compiled expression, or null if the program matches all devices.
+	 */
+	@Nullable
+	public FilterExpression getExpression() {
+		return expression;
+	}
+
+	/**
+	 * Returns the number of distinct predicates in the program.
+	 */
+	public int getPredicateCount() {
+		return predicates.length;
+	}
+
+	/**
+	 * Evaluates all predicates for the device.
+	 *
+	 * @param device the device.
+	 * @return The predicate results, one bit for each predicate.
+	 */
+	public long evaluatePredicates(@NonNull final DiscoveredBluetoothDevice device) {
+		long results = 0;
+		for (int i = 0; i < predicates.length; ++i) {
+			if (predicates[i].test(device))
+				results |= 1L << i;
+		}
+		return results;
+	}
+
+	/**
+	 * Combines the predicate results into the result of the expression.
+	 *
+	 * @param results the predicate results, as returned by
+	 *                {@link #evaluatePredicates(DiscoveredBluetoothDevice)}.
+	 * @return True, if the device matches the expression.
+	 */
+	public boolean execute(final long results) {
+		long stack = 0;
+		for (final int op : code) {
+			switch (op) {
+				case OP_AND:
+					stack = (stack >>> 1) & (stack | ~1L);
+					break;
+				case OP_OR:
+					stack = (stack >>> 1) | (stack & 1L);
+					break;
+				case OP_NOT:
+					stack ^= 1L;
+					break;
+				case OP_TRUE:
+					stack = (stack << 1) | 1L;
+					break;
+				case OP_FALSE:
+					stack = stack << 1;
+					break;
+				default:
+					stack = (stack << 1) | ((results >>> op) & 1L);
+					break;
+			}
+		}
+		return (stack & 1L) != 0;
+	}
+
+	/**
+	 * Maps the predicates of this program to the predicates of the previous one.
+	 *
+	 * @param previous the previous program.
+	 * @return For each predicate of this program, the index of the equal predicate in the
+	 * previous program, or -1 if the predicate is new.
+	 */
+	@NonNull
+	public int[] mapPredicates(@NonNull final FilterProgram previous) {
+		final int[] mapping = new int[predicates.length];
+		for (int i = 0; i < predicates.length; ++i) {
+			mapping[i] = -1;
+			for (int j = 0; j < previous.predicates.length; ++j) {
+				if (predicates[i].equals(previous.predicates[j])) {
+					mapping[i] = j;
+					break;
+				}
+			}
+		}
+		return mapping;
+	}
+
+	/**
+	 * Converts the predicate results of the previous program to the results of this program.
+	 * Only the new predicates are evaluated.
+	 *
+	 * @param mapping         the mapping returned by {@link #mapPredicates(FilterProgram)}.
+	 * @param previousResults the predicate results of the previous program.
+	 * @param device          the device.
+	 * @return The predicate results of this program.
+	 */
+	public long migrateResults(@NonNull final int[] mapping, final long previousResults,
+							   @NonNull final DiscoveredBluetoothDevice device) {
+		long results = 0;
+		for (int i = 0; i < predicates.length; ++i) {
+			final int previous = mapping[i];
+			final boolean result = previous >= 0 ?
+					((previousResults >>> previous) & 1L) != 0 : predicates[i].test(device);
+			if (result)
+				results |= 1L << i;
+		}
+		return results;
+	}
+
+	/**
+	 * Builds the program from an expression tree.
+	 */
+	/* package */ static final class Compiler {
+		private final List<FilterPredicate> predicates = new ArrayList<>();
+		private final List<Integer> code = new ArrayList<>();
+		private int depth;
+		private int maxDepth;
+
+		/* package */ void emitPredicate(@NonNull final FilterPredicate predicate) {
+			int index = predicates.indexOf(predicate);
+			if (index < 0) {
+				if (predicates.size() == MAX_PREDICATES)
+					throw new IllegalArgumentException("Too many predicates in the filter");
+				index = predicates.size();
+				predicates.add(predicate);
+			}
+			push(index);
+		}
+
+		/* package */ void emit(final int op) {
+			switch (op) {
+				case OP_AND:
+				case OP_OR:
+					depth--;
+					code.add(op);
+					break;
+				case OP_NOT:
+					code.add(op);
+					break;
+				default:
+					push(op);
+					break;
+			}
+		}
+
+		private void push(final int op) {
+			code.add(op);
+			maxDepth = Math.max(maxDepth, ++depth);
+			// The stack is kept in a long.
+			if (maxDepth > 64)
+				throw new IllegalArgumentException("Filter nested too deep");
+		}
+
+		@NonNull
+		/* package */ FilterProgram build(@Nullable final FilterExpression expression) {
+			final int[] program = new int[code.size()];
+			for (int i = 0; i < program.length; ++i)
+				program[i] = code.get(i);
+			return new FilterProgram(expression, predicates.toArray(new FilterPredicate[0]), program);
+		}
+	}
+}
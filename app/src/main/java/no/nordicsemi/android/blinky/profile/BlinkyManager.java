@@ -51,9 +51,6 @@ import no.nordicsemi.android.log.LogSession;
 import no.nordicsemi.android.log.Logger;
 
 public class BlinkyManager extends ObservableBleManager {
-	/** Nordic Blinky Service UUID. */
-	//public final static UUID LBS_UUID_SERVICE = UUID.fromString("00001523-1212-efde-1523-785feabcd123");
-	public final static UUID LBS_UUID_SERVICE = UUID.fromString("00010000-89BD-43C8-9231-40F6E305F96D");
 	/** BUTTON characteristic UUID. */
 	//private final static UUID LBS_UUID_BUTTON_CHAR = UUID.fromString("00001524-1212-efde-1523-785feabcd123");
 	private final static UUID LBS_UUID_OUTPUT = UUID.fromString("00010010-89BD-43C8-9231-40F6E305F96D");
@@ -191,7 +188,7 @@ public class BlinkyManager extends ObservableBleManager {
 
 		@Override
 		public boolean isRequiredServiceSupported(@NonNull final BluetoothGatt gatt) {
-			final BluetoothGattService service = gatt.getService(LBS_UUID_SERVICE);
+			final BluetoothGattService service = gatt.getService(BlinkyProfile.LBS_UUID_SERVICE);
 			//System.out.println("INI SERVICE : "+service);
 			if (service != null) {
 				outputCharacteristic = service.getCharacteristic(LBS_UUID_OUTPUT);
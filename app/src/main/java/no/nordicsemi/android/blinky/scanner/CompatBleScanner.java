@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.scanner;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice;
+import no.nordicsemi.android.blinky.utils.LocationState;
+import no.nordicsemi.android.support.v18.scanner.BluetoothLeScannerCompat;
+import no.nordicsemi.android.support.v18.scanner.ScanCallback;
+import no.nordicsemi.android.support.v18.scanner.ScanFilter;
+import no.nordicsemi.android.support.v18.scanner.ScanRecord;
+import no.nordicsemi.android.support.v18.scanner.ScanResult;
+import no.nordicsemi.android.support.v18.scanner.ScanSettings;
+
+/**
+ * The {@link BleScanner} using {@link BluetoothLeScannerCompat}.
+ * <p>
+ * Batched scan results are collected in a {@link ScanResultBuffer}, which keeps only the most
+ * recent result of each device, and are delivered in one pass.
+ */
+public class CompatBleScanner implements BleScanner {
+	@NonNull
+	private final LocationState locationState;
+	@NonNull
+	private final Map<ScanResultListener, ScanCallback> callbacks = new HashMap<>();
+
+	public CompatBleScanner(@NonNull final LocationState locationState) {
+		this.locationState = locationState;
+	}
+
+	@Override
+	public void startScan(@Nullable final List<ScanFilter> filters, @NonNull final ScanSettings settings,
+						  @NonNull final ScanResultListener listener, @NonNull final Handler handler) {
+		stopScan(listener);
+		final ScanCallback callback = new ListenerScanCallback(listener);
+		callbacks.put(listener, callback);
+
+		final BluetoothLeScannerCompat scanner = BluetoothLeScannerCompat.getScanner();
+		scanner.startScan(filters, settings, callback, handler);
+	}
+
+	@Override
+	public void stopScan(@NonNull final ScanResultListener listener) {
+		final ScanCallback callback = callbacks.remove(listener);
+		if (callback != null) {
+			final BluetoothLeScannerCompat scanner = BluetoothLeScannerCompat.getScanner();
+			scanner.stopScan(callback);
+		}
+	}
+
+	private class ListenerScanCallback extends ScanCallback {
+		@NonNull
+		private final ScanResultListener listener;
+		@NonNull
+		private final ScanResultBuffer buffer = new ScanResultBuffer();
+
+		private ListenerScanCallback(@NonNull final ScanResultListener listener) {
+			this.listener = listener;
+		}
+
+		@Override
+		public void onScanResult(final int callbackType, @NonNull final ScanResult result) {
+			// This callback will be called only if the scan report delay is not set or is set to 0.
+
+			// If the packet has been obtained while Location was disabled, mark Location as not required
+			locationState.onScanResultReceived();
+
+			deliver(result, listener);
+			listener.onBatchComplete(SystemClock.elapsedRealtime());
+		}
+
+		@Override
+		public void onBatchScanResults(@NonNull final List<ScanResult> results) {
+			// This callback will be called only if the report delay set above is greater then 0.
+
+			// If the packet has been obtained while Location was disabled, mark Location as not required
+			locationState.onScanResultReceived();
+
+			// An empty batch is reported as well, so expired devices are removed.
+			buffer.deliver(results, listener, SystemClock.elapsedRealtime());
+		}
+
+		@Override
+		public void onScanFailed(final int errorCode) {
+			listener.onScanFailed(errorCode);
+		}
+	}
+
+	/**
+	 * Passes a single scan result to the listener.
+	 *
+	 * @param result   the scan result.
+	 * @param listener the listener.
+	 */
+	private static void deliver(@NonNull final ScanResult result, @NonNull final ScanResultListener listener) {
+		final BluetoothDevice device = result.getDevice();
+		final ScanRecord record = result.getScanRecord();
+		final byte[] bytes = record != null ? record.getBytes() : null;
+		listener.onScanResult(DiscoveredBluetoothDevice.toKey(device.getAddress()), device,
+				result.getRssi(), result.getTimestampNanos(),
+				bytes, bytes != null ? bytes.length : 0);
+	}
+}
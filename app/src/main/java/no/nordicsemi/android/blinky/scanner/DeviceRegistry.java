@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.scanner;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice;
+
+/**
+ * The process-wide registry of discovered devices, keyed by the packed device address.
+ * <p>
+ * Activities pass only the key of a device, see {@link DiscoveredBluetoothDevice#getKey()},
+ * and look the live device up here, instead of parceling it through an Intent.
+ * <p>
+ * Devices are added and removed on the scan processing thread, which also updates them.
+ * The registry itself may be read from any thread. Other threads should use only the
+ * {@link DiscoveredBluetoothDevice#getDevice() Bluetooth device}, the address and the name
+ * of a registered device. The name may be stale.
+ * <p>
+ * The registry is not persisted. After the process has been restarted, a device must be
+ * recreated from its address.
+ */
+public final class DeviceRegistry {
+	private static final DeviceRegistry INSTANCE = new DeviceRegistry();
+
+	@NonNull
+	private final Map<Long, DiscoveredBluetoothDevice> devices = new ConcurrentHashMap<>();
+
+	@NonNull
+	public static DeviceRegistry getInstance() {
+		return INSTANCE;
+	}
+
+	private DeviceRegistry() {
+		// Use getInstance().
+	}
+
+	/**
+	 * Returns the device with the given key.
+	 *
+	 * @param key the packed device address.
+	 * @return The device, or null if it's not registered.
+	 */
+	@Nullable
+	public DiscoveredBluetoothDevice get(final long key) {
+		return devices.get(key);
+	}
+
+	/**
+	 * Registers a new device. This should be called only when the device is discovered,
+	 * not on every update.
+	 *
+	 * @param device the device.
+	 */
+	public void add(@NonNull final DiscoveredBluetoothDevice device) {
+		devices.put(device.getKey(), device);
+	}
+
+	/**
+	 * Removes the device, unless it has already been replaced with another instance.
+	 *
+	 * @param device the device.
+	 */
+	public void remove(@NonNull final DiscoveredBluetoothDevice device) {
+		devices.remove(device.getKey(), device);
+	}
+
+	public void clear() {
+		devices.clear();
+	}
+
+	public int size() {
+		return devices.size();
+	}
+}
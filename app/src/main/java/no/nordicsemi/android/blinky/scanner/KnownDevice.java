@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.scanner;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * An immutable entry of the {@link KnownDeviceStore}: a device that has recently been seen
+ * or connected to.
+ * <p>
+ * Times are wall-clock times, from {@link System#currentTimeMillis()}, so they remain valid
+ * after a reboot.
+ */
+public final class KnownDevice {
+	/**
+	 * The RSSI of a device that has been connected to, but never seen in the scanner.
+	 * It's below any RSSI reported by the system and fits in the signed byte of the store.
+	 */
+	public static final int RSSI_UNKNOWN = -128;
+
+	private final long key;
+	@Nullable
+	private final String name;
+	private final int rssi;
+	private final boolean lbsServiceAdvertised;
+	private final long lastSeenTime;
+	private final long lastConnectedTime;
+
+	/**
+	 * Creates an entry.
+	 *
+	 * @param key                  the packed device address.
+	 * @param name                 the device name, or null if unknown.
+	 * @param rssi                 the last RSSI, in dBm, or {@link #RSSI_UNKNOWN}.
+	 * @param lbsServiceAdvertised whether the device advertised the LBS service UUID.
+	 * @param lastSeenTime         the time the device was last seen, in milliseconds.
+	 * @param lastConnectedTime    the time the device was last connected to, in milliseconds,
+	 *                             or 0 if never.
+	 */
+	public KnownDevice(final long key, @Nullable final String name, final int rssi,
+					   final boolean lbsServiceAdvertised,
+					   final long lastSeenTime, final long lastConnectedTime) {
+		this.key = key;
+		this.name = name;
+		this.rssi = rssi;
+		this.lbsServiceAdvertised = lbsServiceAdvertised;
+		this.lastSeenTime = lastSeenTime;
+		this.lastConnectedTime = lastConnectedTime;
+	}
+
+	/**
+	 * Returns the packed device address.
+	 *
+	 * @see no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice#getKey()
+	 */
+	public long getKey() {
+		return key;
+	}
+
+	@Nullable
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the last RSSI, in dBm, or {@link #RSSI_UNKNOWN} if the device has not been seen.
+	 */
+	public int getRssi() {
+		return rssi;
+	}
+
+	public boolean isLbsServiceAdvertised() {
+		return lbsServiceAdvertised;
+	}
+
+	/**
+	 * Returns the time the device was last seen, in milliseconds since epoch.
+	 */
+	public long getLastSeenTime() {
+		return lastSeenTime;
+	}
+
+	/**
+	 * Returns the time the device was last connected to, in milliseconds since epoch,
+	 * or 0 if it never was.
+	 */
+	public long getLastConnectedTime() {
+		return lastConnectedTime;
+	}
+
+	/**
+	 * Returns the time of the most recent activity of the device, used to keep the most
+	 * recent devices when the store is full.
+	 */
+	/* package */ long getLastActivityTime() {
+		return Math.max(lastSeenTime, lastConnectedTime);
+	}
+
+	/**
+	 * Merges a newer entry of the same device with this one. The name and the connection time
+	 * are kept, if the newer entry does not have them.
+	 *
+	 * @param newer the newer entry.
+	 * @return The merged entry.
+	 */
+	@NonNull
+	/* package */ KnownDevice merge(@NonNull final KnownDevice newer) {
+		final String mergedName = newer.name != null ? newer.name : name;
+		final long mergedConnectedTime = Math.max(lastConnectedTime, newer.lastConnectedTime);
+		if (mergedName == newer.name && mergedConnectedTime == newer.lastConnectedTime
+				&& newer.lastSeenTime >= lastSeenTime)
+			return newer;
+		return new KnownDevice(key, mergedName, newer.rssi, newer.lbsServiceAdvertised,
+				Math.max(lastSeenTime, newer.lastSeenTime), mergedConnectedTime);
+	}
+}
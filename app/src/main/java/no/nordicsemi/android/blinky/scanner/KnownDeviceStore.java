@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.scanner;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import no.nordicsemi.android.blinky.utils.LongHashMap;
+
+/**
+ * A small on-disk store of recently seen and recently connected devices, used to show them
+ * in the scanner before fresh advertising packets are received.
+ * <p>
+ * The file starts with a header of 10 bytes: the {@link #MAGIC} number, the {@link #VERSION}
+ * and the number of records. Each device is then stored as a record of:
+ * <ul>
+ * <li>the device address (6 bytes),</li>
+ * <li>the last RSSI, in dBm, or {@link KnownDevice#RSSI_UNKNOWN} (1 byte, signed),</li>
+ * <li>flags, bit 0 set if the LBS service UUID was advertised (1 byte),</li>
+ * <li>the last-seen time, in milliseconds since epoch (8 bytes),</li>
+ * <li>the last-connected time, in milliseconds since epoch, or 0 (8 bytes),</li>
+ * <li>the length of the name in UTF-8, or 255 if the name is unknown (1 byte, unsigned),</li>
+ * <li>the name in UTF-8.</li>
+ * </ul>
+ * All values are Big Endian. At most {@link #MAX_DEVICES} most recent devices are kept.
+ * <p>
+ * The store is loaded and written on its own background thread. Saved devices are merged
+ * in memory and written to disk in batches, at most once every {@link #WRITE_DELAY} ms,
+ * so the callers never wait for file I/O. The file is replaced atomically.
+ * <p>
+ * This class is thread safe.
+ */
+public final class KnownDeviceStore {
+	private static final String TAG = "KnownDeviceStore";
+	private static final String FILE_NAME = "known_devices";
+	/** The magic number at the beginning of the file, "BLKD". */
+	private static final int MAGIC = 0x424C4B44;
+	/** The file format version. */
+	private static final short VERSION = 1;
+	private static final int HEADER_SIZE = 10;
+	/** The size of a record without the name. */
+	private static final int RECORD_HEADER_SIZE = 25;
+	/** Names longer than this number of bytes are not stored. */
+	private static final int MAX_NAME_LENGTH = 248;
+	private static final int NO_NAME = 0xFF;
+	private static final int FLAG_LBS_SERVICE = 0x01;
+	/** The maximum number of devices kept in the store. */
+	public static final int MAX_DEVICES = 1000;
+	/** The delay after a change before the store is written, so that changes are batched. */
+	public static final long WRITE_DELAY = 5000; // [ms]
+
+	/**
+	 * The callback notified when the store has been loaded.
+	 */
+	@FunctionalInterface
+	public interface Callback {
+		/**
+		 * Called on the store thread with the known devices, the most recent first.
+		 *
+		 * @param devices the known devices.
+		 */
+		void onKnownDevicesLoaded(@NonNull final List<KnownDevice> devices);
+	}
+
+	/** A mutable holder of an entry, so that updated entries keep their place in the list. */
+	private static final class Slot {
+		@NonNull
+		private KnownDevice device;
+
+		private Slot(@NonNull final KnownDevice device) {
+			this.device = device;
+		}
+	}
+
+	private static KnownDeviceStore instance;
+
+	@NonNull
+	private final File file;
+	@NonNull
+	private final Handler handler;
+	/**
+	 * The known devices, keyed by the packed device address. Accessed only on the store thread.
+	 */
+	@NonNull
+	private final LongHashMap<Slot> devices = new LongHashMap<>();
+	/**
+	 * The same devices as a list, used for iteration. Accessed only on the store thread.
+	 */
+	@NonNull
+	private final List<Slot> entries = new ArrayList<>();
+	private boolean loaded;
+	private boolean writeScheduled;
+
+	/**
+	 * Returns the process-wide store, so that devices seen in the scanner and devices
+	 * connected to in other screens are kept together.
+	 *
+	 * @param context the context.
+	 * @return The store.
+	 */
+	@NonNull
+	public static synchronized KnownDeviceStore getInstance(@NonNull final Context context) {
+		if (instance == null)
+			instance = new KnownDeviceStore(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+		return instance;
+	}
+
+	private KnownDeviceStore(@NonNull final File file) {
+		this.file = file;
+		final HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		handler = new Handler(thread.getLooper());
+	}
+
+	/**
+	 * Loads the store, if it has not been loaded yet, and returns the known devices.
+	 *
+	 * @param callback the callback, called on the store thread.
+	 */
+	public void load(@NonNull final Callback callback) {
+		handler.post(() -> {
+			ensureLoaded();
+			callback.onKnownDevicesLoaded(getSortedDevices());
+		});
+	}
+
+	/**
+	 * Returns the known devices kept in memory, including the changes saved since they were
+	 * loaded. The file is not read, so this must be called after {@link #load(Callback)}.
+	 *
+	 * @param callback the callback, called on the store thread.
+	 */
+	public void getKnownDevices(@NonNull final Callback callback) {
+		handler.post(() -> callback.onKnownDevicesLoaded(getSortedDevices()));
+	}
+
+	@NonNull
+	private List<KnownDevice> getSortedDevices() {
+		sortByActivity();
+		final List<KnownDevice> result = new ArrayList<>(entries.size());
+		for (final Slot slot : entries)
+			result.add(slot.device);
+		return result;
+	}
+
+	/**
+	 * Merges the given devices into the store. The store is written after {@link #WRITE_DELAY}.
+	 *
+	 * @param seenDevices the devices seen since the last save.
+	 */
+	public void save(@NonNull final Collection<KnownDevice> seenDevices) {
+		if (seenDevices.isEmpty())
+			return;
+		handler.post(() -> {
+			ensureLoaded();
+			for (final KnownDevice device : seenDevices)
+				put(device);
+			scheduleWrite();
+		});
+	}
+
+	/**
+	 * Records a connection to the device.
+	 *
+	 * @param key  the packed device address.
+	 * @param name the device name, or null if unknown.
+	 */
+	public void deviceConnected(final long key, @Nullable final String name) {
+		final long now = System.currentTimeMillis();
+		handler.post(() -> {
+			ensureLoaded();
+			final Slot slot = devices.get(key);
+			final KnownDevice known = slot != null ? slot.device : null;
+			final int rssi = known != null ? known.getRssi() : KnownDevice.RSSI_UNKNOWN;
+			final boolean lbsServiceAdvertised = known != null && known.isLbsServiceAdvertised();
+			put(new KnownDevice(key, name, rssi, lbsServiceAdvertised, now, now));
+			scheduleWrite();
+		});
+	}
+
+	/**
+	 * Writes pending changes without waiting for the write delay. The write is still done
+	 * on the store thread.
+	 *
+	 * @param onWritten called on the store thread when the changes saved before this call
+	 *                  have been written, or the write has failed; may be null.
+	 */
+	public void flush(@Nullable final Runnable onWritten) {
+		handler.post(() -> {
+			if (writeScheduled) {
+				handler.removeCallbacks(writeTask);
+				writeTask.run();
+			}
+			if (onWritten != null)
+				onWritten.run();
+		});
+	}
+
+	private void put(@NonNull final KnownDevice device) {
+		final Slot slot = devices.get(device.getKey());
+		if (slot == null) {
+			final Slot newSlot = new Slot(device);
+			devices.put(device.getKey(), newSlot);
+			entries.add(newSlot);
+		} else {
+			slot.device = slot.device.merge(device);
+		}
+	}
+
+	private void scheduleWrite() {
+		if (!writeScheduled) {
+			writeScheduled = true;
+			handler.postDelayed(writeTask, WRITE_DELAY);
+		}
+	}
+
+	private final Runnable writeTask = new Runnable() {
+		@Override
+		public void run() {
+			writeScheduled = false;
+			trim();
+			final List<KnownDevice> result = new ArrayList<>(entries.size());
+			for (final Slot slot : entries)
+				result.add(slot.device);
+			try {
+				write(file, result);
+			} catch (final IOException e) {
+				Log.w(TAG, "Writing known devices failed", e);
+			}
+		}
+	};
+
+	/**
+	 * Removes the least recent devices if there are more than {@link #MAX_DEVICES}.
+	 */
+	private void trim() {
+		if (entries.size() <= MAX_DEVICES)
+			return;
+		sortByActivity();
+		while (entries.size() > MAX_DEVICES) {
+			final Slot removed = entries.remove(entries.size() - 1);
+			devices.remove(removed.device.getKey());
+		}
+	}
+
+	private void sortByActivity() {
+		Collections.sort(entries, (a, b) ->
+				Long.compare(b.device.getLastActivityTime(), a.device.getLastActivityTime()));
+	}
+
+	private void ensureLoaded() {
+		if (loaded)
+			return;
+		loaded = true;
+		if (!file.exists())
+			return;
+
+		final long start = SystemClock.elapsedRealtimeNanos();
+		try {
+			for (final KnownDevice device : read(file))
+				put(device);
+		} catch (final IOException e) {
+			Log.w(TAG, "Reading known devices failed", e);
+		}
+		Log.v(TAG, entries.size() + " known devices loaded in "
+				+ (SystemClock.elapsedRealtimeNanos() - start) / 1000 + " us");
+	}
+
+	/**
+	 * Reads the whole file at once and decodes the records.
+	 *
+	 * @param file the store file.
+	 * @return The devices.
+	 * @throws IOException if the file could not be read or is not a known device store.
+	 */
+	@NonNull
+	/* package */ static List<KnownDevice> read(@NonNull final File file) throws IOException {
+		final ByteBuffer buffer;
+		try (final FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+			final long size = channel.size();
+			if (size < HEADER_SIZE || size > HEADER_SIZE + (long) MAX_DEVICES * (RECORD_HEADER_SIZE + MAX_NAME_LENGTH))
+				throw new IOException("Invalid file size: " + size);
+			buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0)
+					throw new IOException("Unexpected end of file");
+			}
+			buffer.flip();
+		}
+
+		if (buffer.getInt() != MAGIC)
+			throw new IOException("Not a known device store");
+		final short version = buffer.getShort();
+		if (version != VERSION)
+			throw new IOException("Unsupported version: " + version);
+		final int count = buffer.getInt();
+		if (count < 0 || count > MAX_DEVICES)
+			throw new IOException("Invalid number of records: " + count);
+
+		final byte[] array = buffer.array();
+		final List<KnownDevice> result = new ArrayList<>(count);
+		for (int i = 0; i < count; ++i) {
+			if (buffer.remaining() < RECORD_HEADER_SIZE)
+				throw new IOException("Truncated record");
+			final long key = ((long) buffer.getShort() & 0xFFFF) << 32 | ((long) buffer.getInt() & 0xFFFFFFFFL);
+			final int rssi = buffer.get();
+			final int flags = buffer.get();
+			final long lastSeenTime = buffer.getLong();
+			final long lastConnectedTime = buffer.getLong();
+			final int nameLength = buffer.get() & 0xFF;
+			String name = null;
+			if (nameLength != NO_NAME) {
+				if (buffer.remaining() < nameLength)
+					throw new IOException("Truncated record");
+				name = new String(array, buffer.position(), nameLength, StandardCharsets.UTF_8);
+				buffer.position(buffer.position() + nameLength);
+			}
+			result.add(new KnownDevice(key, name, rssi, (flags & FLAG_LBS_SERVICE) != 0,
+					lastSeenTime, lastConnectedTime));
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the devices to a temporary file, which then replaces the store file.
+	 *
+	 * @param file    the store file.
+	 * @param devices the devices, at most {@link #MAX_DEVICES}.
+	 * @throws IOException if the file could not be written.
+	 */
+	/* package */ static void write(@NonNull final File file, @NonNull final List<KnownDevice> devices)
+			throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE
+				+ devices.size() * (RECORD_HEADER_SIZE + MAX_NAME_LENGTH));
+		buffer.putInt(MAGIC).putShort(VERSION).putInt(devices.size());
+		for (final KnownDevice device : devices) {
+			final long key = device.getKey();
+			buffer.putShort((short) (key >>> 32)).putInt((int) key);
+			buffer.put((byte) device.getRssi());
+			buffer.put((byte) (device.isLbsServiceAdvertised() ? FLAG_LBS_SERVICE : 0));
+			buffer.putLong(device.getLastSeenTime());
+			buffer.putLong(device.getLastConnectedTime());
+			final String name = device.getName();
+			final byte[] bytes = name != null ? name.getBytes(StandardCharsets.UTF_8) : null;
+			if (bytes != null && bytes.length <= MAX_NAME_LENGTH) {
+				buffer.put((byte) bytes.length).put(bytes);
+			} else {
+				buffer.put((byte) NO_NAME);
+			}
+		}
+		buffer.flip();
+
+		final File temp = new File(file.getPath() + ".tmp");
+		try (final FileChannel channel = new RandomAccessFile(temp, "rw").getChannel()) {
+			channel.truncate(0);
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			channel.force(false);
+		}
+		if (!temp.renameTo(file))
+			throw new IOException("Renaming " + temp + " failed");
+	}
+}
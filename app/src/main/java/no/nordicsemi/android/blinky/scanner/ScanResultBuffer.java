@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.scanner;
+
+import android.bluetooth.BluetoothDevice;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+import no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice;
+import no.nordicsemi.android.blinky.utils.LongHashMap;
+import no.nordicsemi.android.support.v18.scanner.ScanRecord;
+import no.nordicsemi.android.support.v18.scanner.ScanResult;
+
+/**
+ * A bounded buffer of batched scan results. Only the most recent result of each device is
+ * kept, and the buffer is delivered to a {@link ScanResultListener} in one pass. With a report
+ * delay of several seconds a device appears in a batch many times, so most of the results are
+ * never processed.
+ * <p>
+ * When a batch has more devices than the capacity, the buffer is delivered each time it gets
+ * full, so the memory used does not depend on the size of the batch.
+ * <p>
+ * This class is not thread safe.
+ */
+public final class ScanResultBuffer {
+	/** The default capacity, in devices. */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	private static final class Entry {
+		private long key;
+		private BluetoothDevice device;
+		private int rssi;
+		private long timestampNanos;
+		@Nullable
+		private byte[] data;
+	}
+
+	@NonNull
+	private final Entry[] entries;
+	@NonNull
+	private final LongHashMap<Entry> index;
+	private int size;
+
+	public ScanResultBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates the buffer.
+	 *
+	 * @param capacity the maximum number of devices kept in the buffer.
+	 */
+	public ScanResultBuffer(final int capacity) {
+		entries = new Entry[capacity];
+		for (int i = 0; i < capacity; i++)
+			entries[i] = new Entry();
+		index = new LongHashMap<>(capacity);
+	}
+
+	/**
+	 * Adds the results to the buffer and delivers them to the listener. The buffer is delivered
+	 * when it gets full and once all results have been added, followed by
+	 * {@link ScanResultListener#onBatchComplete(long)}.
+	 *
+	 * @param results  the batch of scan results.
+	 * @param listener the listener.
+	 * @param now      the current time, in milliseconds since boot.
+	 */
+	public void deliver(@NonNull final List<ScanResult> results,
+						@NonNull final ScanResultListener listener, final long now) {
+		for (final ScanResult result : results) {
+			if (add(result))
+				drainTo(listener);
+		}
+		drainTo(listener);
+		listener.onBatchComplete(now);
+	}
+
+	/**
+	 * Adds the result to the buffer. If the buffer has a result of the same device, it's
+	 * replaced, unless it is more recent.
+	 *
+	 * @param result the scan result.
+	 * @return True, if the buffer is full and must be drained before adding more results.
+	 */
+	/* package */ boolean add(@NonNull final ScanResult result) {
+		final BluetoothDevice device = result.getDevice();
+		final long key = DiscoveredBluetoothDevice.toKey(device.getAddress());
+		Entry entry = index.get(key);
+		if (entry == null) {
+			entry = entries[size++];
+			entry.key = key;
+			index.put(key, entry);
+		} else if (entry.timestampNanos > result.getTimestampNanos()) {
+			return false;
+		}
+		final ScanRecord record = result.getScanRecord();
+		entry.device = device;
+		entry.rssi = result.getRssi();
+		entry.timestampNanos = result.getTimestampNanos();
+		entry.data = record != null ? record.getBytes() : null;
+		return size == entries.length;
+	}
+
+	/**
+	 * Passes the buffered results to the listener, in the order the devices were added,
+	 * and clears the buffer.
+	 *
+	 * @param listener the listener.
+	 */
+	/* package */ void drainTo(@NonNull final ScanResultListener listener) {
+		for (int i = 0; i < size; i++) {
+			final Entry entry = entries[i];
+			final byte[] data = entry.data;
+			listener.onScanResult(entry.key, entry.device, entry.rssi, entry.timestampNanos,
+					data, data != null ? data.length : 0);
+			// Release the references to the results.
+			entry.device = null;
+			entry.data = null;
+		}
+		index.clear();
+		size = 0;
+	}
+
+	/* package */ int size() {
+		return size;
+	}
+}
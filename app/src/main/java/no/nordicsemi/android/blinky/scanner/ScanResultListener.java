@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.scanner;
+
+import android.bluetooth.BluetoothDevice;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Receives scan results as raw values, so that the results from the radio, from a recording
+ * and from a synthetic population take the same path, without creating
+ * {@link no.nordicsemi.android.support.v18.scanner.ScanResult} objects.
+ * <p>
+ * All methods are called on the thread of the handler given when the scan was started.
+ */
+public interface ScanResultListener {
+	/**
+	 * Called for each scan result.
+	 *
+	 * @param key            the packed device address.
+	 * @param device         the Bluetooth device.
+	 * @param rssi           the received RSSI, in dBm.
+	 * @param timestampNanos the time the packet was received, in nanoseconds since boot.
+	 * @param data           the raw advertising data, may be null. The array may be reused
+	 *                       after this method returns.
+	 * @param dataLength     the number of valid bytes in the data array.
+	 */
+	void onScanResult(long key, @NonNull BluetoothDevice device, int rssi, long timestampNanos,
+					  @Nullable byte[] data, int dataLength);
+
+	/**
+	 * Called after a batch of scan results has been delivered. Batched results are coalesced
+	 * in a {@link ScanResultBuffer}, so a batch has at most one result per device.
+	 *
+	 * @param now the current time, in milliseconds since boot.
+	 */
+	void onBatchComplete(long now);
+
+	/**
+	 * Called when the scan could not be started.
+	 *
+	 * @param errorCode the error code, one of
+	 *                  {@link no.nordicsemi.android.support.v18.scanner.ScanCallback} SCAN_FAILED_* constants.
+	 */
+	void onScanFailed(int errorCode);
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.scanner;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records scan results to an append-only binary file, which can be replayed later using
+ * {@link ScanSessionReplay}.
+ * <p>
+ * The file starts with a header of 6 bytes: the {@link #MAGIC} number and the {@link #VERSION}.
+ * Each scan result is then stored as a record of:
+ * <ul>
+ * <li>the timestamp, in nanoseconds since boot (8 bytes),</li>
+ * <li>the device address (6 bytes),</li>
+ * <li>the RSSI, in dBm (1 byte, signed),</li>
+ * <li>the length of the advertising data (2 bytes, unsigned),</li>
+ * <li>the advertising data, without the zero padding.</li>
+ * </ul>
+ * All values are Big Endian. Records are buffered and written in blocks.
+ * <p>
+ * This class is not thread safe.
+ */
+public final class ScanSessionRecorder implements Closeable {
+	/** The magic number at the beginning of the file, "BLSC". */
+	/* package */ static final int MAGIC = 0x424C5343;
+	/** The file format version. */
+	/* package */ static final short VERSION = 1;
+	/* package */ static final int HEADER_SIZE = 6;
+	/** The size of a record without the advertising data. */
+	/* package */ static final int RECORD_HEADER_SIZE = 17;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	@NonNull
+	private final FileChannel channel;
+	@NonNull
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private int recordCount;
+
+	/**
+	 * Opens the file for recording. If the file already contains a recording, new records
+	 * are appended to it.
+	 *
+	 * @param file the file to record to.
+	 * @throws IOException if the file could not be opened, or is not a scan session recording.
+	 */
+	public ScanSessionRecorder(@NonNull final File file) throws IOException {
+		channel = new RandomAccessFile(file, "rw").getChannel();
+		try {
+			if (channel.size() == 0) {
+				buffer.putInt(MAGIC).putShort(VERSION);
+			} else {
+				readHeader(channel);
+				channel.position(channel.size());
+			}
+		} catch (final IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the number of records written by this recorder.
+	 */
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Records the raw values of a scan result.
+	 *
+	 * @param key            the packed device address.
+	 * @param rssi           the received RSSI, in dBm.
+	 * @param timestampNanos the time the packet was received, in nanoseconds since boot.
+	 * @param data           the raw advertising data, may be null.
+	 * @param dataLength     the number of valid bytes in the data array. The zero padding
+	 *                       at the end is not recorded.
+	 * @throws IOException if writing to the file failed.
+	 */
+	public void record(final long key, final int rssi, final long timestampNanos,
+					   @Nullable final byte[] data, final int dataLength) throws IOException {
+		final int length = Math.min(significantLength(data, dataLength), 0xFFFF);
+		if (buffer.remaining() < RECORD_HEADER_SIZE + length)
+			flush();
+
+		buffer.putLong(timestampNanos);
+		buffer.putShort((short) (key >>> 32));
+		buffer.putInt((int) key);
+		buffer.put((byte) rssi);
+		buffer.putShort((short) length);
+		if (length > 0)
+			buffer.put(data, 0, length);
+		recordCount++;
+	}
+
+	/**
+	 * Writes the buffered records to the file.
+	 *
+	 * @throws IOException if writing to the file failed.
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Reads and validates the file header. The channel position is moved past the header.
+	 *
+	 * @param channel the file channel, positioned at the beginning of the file.
+	 * @throws IOException if the header is not valid.
+	 */
+	/* package */ static void readHeader(@NonNull final FileChannel channel) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while (header.hasRemaining()) {
+			if (channel.read(header) < 0)
+				throw new IOException("Not a scan session recording");
+		}
+		header.flip();
+		checkHeader(header);
+	}
+
+	/**
+	 * Validates the file header. The buffer position is moved past the header.
+	 *
+	 * @param buffer the buffer with the file contents.
+	 * @throws IOException if the header is not valid.
+	 */
+	/* package */ static void checkHeader(@NonNull final ByteBuffer buffer) throws IOException {
+		if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC)
+			throw new IOException("Not a scan session recording");
+		final short version = buffer.getShort();
+		if (version != VERSION)
+			throw new IOException("Unsupported scan session version: " + version);
+	}
+
+	/**
+	 * Returns the length of the significant part of the advertising data. The data returned
+	 * by the system are padded with zeros, which are not recorded.
+	 */
+	private static int significantLength(@Nullable final byte[] bytes, final int dataLength) {
+		if (bytes == null)
+			return 0;
+		int offset = 0;
+		while (offset < dataLength) {
+			final int fieldLength = bytes[offset] & 0xFF;
+			if (fieldLength == 0)
+				break;
+			offset += fieldLength + 1;
+		}
+		return Math.min(offset, dataLength);
+	}
+}
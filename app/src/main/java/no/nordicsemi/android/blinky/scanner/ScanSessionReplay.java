@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.scanner;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice;
+import no.nordicsemi.android.blinky.utils.LongHashMap;
+import no.nordicsemi.android.support.v18.scanner.ScanCallback;
+
+/**
+ * Replays a scan session recorded by {@link ScanSessionRecorder}.
+ * <p>
+ * The file is memory mapped and the records are read one by one, as they are replayed.
+ * The advertising data are copied to a reused array, so replaying does not allocate,
+ * except for one {@link BluetoothDevice} per device.
+ * <p>
+ * Records are delivered to the {@link Listener} on the thread of the given handler,
+ * either at the recorded pace, or as fast as possible in batches. The timestamps are
+ * shifted, so that the session starts at the time {@link #start()} was called.
+ * <p>
+ * The devices are obtained from the {@link BluetoothAdapter}. On a device without Bluetooth
+ * the replay fails with {@link ScanCallback#SCAN_FAILED_FEATURE_UNSUPPORTED}.
+ * <p>
+ * This class is not thread safe. All methods must be called on the thread of the handler.
+ */
+public final class ScanSessionReplay {
+	/** The maximum number of records delivered in one batch. */
+	private static final int MAX_BATCH_SIZE = 256;
+
+	/**
+	 * The listener receiving the replayed records. When replaying as fast as possible, the time
+	 * given to {@link #onBatchComplete(long)} is the shifted timestamp of the last record, so that
+	 * the results do not depend on the speed of the replay.
+	 */
+	public interface Listener extends ScanResultListener {
+		/**
+		 * Called when all records have been replayed, or the rest of the file is corrupted.
+		 */
+		void onReplayFinished();
+	}
+
+	@NonNull
+	private final ByteBuffer buffer;
+	@NonNull
+	private final Handler handler;
+	@NonNull
+	private final Listener listener;
+	private final boolean realTime;
+	@NonNull
+	private final LongHashMap<BluetoothDevice> devices = new LongHashMap<>();
+	@NonNull
+	private byte[] data = new byte[64];
+	private long firstTimestampNanos = -1;
+	private long startTimeNanos;
+	private long startUptimeMillis;
+	private BluetoothAdapter adapter;
+	private boolean running;
+
+	/**
+	 * Opens the recording.
+	 *
+	 * @param file     the file recorded by {@link ScanSessionRecorder}.
+	 * @param handler  the handler on which the records will be delivered.
+	 * @param listener the listener.
+	 * @param realTime true to replay the records at the recorded pace, false to replay them
+	 *                 as fast as possible.
+	 * @throws IOException if the file could not be opened, or is not a scan session recording.
+	 */
+	public ScanSessionReplay(@NonNull final File file, @NonNull final Handler handler,
+							 @NonNull final Listener listener, final boolean realTime) throws IOException {
+		final RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = input.getChannel();
+			// The mapping stays valid after the channel has been closed.
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					Math.min(channel.size(), Integer.MAX_VALUE));
+		} finally {
+			input.close();
+		}
+		ScanSessionRecorder.checkHeader(buffer);
+		this.handler = handler;
+		this.listener = listener;
+		this.realTime = realTime;
+	}
+
+	/**
+	 * Starts replaying the records.
+	 */
+	public void start() {
+		if (running)
+			return;
+		running = true;
+		adapter = BluetoothAdapter.getDefaultAdapter();
+		startTimeNanos = SystemClock.elapsedRealtimeNanos();
+		startUptimeMillis = SystemClock.uptimeMillis();
+		handler.post(step);
+	}
+
+	/**
+	 * Stops replaying. The replay can't be resumed.
+	 */
+	public void stop() {
+		running = false;
+		handler.removeCallbacks(step);
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	private final Runnable step = new Runnable() {
+		@Override
+		public void run() {
+			if (!running)
+				return;
+			if (adapter == null) {
+				running = false;
+				listener.onScanFailed(ScanCallback.SCAN_FAILED_FEATURE_UNSUPPORTED);
+				return;
+			}
+
+			final long elapsedNanos = (SystemClock.uptimeMillis() - startUptimeMillis) * 1000000L;
+			long timestampNanos = startTimeNanos;
+			int count = 0;
+			while (count < MAX_BATCH_SIZE && buffer.remaining() >= ScanSessionRecorder.RECORD_HEADER_SIZE) {
+				final int position = buffer.position();
+				final long recordedNanos = buffer.getLong(position);
+				if (firstTimestampNanos < 0)
+					firstTimestampNanos = recordedNanos;
+				final long offsetNanos = recordedNanos - firstTimestampNanos;
+				// In real time mode, the record is delivered when it's due.
+				if (realTime && offsetNanos > elapsedNanos)
+					break;
+				if (!readRecord(offsetNanos))
+					break;
+				timestampNanos = startTimeNanos + offsetNanos;
+				count++;
+			}
+			if (count > 0)
+				listener.onBatchComplete(realTime ? SystemClock.elapsedRealtime() : timestampNanos / 1000000L);
+
+			if (buffer.remaining() < ScanSessionRecorder.RECORD_HEADER_SIZE) {
+				running = false;
+				listener.onReplayFinished();
+			} else if (realTime && count < MAX_BATCH_SIZE) {
+				final long offsetNanos = buffer.getLong(buffer.position()) - firstTimestampNanos;
+				handler.postAtTime(this, startUptimeMillis + offsetNanos / 1000000L);
+			} else {
+				// Let queued commands run between batches.
+				handler.post(this);
+			}
+		}
+	};
+
+	/**
+	 * Reads the record at the current position and delivers it to the listener.
+	 *
+	 * @param offsetNanos the time of the record since the first record.
+	 * @return False, if the record was truncated.
+	 */
+	private boolean readRecord(final long offsetNanos) {
+		final int position = buffer.position();
+		final long key = ((long) (buffer.getShort(position + 8) & 0xFFFF) << 32)
+				| (buffer.getInt(position + 10) & 0xFFFFFFFFL);
+		final int rssi = buffer.get(position + 14);
+		final int length = buffer.getShort(position + 15) & 0xFFFF;
+		if (buffer.remaining() < ScanSessionRecorder.RECORD_HEADER_SIZE + length) {
+			// The recording was interrupted while writing the record.
+			buffer.position(buffer.limit());
+			return false;
+		}
+		if (data.length < length)
+			data = new byte[Math.max(length, data.length * 2)];
+		buffer.position(position + ScanSessionRecorder.RECORD_HEADER_SIZE);
+		buffer.get(data, 0, length);
+
+		listener.onScanResult(key, getDevice(key), rssi, startTimeNanos + offsetNanos, data, length);
+		return true;
+	}
+
+	@NonNull
+	private BluetoothDevice getDevice(final long key) {
+		BluetoothDevice device = devices.get(key);
+		if (device == null) {
+			device = adapter.getRemoteDevice(DiscoveredBluetoothDevice.toAddress(key));
+			devices.put(key, device);
+		}
+		return device;
+	}
+}
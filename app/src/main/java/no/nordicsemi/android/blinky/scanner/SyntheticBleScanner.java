@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.scanner;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice;
+import no.nordicsemi.android.blinky.profile.BlinkyProfile;
+import no.nordicsemi.android.support.v18.scanner.ScanCallback;
+import no.nordicsemi.android.support.v18.scanner.ScanFilter;
+import no.nordicsemi.android.support.v18.scanner.ScanSettings;
+
+/**
+ * A {@link BleScanner} generating advertising packets of a simulated population of devices.
+ * It's used to load test the device registry, the filters and the list diffing without a radio.
+ * <p>
+ * Each device advertises with its own interval, chosen from the configured range, plus a random
+ * advertising delay of up to 10 ms, like real devices. The RSSI of a device is drawn from
+ * a normal distribution, and each packet adds noise to it. Devices may change their names,
+ * and a part of them advertises the Led-Button Service UUID. The population is deterministic
+ * for a given seed.
+ * <p>
+ * Packets are generated every {@link #DEFAULT_TICK_MILLIS} milliseconds, or with the report delay
+ * from the scan settings, and are delivered in a single batch. The population outlives the scan,
+ * so devices keep their state when the scan is restarted. A {@link BluetoothAdapter} is required
+ * to create the {@link BluetoothDevice} objects. Without it, the scan fails with
+ * {@link ScanCallback#SCAN_FAILED_FEATURE_UNSUPPORTED}.
+ */
+public class SyntheticBleScanner implements BleScanner {
+	/** The interval at which packets are generated, if the report delay is not set. */
+	private static final long DEFAULT_TICK_MILLIS = 50;
+	/** The maximum random delay added to each advertising interval. */
+	private static final int MAX_ADVERTISING_DELAY = 10; // [ms]
+	/** The standard deviation of the noise added to the RSSI of each packet. */
+	private static final float RSSI_NOISE = 4.0f; // [dB]
+	/** The two most significant bits set mark a static random address. */
+	private static final long STATIC_RANDOM_ADDRESS = 0xC00000000000L;
+	private static final byte[] FLAGS = { 0x02, 0x01, 0x06 };
+	private static final byte[] NAME_PREFIX = { 'S', 'Y', 'N' };
+	/** The number of characters in the generated names. */
+	private static final int NAME_LENGTH = 8;
+
+	/**
+	 * Builder of the synthetic population.
+	 */
+	@SuppressWarnings({"unused", "UnusedReturnValue"})
+	public static class Builder {
+		private int deviceCount = 1000;
+		private int minAdvertisingInterval = 100;
+		private int maxAdvertisingInterval = 1000;
+		private float rssiMean = -75.0f;
+		private float rssiStandardDeviation = 12.0f;
+		private float nameChurnProbability = 0.0f;
+		private float lbsServiceRatio = 0.1f;
+		private long seed;
+
+		/**
+		 * Sets the number of devices in the population. Default is 1000.
+		 */
+		@NonNull
+		public Builder setDeviceCount(final int deviceCount) {
+			if (deviceCount < 0 || deviceCount > 0xFFFF)
+				throw new IllegalArgumentException("Device count must be in range 0-65535");
+			this.deviceCount = deviceCount;
+			return this;
+		}
+
+		/**
+		 * Sets the range from which the advertising interval of each device is chosen.
+		 * Default is 100-1000 ms.
+		 *
+		 * @param minMillis the minimum interval, in milliseconds.
+		 * @param maxMillis the maximum interval, in milliseconds.
+		 */
+		@NonNull
+		public Builder setAdvertisingInterval(final int minMillis, final int maxMillis) {
+			if (minMillis < 20 || maxMillis < minMillis)
+				throw new IllegalArgumentException("Invalid advertising interval range");
+			this.minAdvertisingInterval = minMillis;
+			this.maxAdvertisingInterval = maxMillis;
+			return this;
+		}
+
+		/**
+		 * Sets the normal distribution from which the mean RSSI of each device is drawn.
+		 * Default is -75 dBm with the standard deviation of 12 dB.
+		 *
+		 * @param mean              the mean RSSI, in dBm.
+		 * @param standardDeviation the standard deviation, in dB.
+		 */
+		@NonNull
+		public Builder setRssiDistribution(final float mean, final float standardDeviation) {
+			this.rssiMean = mean;
+			this.rssiStandardDeviation = standardDeviation;
+			return this;
+		}
+
+		/**
+		 * Sets the probability that a device changes its name with a packet. Default is 0.
+		 */
+		@NonNull
+		public Builder setNameChurnProbability(final float probability) {
+			this.nameChurnProbability = probability;
+			return this;
+		}
+
+		/**
+		 * Sets the part of devices advertising the Led-Button Service UUID. Default is 0.1.
+		 */
+		@NonNull
+		public Builder setLbsServiceRatio(final float ratio) {
+			this.lbsServiceRatio = ratio;
+			return this;
+		}
+
+		/**
+		 * Sets the seed of the random generator. Default is 0.
+		 */
+		@NonNull
+		public Builder setSeed(final long seed) {
+			this.seed = seed;
+			return this;
+		}
+
+		@NonNull
+		public SyntheticBleScanner build() {
+			return new SyntheticBleScanner(this);
+		}
+	}
+
+	// The population is kept in parallel arrays, indexed by the device number.
+	private final long[] keys;
+	private final BluetoothDevice[] devices;
+	private final int[] advertisingIntervals;
+	private final float[] meanRssi;
+	private final boolean[] lbsServiceAdvertised;
+	private final int[] nameGenerations;
+	/** The time of the next packet of each device, in milliseconds of uptime. */
+	private final long[] nextPacketTimes;
+	private final float nameChurnProbability;
+	private final Random random;
+	/** The advertising data buffer, reused for all packets. */
+	private final byte[] data = new byte[31];
+	private final byte[] lbsServiceUuid;
+	@NonNull
+	private final Map<ScanResultListener, Session> sessions = new HashMap<>();
+	/** The adapter creating the devices, set when a scan is started. */
+	private BluetoothAdapter adapter;
+
+	private SyntheticBleScanner(@NonNull final Builder builder) {
+		final int count = builder.deviceCount;
+		keys = new long[count];
+		devices = new BluetoothDevice[count];
+		advertisingIntervals = new int[count];
+		meanRssi = new float[count];
+		lbsServiceAdvertised = new boolean[count];
+		nameGenerations = new int[count];
+		nextPacketTimes = new long[count];
+		nameChurnProbability = builder.nameChurnProbability;
+		random = new Random(builder.seed);
+		lbsServiceUuid = toLittleEndian(BlinkyProfile.LBS_UUID_SERVICE);
+
+		final long now = SystemClock.uptimeMillis();
+		final int intervalRange = builder.maxAdvertisingInterval - builder.minAdvertisingInterval + 1;
+		for (int i = 0; i < count; ++i) {
+			keys[i] = STATIC_RANDOM_ADDRESS | (random.nextLong() & 0x3FFFFFFF0000L) | i;
+			advertisingIntervals[i] = builder.minAdvertisingInterval + random.nextInt(intervalRange);
+			meanRssi[i] = builder.rssiMean + (float) random.nextGaussian() * builder.rssiStandardDeviation;
+			lbsServiceAdvertised[i] = random.nextFloat() < builder.lbsServiceRatio;
+			// Devices start advertising at random moments.
+			nextPacketTimes[i] = now + random.nextInt(advertisingIntervals[i]);
+		}
+	}
+
+	/**
+	 * Returns the number of devices in the population.
+	 */
+	public int getDeviceCount() {
+		return keys.length;
+	}
+
+	@Override
+	public void startScan(@Nullable final List<ScanFilter> filters, @NonNull final ScanSettings settings,
+						  @NonNull final ScanResultListener listener, @NonNull final Handler handler) {
+		stopScan(listener);
+		adapter = BluetoothAdapter.getDefaultAdapter();
+		if (adapter == null) {
+			handler.post(() -> listener.onScanFailed(ScanCallback.SCAN_FAILED_FEATURE_UNSUPPORTED));
+			return;
+		}
+		final long tick = settings.getReportDelayMillis() > 0 ? settings.getReportDelayMillis() : DEFAULT_TICK_MILLIS;
+		final Session session = new Session(filters, listener, handler, tick);
+		sessions.put(listener, session);
+		handler.postDelayed(session, tick);
+	}
+
+	@Override
+	public void stopScan(@NonNull final ScanResultListener listener) {
+		final Session session = sessions.remove(listener);
+		if (session != null)
+			session.cancel();
+	}
+
+	private class Session implements Runnable {
+		private final ScanResultListener listener;
+		private final Handler handler;
+		private final long tick;
+		private final boolean lbsServiceRequired;
+		private volatile boolean cancelled;
+
+		private Session(@Nullable final List<ScanFilter> filters, @NonNull final ScanResultListener listener,
+						@NonNull final Handler handler, final long tick) {
+			this.listener = listener;
+			this.handler = handler;
+			this.tick = tick;
+			this.lbsServiceRequired = requiresLbsService(filters);
+		}
+
+		private void cancel() {
+			cancelled = true;
+			handler.removeCallbacks(this);
+		}
+
+		@Override
+		public void run() {
+			if (cancelled)
+				return;
+			generatePackets(this);
+			handler.postDelayed(this, tick);
+		}
+	}
+
+	private void generatePackets(@NonNull final Session session) {
+		final long now = SystemClock.uptimeMillis();
+		final long nowNanos = SystemClock.elapsedRealtimeNanos();
+		for (int i = 0; i < keys.length; ++i) {
+			final int interval = advertisingIntervals[i];
+			// Packets sent while the scan was stopped are not delivered.
+			if (now - nextPacketTimes[i] > interval)
+				nextPacketTimes[i] = now - (now - nextPacketTimes[i]) % interval;
+
+			while (nextPacketTimes[i] <= now) {
+				final long timestampNanos = nowNanos - (now - nextPacketTimes[i]) * 1000000L;
+				nextPacketTimes[i] += interval + random.nextInt(MAX_ADVERTISING_DELAY + 1);
+				if (session.lbsServiceRequired && !lbsServiceAdvertised[i])
+					continue;
+
+				if (random.nextFloat() < nameChurnProbability)
+					nameGenerations[i]++;
+				final int rssi = Math.max(-127, Math.min(20,
+						Math.round(meanRssi[i] + (float) random.nextGaussian() * RSSI_NOISE)));
+				final int length = writeAdvertisingData(i);
+				session.listener.onScanResult(keys[i], getDevice(i), rssi, timestampNanos, data, length);
+			}
+		}
+		session.listener.onBatchComplete(SystemClock.elapsedRealtime());
+	}
+
+	/**
+	 * Writes the advertising data of the device to the data buffer: the flags, the complete
+	 * local name, and optionally the Led-Button Service UUID.
+	 *
+	 * @return The length of the advertising data.
+	 */
+	private int writeAdvertisingData(final int index) {
+		int offset = 0;
+		System.arraycopy(FLAGS, 0, data, offset, FLAGS.length);
+		offset += FLAGS.length;
+
+		// The name is "SYN" followed by the device number and the name generation, in hex.
+		data[offset++] = NAME_LENGTH + 1;
+		data[offset++] = 0x09; // Complete Local Name
+		System.arraycopy(NAME_PREFIX, 0, data, offset, NAME_PREFIX.length);
+		offset += NAME_PREFIX.length;
+		for (int shift = 12; shift >= 0; shift -= 4)
+			data[offset++] = hexDigit(index >> shift);
+		data[offset++] = hexDigit(nameGenerations[index]);
+
+		if (lbsServiceAdvertised[index]) {
+			data[offset++] = 17;
+			data[offset++] = 0x07; // Complete List of 128-bit Service UUIDs
+			System.arraycopy(lbsServiceUuid, 0, data, offset, lbsServiceUuid.length);
+			offset += lbsServiceUuid.length;
+		}
+		return offset;
+	}
+
+	@NonNull
+	private BluetoothDevice getDevice(final int index) {
+		BluetoothDevice device = devices[index];
+		if (device == null) {
+			device = devices[index] = adapter.getRemoteDevice(DiscoveredBluetoothDevice.toAddress(keys[index]));
+		}
+		return device;
+	}
+
+	/**
+	 * Returns whether the filters let through only packets with the Led-Button Service UUID.
+	 * Other filter criteria are not supported.
+	 */
+	private static boolean requiresLbsService(@Nullable final List<ScanFilter> filters) {
+		if (filters == null || filters.isEmpty())
+			return false;
+		for (final ScanFilter filter : filters) {
+			final ParcelUuid uuid = filter.getServiceUuid();
+			if (uuid == null || !BlinkyProfile.LBS_UUID_SERVICE.equals(uuid.getUuid()))
+				return false;
+		}
+		return true;
+	}
+
+	private static byte hexDigit(final int value) {
+		return (byte) Character.toUpperCase(Character.forDigit(value & 0x0F, 16));
+	}
+
+	@NonNull
+	private static byte[] toLittleEndian(@NonNull final UUID uuid) {
+		final byte[] bytes = new byte[16];
+		final long lsb = uuid.getLeastSignificantBits();
+		final long msb = uuid.getMostSignificantBits();
+		for (int i = 0; i < 8; ++i) {
+			bytes[i] = (byte) (lsb >>> (8 * i));
+			bytes[i + 8] = (byte) (msb >>> (8 * i));
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * A parser of raw advertising data, as returned by
+ * {@link no.nordicsemi.android.support.v18.scanner.ScanRecord#getBytes()}.
+ * <p>
+ * The parser walks the AD structures in place and only records offsets into the given array,
+ * so parsing does not allocate. A single instance should be reused for all packets; the values
+ * returned are valid until the next call to {@link #parse(byte[], int)}.
+ * <p>
+ * This class is not thread safe.
+ */
+public final class AdvertisingDataParser {
+	public static final int TYPE_FLAGS = 0x01;
+	public static final int TYPE_SERVICE_UUIDS_16_BIT_PARTIAL = 0x02;
+	public static final int TYPE_SERVICE_UUIDS_16_BIT_COMPLETE = 0x03;
+	public static final int TYPE_SERVICE_UUIDS_32_BIT_PARTIAL = 0x04;
+	public static final int TYPE_SERVICE_UUIDS_32_BIT_COMPLETE = 0x05;
+	public static final int TYPE_SERVICE_UUIDS_128_BIT_PARTIAL = 0x06;
+	public static final int TYPE_SERVICE_UUIDS_128_BIT_COMPLETE = 0x07;
+	public static final int TYPE_LOCAL_NAME_SHORT = 0x08;
+	public static final int TYPE_LOCAL_NAME_COMPLETE = 0x09;
+	public static final int TYPE_TX_POWER_LEVEL = 0x0A;
+	public static final int TYPE_MANUFACTURER_SPECIFIC_DATA = 0xFF;
+
+	/** Value returned when a field is not present. */
+	public static final int NOT_PRESENT = -1;
+	/** Value returned by {@link #getTxPowerLevel()} when the TX power is not present. */
+	public static final int TX_POWER_NOT_PRESENT = Integer.MIN_VALUE;
+
+	/** The Bluetooth Base UUID, least significant bits. */
+	private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+	/** The Bluetooth Base UUID, most significant bits, without the 32-bit UUID. */
+	private static final long BASE_UUID_MSB = 0x0000000000001000L;
+
+	@Nullable
+	private byte[] data;
+	private int length;
+	private int flags;
+	private int txPowerLevel;
+	private int localNameOffset;
+	private int localNameLength;
+	private int manufacturerDataOffset;
+	private int manufacturerDataLength;
+	/** The offsets of the service UUIDs in the data array. The array is grown as needed. */
+	@NonNull
+	private int[] serviceUuidOffsets = new int[8];
+	/** The sizes of the service UUIDs in bytes: 2, 4 or 16. */
+	@NonNull
+	private byte[] serviceUuidSizes = new byte[8];
+	private int serviceUuidCount;
+
+	/**
+	 * Parses the advertising data. Malformed data are parsed up to the first invalid
+	 * AD structure.
+	 *
+	 * @param bytes the raw advertising data, may be null.
+	 * @return True, if the data were parsed without errors.
+	 */
+	public boolean parse(@Nullable final byte[] bytes) {
+		return parse(bytes, bytes != null ? bytes.length : 0);
+	}
+
+	/**
+	 * Parses the first {@code dataLength} bytes of the advertising data. This allows reusing
+	 * a larger array for packets of different length.
+	 *
+	 * @param bytes      the raw advertising data, may be null.
+	 * @param dataLength the number of valid bytes in the array.
+	 * @return True, if the data were parsed without errors.
+	 */
+	public boolean parse(@Nullable final byte[] bytes, final int dataLength) {
+		data = bytes;
+		length = 0;
+		flags = NOT_PRESENT;
+		txPowerLevel = TX_POWER_NOT_PRESENT;
+		localNameOffset = localNameLength = NOT_PRESENT;
+		manufacturerDataOffset = manufacturerDataLength = NOT_PRESENT;
+		serviceUuidCount = 0;
+		if (bytes == null)
+			return false;
+
+		int offset = 0;
+		while (offset < dataLength) {
+			final int fieldLength = bytes[offset] & 0xFF;
+			// A zero length field marks the end of the significant part.
+			if (fieldLength == 0)
+				break;
+			if (offset + fieldLength >= dataLength) {
+				length = offset;
+				return false;
+			}
+
+			final int type = bytes[offset + 1] & 0xFF;
+			final int valueOffset = offset + 2;
+			final int valueLength = fieldLength - 1;
+			switch (type) {
+				case TYPE_FLAGS:
+					if (valueLength > 0)
+						flags = bytes[valueOffset] & 0xFF;
+					break;
+				case TYPE_TX_POWER_LEVEL:
+					if (valueLength > 0)
+						txPowerLevel = bytes[valueOffset];
+					break;
+				case TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
+				case TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
+					addServiceUuids(valueOffset, valueLength, 2);
+					break;
+				case TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
+				case TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
+					addServiceUuids(valueOffset, valueLength, 4);
+					break;
+				case TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
+				case TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
+					addServiceUuids(valueOffset, valueLength, 16);
+					break;
+				case TYPE_LOCAL_NAME_SHORT:
+					// The complete name takes precedence over the short one.
+					if (localNameOffset == NOT_PRESENT) {
+						localNameOffset = valueOffset;
+						localNameLength = valueLength;
+					}
+					break;
+				case TYPE_LOCAL_NAME_COMPLETE:
+					localNameOffset = valueOffset;
+					localNameLength = valueLength;
+					break;
+				case TYPE_MANUFACTURER_SPECIFIC_DATA:
+					if (manufacturerDataOffset == NOT_PRESENT && valueLength >= 2) {
+						manufacturerDataOffset = valueOffset;
+						manufacturerDataLength = valueLength;
+					}
+					break;
+			}
+			offset += fieldLength + 1;
+		}
+		length = offset;
+		return true;
+	}
+
+	/**
+	 * Records the offsets of the UUIDs in a service UUID list. An incomplete UUID at the end
+	 * of the list is ignored.
+	 */
+	private void addServiceUuids(final int valueOffset, final int valueLength, final int size) {
+		for (int i = valueOffset; i + size <= valueOffset + valueLength; i += size) {
+			if (serviceUuidCount == serviceUuidOffsets.length) {
+				serviceUuidOffsets = Arrays.copyOf(serviceUuidOffsets, serviceUuidCount * 2);
+				serviceUuidSizes = Arrays.copyOf(serviceUuidSizes, serviceUuidCount * 2);
+			}
+			serviceUuidOffsets[serviceUuidCount] = i;
+			serviceUuidSizes[serviceUuidCount++] = (byte) size;
+		}
+	}
+
+	/**
+	 * Returns the parsed array, or null.
+	 */
+	@Nullable
+	public byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * Returns the flags, or {@link #NOT_PRESENT}.
+	 */
+	public int getFlags() {
+		return flags;
+	}
+
+	/**
+	 * Returns the TX power level in dBm, or {@link #TX_POWER_NOT_PRESENT}.
+	 */
+	public int getTxPowerLevel() {
+		return txPowerLevel;
+	}
+
+	/**
+	 * Returns the offset of the local name in the data array, or {@link #NOT_PRESENT}.
+	 * The complete local name is returned if present, the shortened one otherwise.
+	 */
+	public int getLocalNameOffset() {
+		return localNameOffset;
+	}
+
+	/**
+	 * Returns the length of the local name in bytes, or {@link #NOT_PRESENT}.
+	 */
+	public int getLocalNameLength() {
+		return localNameLength;
+	}
+
+	/**
+	 * Returns whether the local name is equal to the given one. This method does not allocate
+	 * for ASCII names.
+	 *
+	 * @param name the name to compare with, may be null.
+	 * @return True, if both names are equal or both are not present.
+	 */
+	public boolean isLocalNameEqualTo(@Nullable final String name) {
+		if (localNameOffset == NOT_PRESENT || data == null)
+			return name == null;
+		if (name == null)
+			return false;
+		if (name.length() != localNameLength) {
+			// Non-ASCII names are longer in UTF-8 than in UTF-16.
+			return localNameLength > name.length() && name.equals(getLocalName());
+		}
+		for (int i = 0; i < localNameLength; ++i) {
+			final int b = data[localNameOffset + i];
+			if (b < 0)
+				return name.equals(getLocalName());
+			if (b != name.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Decodes the local name. This method allocates a new String.
+	 *
+	 * @return The local name, or null if not present.
+	 */
+	@Nullable
+	public String getLocalName() {
+		if (localNameOffset == NOT_PRESENT || data == null)
+			return null;
+		return new String(data, localNameOffset, localNameLength, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the Company Identifier of the first manufacturer specific data, or
+	 * {@link #NOT_PRESENT}.
+	 */
+	public int getManufacturerId() {
+		if (manufacturerDataOffset == NOT_PRESENT || data == null)
+			return NOT_PRESENT;
+		return (data[manufacturerDataOffset] & 0xFF) | ((data[manufacturerDataOffset + 1] & 0xFF) << 8);
+	}
+
+	/**
+	 * Returns the offset of the first manufacturer specific data, following the Company
+	 * Identifier, or {@link #NOT_PRESENT}.
+	 */
+	public int getManufacturerDataOffset() {
+		return manufacturerDataOffset == NOT_PRESENT ? NOT_PRESENT : manufacturerDataOffset + 2;
+	}
+
+	/**
+	 * Returns the length of the first manufacturer specific data, without the Company
+	 * Identifier, or {@link #NOT_PRESENT}.
+	 */
+	public int getManufacturerDataLength() {
+		return manufacturerDataLength == NOT_PRESENT ? NOT_PRESENT : manufacturerDataLength - 2;
+	}
+
+	/**
+	 * Returns whether the data contain the given 16-bit service UUID, either in a 16-bit UUID
+	 * list, or as a 32-bit or 128-bit UUID based on the Bluetooth Base UUID.
+	 *
+	 * @param uuid16 the 16-bit UUID.
+	 * @return True, if the service UUID was found.
+	 */
+	public boolean containsServiceUuid16(final int uuid16) {
+		return containsServiceUuid((((long) uuid16 & 0xFFFF) << 32) | BASE_UUID_MSB, BASE_UUID_LSB);
+	}
+
+	/**
+	 * Returns whether the data contain the given service UUID in any of the service UUID lists.
+	 *
+	 * @param uuid the service UUID.
+	 * @return True, if the service UUID was found.
+	 */
+	public boolean containsServiceUuid(@NonNull final UUID uuid) {
+		return containsServiceUuid(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+	}
+
+	/**
+	 * Returns whether the data contain the given service UUID in any of the service UUID lists.
+	 *
+	 * @param msb the most significant bits of the UUID.
+	 * @param lsb the least significant bits of the UUID.
+	 * @return True, if the service UUID was found.
+	 */
+	public boolean containsServiceUuid(final long msb, final long lsb) {
+		for (int i = 0; i < serviceUuidCount; ++i) {
+			if (getServiceUuidLsb(i) == lsb && getServiceUuidMsb(i) == msb)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of service UUIDs in all service UUID lists.
+	 */
+	public int getServiceUuidCount() {
+		return serviceUuidCount;
+	}
+
+	/**
+	 * Returns the service UUID at the given index. 16-bit and 32-bit UUIDs are converted
+	 * to 128-bit UUIDs using the Bluetooth Base UUID. This method allocates a new UUID.
+	 *
+	 * @param index the index of the UUID, from 0 to {@link #getServiceUuidCount()} - 1.
+	 * @return The service UUID.
+	 * @throws IndexOutOfBoundsException if the index is out of range.
+	 */
+	@NonNull
+	public UUID getServiceUuid(final int index) {
+		if (index < 0 || index >= serviceUuidCount)
+			throw new IndexOutOfBoundsException("Index: " + index + ", count: " + serviceUuidCount);
+		return new UUID(getServiceUuidMsb(index), getServiceUuidLsb(index));
+	}
+
+	private long getServiceUuidMsb(final int index) {
+		final int offset = serviceUuidOffsets[index];
+		final int size = serviceUuidSizes[index];
+		// 128-bit UUIDs are sent in Little Endian.
+		if (size == 16)
+			return readUInt(data, offset + 8, 8);
+		return (readUInt(data, offset, size) << 32) | BASE_UUID_MSB;
+	}
+
+	private long getServiceUuidLsb(final int index) {
+		final int offset = serviceUuidOffsets[index];
+		if (serviceUuidSizes[index] == 16)
+			return readUInt(data, offset, 8);
+		return BASE_UUID_LSB;
+	}
+
+	/**
+	 * Reads an unsigned Little Endian value.
+	 */
+	private static long readUInt(@NonNull final byte[] bytes, final int offset, final int size) {
+		long value = 0;
+		for (int i = size - 1; i >= 0; --i)
+			value = (value << 8) | (bytes[offset + i] & 0xFF);
+		return value;
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.utils;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram with fixed buckets. Recording a value does not allocate, so the histogram can
+ * be kept enabled in production builds.
+ * <p>
+ * Values are recorded by a single thread. They may be read from any thread; the readings
+ * are not an atomic snapshot, but each value is up to date.
+ */
+public final class Histogram {
+	/** The upper bounds of the buckets, inclusive. The last bucket has no upper bound. */
+	@NonNull
+	private final long[] bounds;
+	/** The counts of each bucket, followed by the total count, the sum and the maximum. */
+	@NonNull
+	private final AtomicLongArray values;
+	private final int countIndex;
+
+	/**
+	 * Creates a histogram with the given bucket bounds.
+	 *
+	 * @param bounds the inclusive upper bounds of the buckets, in ascending order. Values
+	 *               above the last bound are counted in an additional bucket.
+	 */
+	public Histogram(@NonNull final long... bounds) {
+		for (int i = 1; i < bounds.length; ++i) {
+			if (bounds[i] <= bounds[i - 1])
+				throw new IllegalArgumentException("Bounds must be in ascending order");
+		}
+		this.bounds = bounds.clone();
+		this.countIndex = bounds.length + 1;
+		this.values = new AtomicLongArray(countIndex + 3);
+	}
+
+	/**
+	 * Records the value. This method must be called from a single thread.
+	 *
+	 * @param value the value to record.
+	 */
+	public void record(final long value) {
+		int bucket = 0;
+		while (bucket < bounds.length && value > bounds[bucket])
+			bucket++;
+		// With a single writer the increments don't need to be atomic, only visible.
+		values.lazySet(bucket, values.get(bucket) + 1);
+		values.lazySet(countIndex, values.get(countIndex) + 1);
+		values.lazySet(countIndex + 1, values.get(countIndex + 1) + value);
+		if (value > values.get(countIndex + 2))
+			values.lazySet(countIndex + 2, value);
+	}
+
+	/**
+	 * Returns the number of buckets, including the one above the last bound.
+	 */
+	public int getBucketCount() {
+		return countIndex;
+	}
+
+	/**
+	 * Returns the inclusive upper bound of the bucket, or {@link Long#MAX_VALUE} for the last one.
+	 */
+	public long getBucketBound(final int bucket) {
+		return bucket < bounds.length ? bounds[bucket] : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Returns the number of values recorded in the bucket.
+	 */
+	public long getBucketValueCount(final int bucket) {
+		return values.get(bucket);
+	}
+
+	/**
+	 * Returns the number of all recorded values.
+	 */
+	public long getCount() {
+		return values.get(countIndex);
+	}
+
+	/**
+	 * Returns the mean of the recorded values, or 0 if no values were recorded.
+	 */
+	public double getMean() {
+		final long count = getCount();
+		return count == 0 ? 0 : (double) values.get(countIndex + 1) / count;
+	}
+
+	/**
+	 * Returns the maximum recorded value, or 0 if no values were recorded.
+	 */
+	public long getMax() {
+		return values.get(countIndex + 2);
+	}
+
+	/**
+	 * Returns the upper bound of the bucket containing the given percentile. Values in the
+	 * last bucket are reported as the maximum value.
+	 *
+	 * @param percentile the percentile, in range 0-100.
+	 * @return The approximated percentile, or 0 if no values were recorded.
+	 */
+	public long getPercentile(final double percentile) {
+		final long count = getCount();
+		if (count == 0)
+			return 0;
+		final long rank = (long) Math.ceil(count * percentile / 100.0);
+		long cumulative = 0;
+		for (int bucket = 0; bucket < bounds.length; ++bucket) {
+			cumulative += values.get(bucket);
+			if (cumulative >= rank)
+				return Math.min(bounds[bucket], getMax());
+		}
+		return getMax();
+	}
+
+	/**
+	 * Clears all recorded values. This method must be called on the recording thread.
+	 */
+	public void reset() {
+		for (int i = 0; i < values.length(); ++i)
+			values.lazySet(i, 0);
+	}
+}
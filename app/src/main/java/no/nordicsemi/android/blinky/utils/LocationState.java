@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An in-memory cache of the Location state used by the scan callbacks. Reading the
+ * preferences and the secure settings for every scan result is too expensive, so the values
+ * are kept in volatile fields. The Location requirement is refreshed from a preference change
+ * listener. The Location enabled state must be refreshed using {@link #refreshLocationEnabled()}
+ * when the Location mode changes.
+ * <p>
+ * Values may be read from any thread.
+ */
+public final class LocationState implements SharedPreferences.OnSharedPreferenceChangeListener {
+	@NonNull
+	private final Context context;
+	@NonNull
+	private final SharedPreferences preferences;
+	private final AtomicBoolean markedNotRequired = new AtomicBoolean();
+	private volatile boolean locationRequired;
+	private volatile boolean locationEnabled;
+
+	public LocationState(@NonNull final Context context) {
+		this.context = context.getApplicationContext();
+		preferences = PreferenceManager.getDefaultSharedPreferences(this.context);
+		// The preferences keep a weak reference to the listener, so the owner must keep this object.
+		preferences.registerOnSharedPreferenceChangeListener(this);
+		locationRequired = Utils.isLocationRequired(this.context);
+		locationEnabled = Utils.isLocationEnabled(this.context);
+	}
+
+	/**
+	 * Returns the cached value of {@link Utils#isLocationRequired(Context)}.
+	 */
+	public boolean isLocationRequired() {
+		return locationRequired;
+	}
+
+	/**
+	 * Returns the cached value of {@link Utils#isLocationEnabled(Context)}.
+	 */
+	public boolean isLocationEnabled() {
+		return locationEnabled;
+	}
+
+	/**
+	 * Reads the Location enabled state. This should be called when the Location mode has changed.
+	 *
+	 * @return True, if Location is enabled.
+	 */
+	public boolean refreshLocationEnabled() {
+		return locationEnabled = Utils.isLocationEnabled(context);
+	}
+
+	/**
+	 * Called when a Bluetooth LE packet has been received. If Location is disabled, it's not
+	 * required for scanning on this device, which is saved using
+	 * {@link Utils#markLocationNotRequired(Context)}. The preference is written at most once.
+	 * This method only reads volatile fields in the common case.
+	 */
+	public void onScanResultReceived() {
+		if (locationRequired && !locationEnabled && markedNotRequired.compareAndSet(false, true)) {
+			locationRequired = false;
+			Utils.markLocationNotRequired(context);
+		}
+	}
+
+	@Override
+	public void onSharedPreferenceChanged(final SharedPreferences sharedPreferences, final String key) {
+		if (Utils.PREFS_LOCATION_NOT_REQUIRED.equals(key))
+			locationRequired = Utils.isLocationRequired(context);
+	}
+}
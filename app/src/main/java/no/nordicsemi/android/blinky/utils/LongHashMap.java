@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * A hash map with primitive long keys, using open addressing with linear probing.
+ * Unlike {@link java.util.HashMap}, lookups do not box the key, so they do not allocate.
+ * <p>
+ * This class is not thread safe.
+ *
+ * @param <V> the value type.
+ */
+public final class LongHashMap<V> {
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private long[] keys;
+	private Object[] values;
+	private int size;
+	private int mask;
+
+	public LongHashMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates the map with the given initial capacity.
+	 *
+	 * @param capacity the expected number of entries.
+	 */
+	public LongHashMap(final int capacity) {
+		int tableSize = Integer.highestOneBit(Math.max(capacity, 4) * 2 - 1) << 1;
+		keys = new long[tableSize];
+		values = new Object[tableSize];
+		mask = tableSize - 1;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the value mapped to the given key.
+	 *
+	 * @param key the key.
+	 * @return The value, or null if there is no mapping for the key.
+	 */
+	@SuppressWarnings("unchecked")
+	@Nullable
+	public V get(final long key) {
+		int i = indexOf(key);
+		while (values[i] != null) {
+			if (keys[i] == key)
+				return (V) values[i];
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	public boolean containsKey(final long key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Maps the given value to the key.
+	 *
+	 * @param key   the key.
+	 * @param value the value, not null.
+	 * @return The previous value, or null if there was no mapping for the key.
+	 */
+	@SuppressWarnings("unchecked")
+	@Nullable
+	public V put(final long key, @NonNull final V value) {
+		int i = indexOf(key);
+		while (values[i] != null) {
+			if (keys[i] == key) {
+				final V old = (V) values[i];
+				values[i] = value;
+				return old;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		if (++size * 2 > keys.length)
+			resize();
+		return null;
+	}
+
+	/**
+	 * Removes the mapping for the given key.
+	 *
+	 * @param key the key.
+	 * @return The removed value, or null if there was no mapping for the key.
+	 */
+	@SuppressWarnings("unchecked")
+	@Nullable
+	public V remove(final long key) {
+		int i = indexOf(key);
+		while (values[i] != null) {
+			if (keys[i] == key) {
+				final V old = (V) values[i];
+				values[i] = null;
+				size--;
+				// Re-insert the following entries of the cluster, so the probing stays valid.
+				i = (i + 1) & mask;
+				while (values[i] != null) {
+					final long k = keys[i];
+					final Object v = values[i];
+					values[i] = null;
+					reinsert(k, v);
+					i = (i + 1) & mask;
+				}
+				return old;
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	public void clear() {
+		if (size > 0) {
+			Arrays.fill(values, null);
+			size = 0;
+		}
+	}
+
+	private void resize() {
+		final long[] oldKeys = keys;
+		final Object[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new Object[oldValues.length * 2];
+		mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; ++i) {
+			if (oldValues[i] != null)
+				reinsert(oldKeys[i], oldValues[i]);
+		}
+	}
+
+	private void reinsert(final long key, @NonNull final Object value) {
+		int i = indexOf(key);
+		while (values[i] != null)
+			i = (i + 1) & mask;
+		keys[i] = key;
+		values[i] = value;
+	}
+
+	private int indexOf(final long key) {
+		// Mix the bits, as consecutive addresses differ only in the lowest bits.
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+}
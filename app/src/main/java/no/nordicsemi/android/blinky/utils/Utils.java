@@ -37,7 +37,7 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
 public class Utils {
-	private static final String PREFS_LOCATION_NOT_REQUIRED = "location_not_required";
+	/* package */ static final String PREFS_LOCATION_NOT_REQUIRED = "location_not_required";
 	private static final String PREFS_PERMISSION_REQUESTED = "permission_requested";
 
 	/**
@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.viewmodels;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import java.util.Arrays;
+
+import no.nordicsemi.android.support.v18.scanner.ScanSettings;
+
+/**
+ * The scheduler adjusts the scan mode, report delay and duty cycle at runtime.
+ * It scans aggressively while new devices keep appearing and steps down to
+ * {@link ScanPolicy#BALANCED} and {@link ScanPolicy#LOW_POWER} when the discovery levels off.
+ * A new device, a filter change or a refresh switches back to {@link ScanPolicy#AGGRESSIVE}.
+ * <p>
+ * In the inventory mode the scheduler keeps the {@link ScanPolicy#INVENTORY} policy
+ * and does not adjust it.
+ * <p>
+ * The current policy is exposed as LiveData, together with the radio-on time and number of
+ * transitions, so that the radio-on time can be compared with the time to discovery.
+ * <p>
+ * Android ignores scan starts when an app starts scanning more than {@link #MAX_SCAN_STARTS}
+ * times in {@link #SCAN_START_WINDOW}, without reporting an error. The scheduler keeps the
+ * times of the recent starts and defers a start that would exceed the limit. Requests made
+ * while a start is deferred are coalesced, and the scanner is started once with the policy
+ * current at that time.
+ */
+public class AdaptiveScanScheduler {
+	/* package */ interface Callback {
+		/**
+		 * Called when the scanner should be started with the given settings.
+		 */
+		void onStartScan(@NonNull final ScanSettings settings);
+
+		/**
+		 * Called when the scanner should be stopped.
+		 */
+		void onStopScan();
+	}
+
+	private static final long EVALUATION_INTERVAL = 1000; // [ms]
+	/** Time without new devices after which the scanner switches to {@link ScanPolicy#BALANCED}. */
+	private static final long BALANCED_AFTER = 10000; // [ms]
+	/** Time without new devices after which the scanner switches to {@link ScanPolicy#LOW_POWER}. */
+	private static final long LOW_POWER_AFTER = 30000; // [ms]
+	/** The maximum number of scan starts allowed by the system in {@link #SCAN_START_WINDOW}. */
+	private static final int MAX_SCAN_STARTS = 5;
+	/** The window in which the scan starts are counted, with a margin for the system clock. */
+	private static final long SCAN_START_WINDOW = 30000 + 500; // [ms]
+
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private final MutableLiveData<ScanPolicy> policyLiveData = new MutableLiveData<>();
+	@NonNull
+	private final Callback callback;
+
+	@NonNull
+	private ScanPolicy policy = ScanPolicy.AGGRESSIVE;
+	private boolean running;
+	private boolean inventoryMode;
+	private long inventoryReportDelayMillis = ScanPolicy.INVENTORY.getReportDelayMillis();
+	private boolean radioOn;
+	private long radioOnSince;
+	private long radioOnTime;
+	private int transitionCount;
+	private volatile long lastDiscoveryTime;
+	private volatile int knownDeviceCount;
+	/** The times of the recent scan starts, in a ring buffer. */
+	private final long[] scanStartTimes = new long[MAX_SCAN_STARTS];
+	/** The index of the oldest scan start time in {@link #scanStartTimes}. */
+	private int oldestScanStart;
+	private boolean startDeferred;
+	private int deferredStartCount;
+
+	/* package */ AdaptiveScanScheduler(@NonNull final Callback callback) {
+		this.callback = callback;
+		Arrays.fill(scanStartTimes, -SCAN_START_WINDOW);
+	}
+
+	/**
+	 * Returns the current scan policy. The observers are notified on each transition.
+	 */
+	@NonNull
+	public LiveData<ScanPolicy> getPolicy() {
+		return policyLiveData;
+	}
+
+	/**
+	 * Returns the total time for which the scanner was on, in milliseconds.
+	 */
+	@MainThread
+	public long getRadioOnTimeMillis() {
+		return radioOnTime + (radioOn ? SystemClock.elapsedRealtime() - radioOnSince : 0);
+	}
+
+	/**
+	 * Returns the number of policy transitions since the scheduler was created.
+	 */
+	@MainThread
+	public int getTransitionCount() {
+		return transitionCount;
+	}
+
+	/**
+	 * Returns the number of scan starts that were deferred to keep within the system limit.
+	 */
+	@MainThread
+	public int getDeferredStartCount() {
+		return deferredStartCount;
+	}
+
+	/**
+	 * Returns whether the inventory mode is enabled.
+	 */
+	public boolean isInventoryMode() {
+		return inventoryMode;
+	}
+
+	/**
+	 * Enables or disables the background inventory mode. In this mode the scanner uses
+	 * hardware batching, if supported, with the given report delay, and the policy is not
+	 * adjusted.
+	 *
+	 * @param enabled           true to enable the inventory mode.
+	 * @param reportDelayMillis the report delay, in milliseconds, for example 5000.
+	 */
+	@MainThread
+	/* package */ void setInventoryMode(final boolean enabled, final long reportDelayMillis) {
+		inventoryReportDelayMillis = reportDelayMillis;
+		if (!inventoryMode && !enabled)
+			return;
+		inventoryMode = enabled;
+		if (running) {
+			lastDiscoveryTime = SystemClock.elapsedRealtime();
+			applyPolicy(getInitialPolicy());
+		}
+	}
+
+	/**
+	 * Starts scanning with the aggressive policy, or the inventory policy if the inventory mode
+	 * is enabled.
+	 */
+	@MainThread
+	/* package */ void start() {
+		if (running)
+			return;
+		running = true;
+		lastDiscoveryTime = SystemClock.elapsedRealtime();
+		setPolicy(getInitialPolicy());
+		startRadio();
+		handler.postDelayed(evaluate, EVALUATION_INTERVAL);
+	}
+
+	/**
+	 * Stops scanning and cancels all scheduled policy changes.
+	 */
+	@MainThread
+	/* package */ void stop() {
+		if (!running)
+			return;
+		running = false;
+		handler.removeCallbacks(evaluate);
+		handler.removeCallbacks(pauseScan);
+		handler.removeCallbacks(resumeScan);
+		cancelDeferredStart();
+		stopRadio();
+	}
+
+	/**
+	 * Switches back to the aggressive policy. This should be called when the user is waiting
+	 * for results, for example after the filter has changed.
+	 *
+	 * @return True, if the policy has changed and the scanner has been restarted.
+	 */
+	@MainThread
+	/* package */ boolean boost() {
+		lastDiscoveryTime = SystemClock.elapsedRealtime();
+		if (running && !inventoryMode && policy != ScanPolicy.AGGRESSIVE) {
+			applyPolicy(ScanPolicy.AGGRESSIVE);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Restarts the scanner with the current policy, so that the changed scan filters are
+	 * applied. If the scanner is paused, the filters will be applied when it's resumed.
+	 */
+	@MainThread
+	/* package */ void restart() {
+		if (running && radioOn) {
+			handler.removeCallbacks(pauseScan);
+			stopRadio();
+			startRadio();
+		}
+	}
+
+	/**
+	 * Reports the number of known devices after a scan result or batch has been processed.
+	 * This method may be called from any thread.
+	 *
+	 * @param deviceCount the number of devices in the registry.
+	 */
+	/* package */ void onScanResultsProcessed(final int deviceCount) {
+		final int previousCount = knownDeviceCount;
+		knownDeviceCount = deviceCount;
+		if (deviceCount > previousCount) {
+			lastDiscoveryTime = SystemClock.elapsedRealtime();
+			handler.post(this::boost);
+		}
+	}
+
+	@MainThread
+	private void applyPolicy(@NonNull final ScanPolicy newPolicy) {
+		handler.removeCallbacks(pauseScan);
+		handler.removeCallbacks(resumeScan);
+		// A deferred start is kept, it will use the new policy.
+		stopRadio();
+		transitionCount++;
+		setPolicy(newPolicy);
+		startRadio();
+	}
+
+	@NonNull
+	private ScanPolicy getInitialPolicy() {
+		return inventoryMode ? ScanPolicy.INVENTORY : ScanPolicy.AGGRESSIVE;
+	}
+
+	private void setPolicy(@NonNull final ScanPolicy newPolicy) {
+		policy = newPolicy;
+		policyLiveData.setValue(newPolicy);
+	}
+
+	private void startRadio() {
+		if (!radioOn) {
+			final long now = SystemClock.elapsedRealtime();
+			final long allowedAt = scanStartTimes[oldestScanStart] + SCAN_START_WINDOW;
+			if (allowedAt > now) {
+				// A start over the limit would be ignored by the system. Try again when
+				// the oldest start leaves the window.
+				if (!startDeferred) {
+					startDeferred = true;
+					deferredStartCount++;
+					handler.postDelayed(deferredStart, allowedAt - now);
+				}
+				return;
+			}
+			scanStartTimes[oldestScanStart] = now;
+			oldestScanStart = (oldestScanStart + 1) % MAX_SCAN_STARTS;
+
+			final long reportDelay = policy == ScanPolicy.INVENTORY ?
+					inventoryReportDelayMillis : policy.getReportDelayMillis();
+			callback.onStartScan(policy.toScanSettings(reportDelay));
+			radioOn = true;
+			radioOnSince = now;
+		}
+		if (policy.isDutyCycled())
+			handler.postDelayed(pauseScan, policy.getScanWindowMillis());
+	}
+
+	private void cancelDeferredStart() {
+		if (startDeferred) {
+			startDeferred = false;
+			handler.removeCallbacks(deferredStart);
+		}
+	}
+
+	private void stopRadio() {
+		if (radioOn) {
+			callback.onStopScan();
+			radioOn = false;
+			radioOnTime += SystemClock.elapsedRealtime() - radioOnSince;
+		}
+	}
+
+	private final Runnable evaluate = new Runnable() {
+		@Override
+		public void run() {
+			handler.postDelayed(this, EVALUATION_INTERVAL);
+			if (inventoryMode)
+				return;
+
+			final long idle = SystemClock.elapsedRealtime() - lastDiscoveryTime;
+			final ScanPolicy target = idle >= LOW_POWER_AFTER ? ScanPolicy.LOW_POWER :
+					idle >= BALANCED_AFTER ? ScanPolicy.BALANCED : ScanPolicy.AGGRESSIVE;
+			// Only step down here. Stepping up is done immediately in boost().
+			if (target.ordinal() > policy.ordinal())
+				applyPolicy(target);
+		}
+	};
+
+	private final Runnable pauseScan = new Runnable() {
+		@Override
+		public void run() {
+			stopRadio();
+			handler.postDelayed(resumeScan, policy.getScanPauseMillis());
+		}
+	};
+
+	private final Runnable resumeScan = this::startRadio;
+
+	private final Runnable deferredStart = () -> {
+		startDeferred = false;
+		startRadio();
+	};
+}
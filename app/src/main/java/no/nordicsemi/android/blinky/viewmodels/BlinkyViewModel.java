@@ -23,21 +23,26 @@
 package no.nordicsemi.android.blinky.viewmodels;
 
 import android.app.Application;
+import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 
 import no.nordicsemi.android.ble.livedata.state.ConnectionState;
 import no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice;
 import no.nordicsemi.android.blinky.profile.BlinkyManager;
+import no.nordicsemi.android.blinky.scanner.DeviceRegistry;
+import no.nordicsemi.android.blinky.scanner.KnownDeviceStore;
 import no.nordicsemi.android.log.LogSession;
 import no.nordicsemi.android.log.Logger;
 
 public class BlinkyViewModel extends AndroidViewModel {
 	private final BlinkyManager blinkyManager;
 	private BluetoothDevice device;
+	private String deviceName;
 
 	public BlinkyViewModel(@NonNull final Application application) {
 		super(application);
@@ -60,19 +65,50 @@ public class BlinkyViewModel extends AndroidViewModel {
 	}
 
 	/**
-	 * Connect to the given peripheral.
+	 * Connect to the peripheral with the given key. The device is looked up in the
+	 * {@link DeviceRegistry}. If it's not there, for example when the process has been
+	 * restarted, it's created from the address.
 	 *
-	 * @param target the target device.
+	 * @param key          the packed device address, see {@link DiscoveredBluetoothDevice#getKey()}.
+	 * @param fallbackName the name to use if the device is not in the registry, or null.
+	 * @return False, if Bluetooth is not supported and the device could not be created.
 	 */
-	public void connect(@NonNull final DiscoveredBluetoothDevice target) {
+	public boolean connect(final long key, @Nullable final String fallbackName) {
 		// Prevent from calling again when called again (screen orientation changed).
 		if (device == null) {
-			device = target.getDevice();
+			final DiscoveredBluetoothDevice target = DeviceRegistry.getInstance().get(key);
+			if (target != null) {
+				device = target.getDevice();
+				deviceName = target.getName();
+			} else {
+				final BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+				if (adapter == null)
+					return false;
+				device = adapter.getRemoteDevice(DiscoveredBluetoothDevice.toAddress(key));
+				deviceName = fallbackName;
+			}
 			final LogSession logSession = Logger
-					.newSession(getApplication(), null, target.getAddress(), target.getName());
+					.newSession(getApplication(), null, device.getAddress(), deviceName);
 			blinkyManager.setLogger(logSession);
 			reconnect();
 		}
+		return true;
+	}
+
+	/**
+	 * Returns the name of the connected device, or null if unknown.
+	 */
+	@Nullable
+	public String getDeviceName() {
+		return deviceName;
+	}
+
+	/**
+	 * Returns the address of the connected device, or null if not connected.
+	 */
+	@Nullable
+	public String getDeviceAddress() {
+		return device != null ? device.getAddress() : null;
 	}
 
 	/**
@@ -82,9 +118,13 @@ public class BlinkyViewModel extends AndroidViewModel {
 	 */
 	public void reconnect() {
 		if (device != null) {
+			final String name = deviceName;
 			blinkyManager.connect(device)
 					.retry(3, 100)
 					.useAutoConnect(false)
+					// Remember the device, so it's shown in the scanner next time.
+					.done(connected -> KnownDeviceStore.getInstance(getApplication())
+							.deviceConnected(DiscoveredBluetoothDevice.toKey(connected.getAddress()), name))
 					.enqueue();
 		}
 	}
@@ -94,6 +134,7 @@ public class BlinkyViewModel extends AndroidViewModel {
 	 */
 	private void disconnect() {
 		device = null;
+		deviceName = null;
 		blinkyManager.disconnect().enqueue();
 	}
 
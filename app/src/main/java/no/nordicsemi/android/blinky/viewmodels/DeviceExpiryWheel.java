@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.viewmodels;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice;
+
+/**
+ * A timing wheel that finds devices that have not been seen for longer than the timeout.
+ * <p>
+ * Each device is kept in the slot in which it would expire if it was not seen again.
+ * Seeing a device again only updates its last-seen time, which costs O(1) and does not
+ * touch the wheel. When a slot is due, each device in it is either expired, or moved to
+ * the slot matching its new last-seen time. This way only the devices in due slots are
+ * checked, instead of sweeping over all devices. The earliest non-empty slot is tracked,
+ * so finding when the wheel should be advanced next does not scan the slots.
+ * <p>
+ * This class is not thread safe.
+ */
+/* package */ final class DeviceExpiryWheel {
+	private static final long SLOT_DURATION = 1000; // [ms]
+
+	private final long timeoutMillis;
+	private final List<List<DiscoveredBluetoothDevice>> slots;
+	/** The index of the last processed tick, that is time / {@link #SLOT_DURATION}. */
+	private long lastTick = -1;
+	/**
+	 * The earliest tick whose slot may contain devices, or {@link Long#MAX_VALUE} if the wheel
+	 * is empty. It may be earlier than the actual one, but never later.
+	 */
+	private long nextTick = Long.MAX_VALUE;
+
+	/**
+	 * Creates the wheel.
+	 *
+	 * @param timeoutMillis the time after which a device that has not been seen expires.
+	 */
+	/* package */ DeviceExpiryWheel(final long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+		final int slotCount = (int) (timeoutMillis / SLOT_DURATION) + 2;
+		slots = new ArrayList<>(slotCount);
+		for (int i = 0; i < slotCount; ++i)
+			slots.add(new ArrayList<>());
+	}
+
+	/**
+	 * Adds a new device to the wheel.
+	 *
+	 * @param device the device, with the last-seen time set.
+	 */
+	/* package */ void add(@NonNull final DiscoveredBluetoothDevice device) {
+		final long tick = (device.getLastSeenTime() + timeoutMillis) / SLOT_DURATION;
+		slots.get(slotOf(tick)).add(device);
+		nextTick = Math.min(nextTick, tick);
+	}
+
+	/**
+	 * Advances the wheel to the given time and collects devices that have expired.
+	 *
+	 * @param now     the current time, in the same time base as the last-seen times.
+	 * @param expired the list to which the expired devices are added.
+	 */
+	/* package */ void advance(final long now, @NonNull final List<DiscoveredBluetoothDevice> expired) {
+		// Only slots that have fully passed are processed, so all devices in them have expired,
+		// unless they have been seen again.
+		final long lastPassedTick = now / SLOT_DURATION - 1;
+		if (lastTick < 0)
+			lastTick = lastPassedTick;
+		else if (lastPassedTick - lastTick > slots.size())
+			lastTick = lastPassedTick - slots.size();
+		if (nextTick > lastPassedTick) {
+			// No slot containing devices has passed.
+			lastTick = lastPassedTick;
+			return;
+		}
+		// The slots before the next tick are empty.
+		lastTick = Math.max(lastTick, nextTick - 1);
+
+		while (lastTick < lastPassedTick) {
+			lastTick++;
+			final List<DiscoveredBluetoothDevice> slot = slots.get(slotOf(lastTick));
+			if (slot.isEmpty())
+				continue;
+
+			final int size = slot.size();
+			for (int i = 0; i < size; ++i) {
+				final DiscoveredBluetoothDevice device = slot.get(i);
+				final long expiryTime = device.getLastSeenTime() + timeoutMillis;
+				if (expiryTime <= now)
+					expired.add(device);
+				else
+					slots.get(slotOf(expiryTime / SLOT_DURATION)).add(device);
+			}
+			// Devices moved to the same slot, which is the slot for a tick one revolution later,
+			// were appended after the processed ones.
+			slot.subList(0, size).clear();
+		}
+
+		// All remaining devices expire after the last processed tick.
+		nextTick = Long.MAX_VALUE;
+		for (long tick = lastTick + 1; tick <= lastTick + slots.size(); ++tick) {
+			if (!slots.get(slotOf(tick)).isEmpty()) {
+				nextTick = tick;
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Returns the time at which {@link #advance(long, List)} should be called next, that is
+	 * when the next non-empty slot will have passed. Devices in that slot may have been seen
+	 * again since, so they do not necessarily expire at that time.
+	 *
+	 * @return The time of the next advance, or -1 if the wheel is empty.
+	 */
+	/* package */ long getNextAdvanceTime() {
+		return nextTick != Long.MAX_VALUE ? (nextTick + 1) * SLOT_DURATION : -1;
+	}
+
+	/* package */ void clear() {
+		for (final List<DiscoveredBluetoothDevice> slot : slots)
+			slot.clear();
+		nextTick = Long.MAX_VALUE;
+	}
+
+	private int slotOf(final long tick) {
+		return (int) (tick % slots.size());
+	}
+}
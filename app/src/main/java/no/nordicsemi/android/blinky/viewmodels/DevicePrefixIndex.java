@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.viewmodels;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice;
+import no.nordicsemi.android.blinky.utils.LongHashMap;
+
+/**
+ * A prefix index of device names and addresses, used to search the device list as the user
+ * types.
+ * <p>
+ * The lower-case names and addresses are kept in sorted sets. All terms starting with a prefix
+ * follow each other in a sorted set, so a query seeks to the prefix in O(log n) and then visits
+ * only the matching terms.
+ * <p>
+ * {@link DiscoveredBluetoothDevice} replaces its name only when the advertised name has changed,
+ * so {@link #update(DiscoveredBluetoothDevice)} detects a changed name by comparing references
+ * and re-indexes the name only then.
+ * <p>
+ * This class is not thread safe.
+ */
+/* package */ final class DevicePrefixIndex {
+
+	private static final class Term implements Comparable<Term> {
+		@NonNull
+		private final String text;
+		/** The packed device address, used to order devices with the same term. */
+		private final long key;
+		@Nullable
+		private final Entry entry;
+
+		private Term(@NonNull final String text, final long key, @Nullable final Entry entry) {
+			this.text = text;
+			this.key = key;
+			this.entry = entry;
+		}
+
+		@Override
+		public int compareTo(@NonNull final Term other) {
+			final int result = text.compareTo(other.text);
+			return result != 0 ? result : Long.compare(key, other.key);
+		}
+	}
+
+	private static final class Entry {
+		@NonNull
+		private final DiscoveredBluetoothDevice device;
+		@NonNull
+		private final Term address;
+		/** The indexed name term, or null if the device has no name. */
+		@Nullable
+		private Term name;
+		/** The name the term was created from, compared by reference. */
+		@Nullable
+		private String indexedName;
+		/** The number of the last search that returned the device. */
+		private int searchId;
+
+		private Entry(@NonNull final DiscoveredBluetoothDevice device) {
+			this.device = device;
+			this.address = new Term(normalize(device.getAddress()), device.getKey(), this);
+		}
+	}
+
+	/** The entries, keyed by the packed device address. */
+	@NonNull
+	private final LongHashMap<Entry> entries = new LongHashMap<>();
+	@NonNull
+	private final TreeSet<Term> names = new TreeSet<>();
+	@NonNull
+	private final TreeSet<Term> addresses = new TreeSet<>();
+	/** The number of the current search, used to return each matching entry once. */
+	private int searchId;
+
+	/**
+	 * Converts the query to the form used in the index.
+	 *
+	 * @param query the text typed by the user.
+	 * @return The normalized prefix, or null if the query is empty.
+	 */
+	@Nullable
+	/* package */ static String toPrefix(@Nullable final String query) {
+		if (query == null)
+			return null;
+		final String prefix = query.trim();
+		return prefix.isEmpty() ? null : normalize(prefix);
+	}
+
+	/**
+	 * Adds a new device to the index.
+	 *
+	 * @param device the device, already updated with its first scan result.
+	 */
+	/* package */ void add(@NonNull final DiscoveredBluetoothDevice device) {
+		if (entries.containsKey(device.getKey()))
+			return;
+		final Entry entry = new Entry(device);
+		entries.put(device.getKey(), entry);
+		addresses.add(entry.address);
+		indexName(entry);
+	}
+
+	/**
+	 * Re-indexes the name of the device, if it has changed.
+	 *
+	 * @param device the updated device.
+	 */
+	/* package */ void update(@NonNull final DiscoveredBluetoothDevice device) {
+		final Entry entry = entries.get(device.getKey());
+		if (entry != null && entry.indexedName != device.getName())
+			indexName(entry);
+	}
+
+	/* package */ void remove(@NonNull final DiscoveredBluetoothDevice device) {
+		final Entry entry = entries.remove(device.getKey());
+		if (entry == null)
+			return;
+		addresses.remove(entry.address);
+		if (entry.name != null)
+			names.remove(entry.name);
+	}
+
+	/* package */ void clear() {
+		entries.clear();
+		names.clear();
+		addresses.clear();
+	}
+
+	/**
+	 * Returns whether the name or the address of the indexed device starts with the prefix.
+	 * This does not search the index and is used to check a single updated device.
+	 *
+	 * @param device the device.
+	 * @param prefix the prefix returned by {@link #toPrefix(String)}.
+	 * @return True, if the device matches.
+	 */
+	/* package */ boolean matches(@NonNull final DiscoveredBluetoothDevice device,
+								  @NonNull final String prefix) {
+		final Entry entry = entries.get(device.getKey());
+		if (entry == null)
+			return false;
+		return entry.address.text.startsWith(prefix)
+				|| (entry.name != null && entry.name.text.startsWith(prefix));
+	}
+
+	/**
+	 * Finds all devices with the name or the address starting with the prefix. Devices are
+	 * returned in no particular order, the {@link SortedDeviceList} they are added to keeps
+	 * them in the chosen order.
+	 *
+	 * @param prefix the prefix returned by {@link #toPrefix(String)}.
+	 * @param out    the list the matching devices are added to.
+	 */
+	/* package */ void search(@NonNull final String prefix,
+							  @NonNull final List<DiscoveredBluetoothDevice> out) {
+		searchId++;
+		collect(names, prefix, out);
+		collect(addresses, prefix, out);
+	}
+
+	private void collect(@NonNull final TreeSet<Term> terms, @NonNull final String prefix,
+						 @NonNull final List<DiscoveredBluetoothDevice> out) {
+		final NavigableSet<Term> tail = terms.tailSet(new Term(prefix, Long.MIN_VALUE, null), true);
+		for (final Term term : tail) {
+			if (!term.text.startsWith(prefix))
+				break;
+			final Entry entry = term.entry;
+			// A device matching both by name and by address is returned once.
+			if (entry != null && entry.searchId != searchId) {
+				entry.searchId = searchId;
+				out.add(entry.device);
+			}
+		}
+	}
+
+	private void indexName(@NonNull final Entry entry) {
+		if (entry.name != null)
+			names.remove(entry.name);
+		final String name = entry.device.getName();
+		entry.indexedName = name;
+		entry.name = name != null ? new Term(normalize(name), entry.device.getKey(), entry) : null;
+		if (entry.name != null)
+			names.add(entry.name);
+	}
+
+	@NonNull
+	private static String normalize(@NonNull final String text) {
+		return text.toLowerCase(Locale.ROOT);
+	}
+}
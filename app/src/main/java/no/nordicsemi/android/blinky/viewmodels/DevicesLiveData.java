@@ -22,139 +22,519 @@
 
 package no.nordicsemi.android.blinky.viewmodels;
 
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.os.SystemClock;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.lifecycle.LiveData;
-import android.os.ParcelUuid;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
+import no.nordicsemi.android.blinky.adapter.DeviceSnapshot;
 import no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice;
-import no.nordicsemi.android.blinky.profile.BlinkyManager;
+import no.nordicsemi.android.blinky.filter.FilterExpression;
+import no.nordicsemi.android.blinky.filter.FilterPredicate;
+import no.nordicsemi.android.blinky.filter.FilterProgram;
+import no.nordicsemi.android.blinky.scanner.DeviceRegistry;
+import no.nordicsemi.android.blinky.scanner.KnownDevice;
+import no.nordicsemi.android.blinky.utils.AdvertisingDataParser;
+import no.nordicsemi.android.blinky.utils.LongHashMap;
 import no.nordicsemi.android.support.v18.scanner.ScanRecord;
 import no.nordicsemi.android.support.v18.scanner.ScanResult;
 
 /**
  * This class keeps the current list of discovered Bluetooth LE devices matching filter.
- * Each time @{link {@link #applyFilter()} is called, the observers are notified with a new
- * list instance.
+ * The filtered list is maintained incrementally as scan results arrive. The filter is compiled
+ * to a {@link FilterProgram} and the predicate results are cached per device. Each time
+ * {@link #publish()} or {@link #applyFilter()} is called, the list is marked as changed.
+ * The observers are notified with a new list of immutable {@link DeviceSnapshot}s, built
+ * once per display frame, so changes made in between frames are merged.
+ * <p>
+ * The device registry is confined to the {@link ScanProcessingThread}. Package-private methods
+ * must be called on that thread. Public methods may be called from any thread and are queued
+ * to be executed on it.
  */
 @SuppressWarnings("unused")
-public class DevicesLiveData extends LiveData<List<DiscoveredBluetoothDevice>> {
-	private static final ParcelUuid FILTER_UUID = new ParcelUuid(BlinkyManager.LBS_UUID_SERVICE);
-	private static final int FILTER_RSSI = -50; // [dBm]
+public class DevicesLiveData extends LiveData<List<DeviceSnapshot>> {
 
+	/**
+	 * All discovered devices, keyed by the packed device address.
+	 *
+	 * @see DiscoveredBluetoothDevice#getKey()
+	 */
+	@NonNull
+	private final LongHashMap<DiscoveredBluetoothDevice> devices = new LongHashMap<>();
+	/**
+	 * The process-wide registry, in which other components look devices up by their keys.
+	 * It's updated only when devices are added or removed.
+	 */
+	@NonNull
+	private final DeviceRegistry registry = DeviceRegistry.getInstance();
+	/**
+	 * All discovered devices in the discovery order, so the filtered list keeps the same order
+	 * when it's rebuilt.
+	 */
+	@NonNull
+	private final Set<DiscoveredBluetoothDevice> orderedDevices = new LinkedHashSet<>();
+	/**
+	 * The working copy of the filtered list, in the chosen order. Observers get a list of
+	 * immutable snapshots of these devices. The list allows fast membership checks, removal
+	 * and repositioning of updated devices.
+	 */
+	@NonNull
+	private final SortedDeviceList filteredDevices;
+	/**
+	 * The parser for advertising data, reused for all scan results.
+	 */
+	@NonNull
+	private final AdvertisingDataParser advertisingDataParser = new AdvertisingDataParser();
+	/**
+	 * The name and address index used to search devices.
+	 */
 	@NonNull
-	private final List<DiscoveredBluetoothDevice> devices = new ArrayList<>();
+	private final DevicePrefixIndex searchIndex = new DevicePrefixIndex();
+	/**
+	 * Temporary list for expired devices, reused to avoid allocations.
+	 */
+	@NonNull
+	private final List<DiscoveredBluetoothDevice> expiredDevices = new ArrayList<>();
+	/**
+	 * Temporary list for devices found in the search index, reused to avoid allocations.
+	 */
+	@NonNull
+	private final List<DiscoveredBluetoothDevice> searchResults = new ArrayList<>();
+	/**
+	 * The timing wheel for expiring devices that have not been seen for a while,
+	 * or null if devices never expire.
+	 */
 	@Nullable
-	private List<DiscoveredBluetoothDevice> filteredDevices = null;
+	private DeviceExpiryWheel expiryWheel;
+	/**
+	 * The publisher builds and delivers the lists to observers at most once per frame.
+	 */
+	@NonNull
+	private final FramePacedPublisher<List<DeviceSnapshot>> publisher;
+	@NonNull
+	private final ScanProcessingThread processingThread;
+	@NonNull
+	private final ScanMetrics metrics;
 	private boolean filterUuidRequired;
 	private boolean filterNearbyOnly;
+	/**
+	 * The custom filter expression, combined with the UUID and the distance filters.
+	 */
+	@Nullable
+	private FilterExpression filterExpression;
+	/**
+	 * The program evaluating the combined filter.
+	 */
+	@NonNull
+	private FilterProgram filterProgram;
+	/**
+	 * The normalized search prefix, or null if the list is not searched.
+	 */
+	@Nullable
+	private String searchPrefix;
+	/**
+	 * The last-seen time of the most recent device returned by {@link #collectKnownDevices()},
+	 * in milliseconds since boot.
+	 */
+	private long knownDevicesCollectedTime;
+	/**
+	 * The discovery sequence of the next new or restored device.
+	 *
+	 * @see DiscoveredBluetoothDevice#getDiscoverySequence()
+	 */
+	private long nextDiscoverySequence;
 
-	/* package */ DevicesLiveData(final boolean filterUuidRequired, final boolean filterNearbyOnly) {
+	/* package */ DevicesLiveData(@NonNull final ScanProcessingThread processingThread,
+								 @NonNull final ScanMetrics metrics,
+								 final boolean filterUuidRequired, final boolean filterNearbyOnly,
+								 @Nullable final FilterExpression filterExpression,
+								 @NonNull final DeviceSortOrder sortOrder) {
+		this.processingThread = processingThread;
+		this.metrics = metrics;
 		this.filterUuidRequired = filterUuidRequired;
 		this.filterNearbyOnly = filterNearbyOnly;
+		this.filterExpression = filterExpression;
+		this.filterProgram = FilterProgram.compile(buildFilterExpression());
+		this.filteredDevices = new SortedDeviceList(sortOrder);
+		this.publisher = new FramePacedPublisher<>(processingThread::execute,
+				this::buildSnapshots, this::setValue);
 	}
 
-	/* package */ synchronized void bluetoothDisabled() {
-		devices.clear();
-		filteredDevices = null;
-		postValue(null);
+	/**
+	 * Limits the rate at which the observers are notified. By default the observers are
+	 * notified at most once per display frame. Changes made in between are merged.
+	 *
+	 * @param millis the minimum interval between notifications, in milliseconds.
+	 */
+	public void setMinPublishInterval(final long millis) {
+		publisher.setMinInterval(millis);
 	}
 
 	/* package */  boolean filterByUuid(final boolean uuidRequired) {
 		filterUuidRequired = uuidRequired;
-		return applyFilter();
+		return updateFilter();
 	}
 
 	/* package */  boolean filterByDistance(final boolean nearbyOnly) {
 		filterNearbyOnly = nearbyOnly;
+		return updateFilter();
+	}
+
+	/**
+	 * Sets the custom filter expression, which is combined with the UUID and the distance
+	 * filters using AND.
+	 *
+	 * @param expression the filter expression, or null to remove the custom filter.
+	 * @return True, if the filtered list is not empty.
+	 */
+	/* package */ boolean filterByExpression(@Nullable final FilterExpression expression) {
+		filterExpression = expression;
+		return updateFilter();
+	}
+
+	/**
+	 * Limits the filtered list to devices with the name or the address starting with the query.
+	 * The search is combined with the other filters.
+	 * <p>
+	 * The matching devices are found using a prefix index, so the time depends on the number
+	 * of matches, not on the number of all discovered devices.
+	 *
+	 * @param query the text to search for, or null or empty to show all devices.
+	 * @return True, if the filtered list is not empty.
+	 */
+	/* package */ boolean search(@Nullable final String query) {
+		searchPrefix = DevicePrefixIndex.toPrefix(query);
 		return applyFilter();
 	}
 
-	/* package */ synchronized boolean deviceDiscovered(@NonNull final ScanResult result) {
-		DiscoveredBluetoothDevice device;
+	/**
+	 * Changes the order of the filtered list. The list is sorted once, and later kept in order
+	 * by repositioning only the devices whose sort key has changed.
+	 *
+	 * @param order the new order.
+	 * @return True, if the filtered list is not empty.
+	 */
+	/* package */ boolean sortBy(@NonNull final DeviceSortOrder order) {
+		filteredDevices.setOrder(order);
+		return publish();
+	}
+
+	/**
+	 * Updates the device with the given scan result and applies the filter to this device only.
+	 * The device is added to, kept on, or removed from the filtered list. Observers are not
+	 * notified until {@link #publish()} is called.
+	 *
+	 * @param result scan result.
+	 * @return True, if the filtered list has changed and should be published.
+	 */
+	/* package */ boolean deviceDiscovered(@NonNull final ScanResult result) {
+		final BluetoothDevice bluetoothDevice = result.getDevice();
+		final ScanRecord record = result.getScanRecord();
+		final byte[] bytes = record != null ? record.getBytes() : null;
+		return deviceDiscovered(DiscoveredBluetoothDevice.toKey(bluetoothDevice.getAddress()),
+				bluetoothDevice, result.getRssi(), result.getTimestampNanos(),
+				bytes, bytes != null ? bytes.length : 0);
+	}
 
+	/**
+	 * Updates the device with the raw values of a scan result. This is used to replay
+	 * recorded scan sessions without creating {@link ScanResult} objects.
+	 *
+	 * @param key             the packed device address.
+	 * @param bluetoothDevice the Bluetooth device, used if the device is new.
+	 * @param rssi            the received RSSI, in dBm.
+	 * @param timestampNanos  the time the packet was received, in nanoseconds since boot.
+	 * @param data            the raw advertising data, may be null. The array is not retained.
+	 * @param dataLength      the number of valid bytes in the data array.
+	 * @return True, if the filtered list has changed and should be published.
+	 * @see #deviceDiscovered(ScanResult)
+	 */
+	/* package */ boolean deviceDiscovered(final long key, @NonNull final BluetoothDevice bluetoothDevice,
+										   final int rssi, final long timestampNanos,
+										   @Nullable final byte[] data, final int dataLength) {
 		// Check if it's a new device.
-		final int index = indexOf(result);
-		if (index == -1) {
-			device = new DiscoveredBluetoothDevice(result);
-			devices.add(device);
-		} else {
-			device = devices.get(index);
+		DiscoveredBluetoothDevice device = devices.get(key);
+		final boolean newDevice = device == null;
+		if (newDevice) {
+			device = new DiscoveredBluetoothDevice(bluetoothDevice, key);
+			device.setDiscoverySequence(nextDiscoverySequence++);
+			devices.put(key, device);
+			orderedDevices.add(device);
+			registry.add(device);
 		}
+		// Restored devices start expiring when they are seen for the first time.
+		final boolean restored = !newDevice && device.isRestored();
 
-		// Update RSSI and name.
-		device.update(result);
+		// Update RSSI, name and the last-seen time.
+		device.update(rssi, timestampNanos, data, dataLength, advertisingDataParser);
+		if (newDevice)
+			searchIndex.add(device);
+		else
+			searchIndex.update(device);
+		if ((newDevice || restored) && expiryWheel != null)
+			expiryWheel.add(device);
 
-		// Return true if the device was on the filtered list or is to be added.
-		return (filteredDevices != null && filteredDevices.contains(device))
-				|| (matchesUuidFilter(result) && matchesNearbyFilter(device.getHighestRssi()));
-    }
+		// The predicate results are cached, so that they can be reused when the filter changes.
+		final long filterResults = filterProgram.evaluatePredicates(device);
+		device.setFilterResults(filterResults);
+		final boolean matches = filterProgram.execute(filterResults)
+				&& (searchPrefix == null || searchIndex.matches(device, searchPrefix));
+		metrics.filterApplied(matches);
+		if (filteredDevices.contains(device)) {
+			// The device was on the filtered list. It's either updated in place, or removed.
+			if (!matches) {
+				filteredDevices.remove(device);
+			} else {
+				filteredDevices.update(device);
+			}
+			return true;
+		}
+		if (matches) {
+			filteredDevices.add(device);
+			return true;
+		}
+		return false;
+	}
 
 	/**
-	 * Clears the list of devices.
+	 * Sets the time after which devices that have not been seen are removed.
+	 * This method may be called from any thread.
+	 *
+	 * @param timeoutMillis the timeout in milliseconds, or 0 to keep devices until
+	 *                      {@link #clear()} is called.
 	 */
-	public synchronized void clear() {
-		devices.clear();
-		filteredDevices = null;
-		postValue(null);
+	public void setDeviceTimeout(final long timeoutMillis) {
+		processingThread.execute(() -> {
+			if (timeoutMillis <= 0) {
+				expiryWheel = null;
+				return;
+			}
+			expiryWheel = new DeviceExpiryWheel(timeoutMillis);
+			for (final DiscoveredBluetoothDevice device : orderedDevices) {
+				if (!device.isRestored())
+					expiryWheel.add(device);
+			}
+		});
 	}
 
 	/**
-	 * Refreshes the filtered device list based on the filter flags.
+	 * Removes devices that have not been seen for longer than the device timeout.
+	 * Removed devices leave the filtered list on the next {@link #publish()}.
+	 *
+	 * @param now the current time, in milliseconds since boot.
+	 * @return True, if the filtered list has changed and should be published.
+	 * @see #setDeviceTimeout(long)
 	 */
-	/* package */ synchronized boolean applyFilter() {
-		final List<DiscoveredBluetoothDevice> tmp = new ArrayList<>();
-		for (final DiscoveredBluetoothDevice device : devices) {
-			final ScanResult result = device.getScanResult();
-			if (matchesUuidFilter(result) && matchesNearbyFilter(device.getHighestRssi())) {
-				tmp.add(device);
-			}
+	/* package */ boolean evictExpiredDevices(final long now) {
+		if (expiryWheel == null)
+			return false;
+
+		expiryWheel.advance(now, expiredDevices);
+		boolean filteredListChanged = false;
+		for (int i = 0; i < expiredDevices.size(); ++i) {
+			final DiscoveredBluetoothDevice device = expiredDevices.get(i);
+			devices.remove(device.getKey());
+			orderedDevices.remove(device);
+			registry.remove(device);
+			searchIndex.remove(device);
+			filteredListChanged = filteredDevices.remove(device) || filteredListChanged;
 		}
-		filteredDevices = tmp;
-        postValue(filteredDevices);
-        return !filteredDevices.isEmpty();
+		metrics.devicesEvicted(expiredDevices.size());
+		expiredDevices.clear();
+		return filteredListChanged;
 	}
 
 	/**
-	 * Finds the index of existing devices on the device list.
+	 * Returns the time at which {@link #evictExpiredDevices(long)} should be called next,
+	 * even if no scan results arrive until then.
 	 *
-	 * @param result scan result.
-	 * @return Index of -1 if not found.
-	 */
-	private int indexOf(@NonNull final ScanResult result) {
-		int i = 0;
-		for (final DiscoveredBluetoothDevice device : devices) {
-			if (device.matches(result))
-				return i;
-			i++;
+	 * @return The time of the next check, in milliseconds since boot, or -1 if no device
+	 * can expire.
+	 */
+	/* package */ long getNextEvictionTime() {
+		return expiryWheel != null ? expiryWheel.getNextAdvanceTime() : -1;
+	}
+
+	/**
+	 * Adds the known devices that have not been discovered yet. They are shown as last seen
+	 * until they are updated with a scan result, and do not expire until then.
+	 *
+	 * @param knownDevices the known devices, the most recent first.
+	 * @return True, if the filtered list is not empty.
+	 */
+	/* package */ boolean restoreKnownDevices(@NonNull final List<KnownDevice> knownDevices) {
+		final BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+		if (adapter == null || knownDevices.isEmpty())
+			return !filteredDevices.isEmpty();
+
+		// Known devices are stored with wall-clock times.
+		final long offset = SystemClock.elapsedRealtime() - System.currentTimeMillis();
+		for (final KnownDevice knownDevice : knownDevices) {
+			final long key = knownDevice.getKey();
+			if (devices.containsKey(key))
+				continue;
+			final DiscoveredBluetoothDevice device = new DiscoveredBluetoothDevice(
+					adapter.getRemoteDevice(DiscoveredBluetoothDevice.toAddress(key)), key,
+					knownDevice.getName(), knownDevice.getRssi(),
+					knownDevice.isLbsServiceAdvertised(), knownDevice.getLastSeenTime() + offset);
+			device.setDiscoverySequence(nextDiscoverySequence++);
+			devices.put(key, device);
+			orderedDevices.add(device);
+			registry.add(device);
+			searchIndex.add(device);
+
+			final long filterResults = filterProgram.evaluatePredicates(device);
+			device.setFilterResults(filterResults);
+			if (filterProgram.execute(filterResults)
+					&& (searchPrefix == null || searchIndex.matches(device, searchPrefix)))
+				filteredDevices.add(device);
 		}
-		return -1;
+		return publish();
 	}
 
-	@SuppressWarnings("SimplifiableIfStatement")
-	private boolean matchesUuidFilter(@NonNull final ScanResult result) {
-		if (!filterUuidRequired)
-			return true;
+	/**
+	 * Returns the devices seen since the last call, to be saved in the known devices.
+	 * Restored devices that have not been seen again are not returned.
+	 *
+	 * @return The devices seen since the last call, with wall-clock times.
+	 */
+	@NonNull
+	/* package */ List<KnownDevice> collectKnownDevices() {
+		final long offset = System.currentTimeMillis() - SystemClock.elapsedRealtime();
+		final List<KnownDevice> result = new ArrayList<>();
+		long latest = knownDevicesCollectedTime;
+		for (final DiscoveredBluetoothDevice device : orderedDevices) {
+			final long lastSeenTime = device.getLastSeenTime();
+			if (device.isRestored() || lastSeenTime <= knownDevicesCollectedTime)
+				continue;
+			result.add(new KnownDevice(device.getKey(), device.getName(), device.getRssi(),
+					device.isLbsServiceAdvertised(), lastSeenTime + offset, 0));
+			latest = Math.max(latest, lastSeenTime);
+		}
+		knownDevicesCollectedTime = latest;
+		return result;
+	}
 
-		final ScanRecord record = result.getScanRecord();
-		if (record == null)
-			return false;
+	/**
+	 * Returns the number of all discovered devices, including those not matching the filter.
+	 */
+	/* package */ int getDeviceCount() {
+		return orderedDevices.size();
+	}
 
-		final List<ParcelUuid> uuids = record.getServiceUuids();
-		if (uuids == null)
-			return false;
+	/**
+	 * Clears the list of devices. This method may be called from any thread.
+	 */
+	public void clear() {
+		processingThread.execute(this::clearDevices);
+	}
 
-		return uuids.contains(FILTER_UUID);
+	private void clearDevices() {
+		devices.clear();
+		orderedDevices.clear();
+		registry.clear();
+		searchIndex.clear();
+		filteredDevices.clear();
+		if (expiryWheel != null)
+			expiryWheel.clear();
+		publisher.invalidate();
 	}
 
-	@SuppressWarnings("SimplifiableIfStatement")
-	private boolean matchesNearbyFilter(final int rssi) {
-		if (!filterNearbyOnly)
-			return true;
+	/**
+	 * Notifies the observers with the current filtered list, updated by
+	 * {@link #deviceDiscovered(ScanResult)}. The list is only marked as changed here,
+	 * and built once when the next frame is due.
+	 *
+	 * @return True, if the filtered list is not empty.
+	 */
+	/* package */ boolean publish() {
+		publisher.invalidate();
+		return !filteredDevices.isEmpty();
+	}
+
+	/**
+	 * Builds the list of snapshots of the filtered devices. This is called by the publisher
+	 * on the processing thread, at most once per frame.
+	 */
+	@NonNull
+	private List<DeviceSnapshot> buildSnapshots() {
+		final List<DeviceSnapshot> snapshots = new ArrayList<>(filteredDevices.size());
+		for (final DiscoveredBluetoothDevice device : filteredDevices)
+			snapshots.add(device.getSnapshot());
+		metrics.listPublished();
+		return snapshots;
+	}
+
+	/**
+	 * Rebuilds the filtered device list using the cached predicate results. This should only be
+	 * called when the filter or the search query has changed. When searching, only devices
+	 * found in the search index are checked.
+	 */
+	/* package */ boolean applyFilter() {
+		filteredDevices.clear();
+		if (searchPrefix == null) {
+			for (final DiscoveredBluetoothDevice device : orderedDevices) {
+				if (filterProgram.execute(device.getFilterResults())) {
+					filteredDevices.add(device);
+				}
+			}
+		} else {
+			searchIndex.search(searchPrefix, searchResults);
+			for (int i = 0; i < searchResults.size(); ++i) {
+				final DiscoveredBluetoothDevice device = searchResults.get(i);
+				if (filterProgram.execute(device.getFilterResults())) {
+					filteredDevices.add(device);
+				}
+			}
+			searchResults.clear();
+		}
+		return publish();
+	}
+
+	/**
+	 * Compiles the changed filter and rebuilds the filtered device list. Predicates that were
+	 * part of the previous filter are not evaluated again, their cached results are reused.
+	 *
+	 * @return True, if the filtered list is not empty.
+	 */
+	private boolean updateFilter() {
+		final FilterProgram program = FilterProgram.compile(buildFilterExpression());
+		final int[] mapping = program.mapPredicates(filterProgram);
+		for (final DiscoveredBluetoothDevice device : orderedDevices)
+			device.setFilterResults(program.migrateResults(mapping, device.getFilterResults(), device));
+		filterProgram = program;
+		return applyFilter();
+	}
 
-		return rssi >= FILTER_RSSI;
+	/**
+	 * Combines the UUID and the distance filters with the custom filter expression.
+	 *
+	 * @return The combined expression, or null if no filter is set.
+	 */
+	@Nullable
+	private FilterExpression buildFilterExpression() {
+		final List<FilterExpression> operands = new ArrayList<>(3);
+		if (filterUuidRequired)
+			operands.add(FilterPredicate.lbsService());
+		if (filterNearbyOnly)
+			operands.add(FilterPredicate.nearby());
+		if (filterExpression != null)
+			operands.add(filterExpression);
+		switch (operands.size()) {
+			case 0:
+				return null;
+			case 1:
+				return operands.get(0);
+			default:
+				return FilterExpression.and(operands.toArray(new FilterExpression[0]));
+		}
 	}
 }
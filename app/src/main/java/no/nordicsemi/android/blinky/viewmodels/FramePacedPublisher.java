@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.viewmodels;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.core.util.Consumer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Delivers a value to the main thread at most once per display frame, or at most once per
+ * the configured minimum interval. Changes to the value are only marked with
+ * {@link #invalidate()}. The value is built once, when the frame is due, on the thread of
+ * the given executor, so changes made in between frames do not cost anything.
+ *
+ * @param <T> the value type.
+ */
+/* package */ final class FramePacedPublisher<T> implements Choreographer.FrameCallback {
+
+	/**
+	 * Builds the value to be delivered.
+	 *
+	 * @param <T> the value type.
+	 */
+	/* package */ interface Source<T> {
+		@NonNull
+		T build();
+	}
+
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private final AtomicBoolean invalidated = new AtomicBoolean();
+	@NonNull
+	private final Executor executor;
+	@NonNull
+	private final Source<T> source;
+	@NonNull
+	private final Consumer<T> consumer;
+	private volatile long minIntervalMillis;
+	/** The time of the last delivery. Accessed only from the main thread. */
+	private long lastDeliveryTime;
+
+	/**
+	 * Creates the publisher.
+	 *
+	 * @param executor the executor on which the value is built.
+	 * @param source   the source building the value.
+	 * @param consumer the consumer that will be called on the main thread.
+	 */
+	/* package */ FramePacedPublisher(@NonNull final Executor executor,
+									  @NonNull final Source<T> source,
+									  @NonNull final Consumer<T> consumer) {
+		this.executor = executor;
+		this.source = source;
+		this.consumer = consumer;
+	}
+
+	/**
+	 * Sets the minimum interval between two deliveries. With the interval set to 0,
+	 * values are delivered at most once per display frame.
+	 *
+	 * @param millis the minimum interval in milliseconds, for example 100 for 10 Hz.
+	 */
+	/* package */ void setMinInterval(final long millis) {
+		minIntervalMillis = Math.max(0, millis);
+	}
+
+	/**
+	 * Marks the value as changed. A new value will be built and delivered on the next frame.
+	 * This method may be called from any thread.
+	 */
+	/* package */ void invalidate() {
+		if (invalidated.compareAndSet(false, true)) {
+			handler.post(scheduleFrame);
+		}
+	}
+
+	@MainThread
+	@Override
+	public void doFrame(final long frameTimeNanos) {
+		lastDeliveryTime = SystemClock.uptimeMillis();
+		executor.execute(build);
+	}
+
+	private final Runnable scheduleFrame = new Runnable() {
+		@Override
+		public void run() {
+			final long delay = lastDeliveryTime + minIntervalMillis - SystemClock.uptimeMillis();
+			Choreographer.getInstance().postFrameCallbackDelayed(FramePacedPublisher.this,
+					Math.max(0, delay));
+		}
+	};
+
+	private final Runnable build = new Runnable() {
+		@Override
+		public void run() {
+			// Changes made from now on will be delivered on the next frame.
+			invalidated.set(false);
+			final T value = source.build();
+			handler.post(() -> consumer.accept(value));
+		}
+	};
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.viewmodels;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import no.nordicsemi.android.blinky.utils.Histogram;
+
+/**
+ * Metrics of the scan pipeline: the number of received advertising packets, the batch sizes
+ * and processing times, the filter hit ratio, the publish rate, the registry size and evictions.
+ * The cost of the background scan is measured as the number of wake-ups and the CPU time
+ * spent processing the delivered batches.
+ * <p>
+ * The metrics are recorded on the {@link ScanProcessingThread} using primitive counters and
+ * fixed-bucket histograms, so recording does not allocate and can stay enabled in production.
+ * They may be read from any thread, for example by a debug screen, a log dump or tests.
+ */
+public final class ScanMetrics {
+	/** Rates are updated when at least this time has passed since the last update. */
+	private static final long RATE_INTERVAL = 1000; // [ms]
+
+	private final AtomicLong advertCount = new AtomicLong();
+	private final AtomicLong filterHitCount = new AtomicLong();
+	private final AtomicLong filterMissCount = new AtomicLong();
+	private final AtomicLong publishCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong backgroundWakeupCount = new AtomicLong();
+	private final AtomicLong backgroundResultCount = new AtomicLong();
+	private final AtomicLong backgroundCpuTimeNanos = new AtomicLong();
+	/** The number of scan results in a batch. */
+	private final Histogram batchSizes = new Histogram(0, 1, 2, 4, 8, 16, 32, 64, 128, 256);
+	/** The time needed to process a batch, in microseconds. */
+	private final Histogram processingTimes = new Histogram(50, 100, 200, 500,
+			1000, 2000, 5000, 10000, 20000, 50000, 100000);
+	private volatile int registrySize;
+	private volatile float advertsPerSecond;
+	private volatile float publishesPerSecond;
+
+	// Rate calculation, accessed only on the processing thread.
+	private long rateUpdateTime = -1;
+	private long rateAdvertCount;
+	private long ratePublishCount;
+
+	/* package */ void advertReceived() {
+		increment(advertCount);
+	}
+
+	/* package */ void filterApplied(final boolean matched) {
+		increment(matched ? filterHitCount : filterMissCount);
+	}
+
+	/* package */ void listPublished() {
+		increment(publishCount);
+	}
+
+	/* package */ void devicesEvicted(final int count) {
+		evictionCount.lazySet(evictionCount.get() + count);
+	}
+
+	/**
+	 * Records a batch of scan results delivered by the background scan, which woke the app up.
+	 *
+	 * @param resultCount the number of scan results in the batch.
+	 * @param cpuNanos    the CPU time of the processing thread spent on the batch, in nanoseconds.
+	 */
+	/* package */ void backgroundBatchProcessed(final int resultCount, final long cpuNanos) {
+		increment(backgroundWakeupCount);
+		backgroundResultCount.lazySet(backgroundResultCount.get() + resultCount);
+		backgroundCpuTimeNanos.lazySet(backgroundCpuTimeNanos.get() + cpuNanos);
+	}
+
+	/**
+	 * Records a processed batch of scan results and updates the rates.
+	 *
+	 * @param batchSize       the number of scan results in the batch.
+	 * @param processingNanos the time needed to process the batch, in nanoseconds.
+	 * @param registrySize    the number of devices in the registry after the batch.
+	 * @param now             the current time, in milliseconds since boot.
+	 */
+	/* package */ void batchProcessed(final int batchSize, final long processingNanos,
+									  final int registrySize, final long now) {
+		batchSizes.record(batchSize);
+		processingTimes.record(processingNanos / 1000);
+		this.registrySize = registrySize;
+
+		if (rateUpdateTime < 0) {
+			rateUpdateTime = now;
+			rateAdvertCount = advertCount.get();
+			ratePublishCount = publishCount.get();
+		} else if (now - rateUpdateTime >= RATE_INTERVAL) {
+			final float seconds = (now - rateUpdateTime) / 1000.0f;
+			advertsPerSecond = (advertCount.get() - rateAdvertCount) / seconds;
+			publishesPerSecond = (publishCount.get() - ratePublishCount) / seconds;
+			rateUpdateTime = now;
+			rateAdvertCount = advertCount.get();
+			ratePublishCount = publishCount.get();
+		}
+	}
+
+	/**
+	 * Clears all metrics. This method must be called on the processing thread.
+	 */
+	/* package */ void reset() {
+		advertCount.lazySet(0);
+		filterHitCount.lazySet(0);
+		filterMissCount.lazySet(0);
+		publishCount.lazySet(0);
+		evictionCount.lazySet(0);
+		backgroundWakeupCount.lazySet(0);
+		backgroundResultCount.lazySet(0);
+		backgroundCpuTimeNanos.lazySet(0);
+		batchSizes.reset();
+		processingTimes.reset();
+		advertsPerSecond = publishesPerSecond = 0;
+		rateUpdateTime = -1;
+	}
+
+	/**
+	 * Returns the number of received advertising packets.
+	 */
+	public long getAdvertCount() {
+		return advertCount.get();
+	}
+
+	/**
+	 * Returns the number of advertising packets received per second, measured over the last
+	 * second of scanning.
+	 */
+	public float getAdvertsPerSecond() {
+		return advertsPerSecond;
+	}
+
+	/**
+	 * Returns the histogram of the number of scan results in a batch.
+	 */
+	@NonNull
+	public Histogram getBatchSizes() {
+		return batchSizes;
+	}
+
+	/**
+	 * Returns the histogram of the batch processing times, in microseconds.
+	 */
+	@NonNull
+	public Histogram getProcessingTimes() {
+		return processingTimes;
+	}
+
+	/**
+	 * Returns the part of scan results whose device matched the filter, in range 0-1.
+	 */
+	public float getFilterHitRatio() {
+		final long hits = filterHitCount.get();
+		final long total = hits + filterMissCount.get();
+		return total == 0 ? 0 : (float) hits / total;
+	}
+
+	/**
+	 * Returns the number of lists published to the observers.
+	 */
+	public long getPublishCount() {
+		return publishCount.get();
+	}
+
+	/**
+	 * Returns the number of lists published per second, measured over the last second of
+	 * scanning. Publications are further paced to the frame rate, before they reach the UI.
+	 */
+	public float getPublishesPerSecond() {
+		return publishesPerSecond;
+	}
+
+	/**
+	 * Returns the number of devices in the registry, including those not matching the filter.
+	 */
+	public int getRegistrySize() {
+		return registrySize;
+	}
+
+	/**
+	 * Returns the number of devices removed after the device timeout.
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * Returns the number of times the background scan delivered a batch of scan results.
+	 * Each delivery may wake the app up.
+	 */
+	public long getBackgroundWakeupCount() {
+		return backgroundWakeupCount.get();
+	}
+
+	/**
+	 * Returns the number of scan results delivered by the background scan.
+	 */
+	public long getBackgroundResultCount() {
+		return backgroundResultCount.get();
+	}
+
+	/**
+	 * Returns the CPU time spent processing the results of the background scan, in milliseconds.
+	 */
+	public long getBackgroundCpuTimeMillis() {
+		return backgroundCpuTimeNanos.get() / 1000000L;
+	}
+
+	@NonNull
+	@Override
+	public String toString() {
+		return String.format(Locale.US,
+				"adverts: %d (%.1f/s), batches: %d (mean size %.1f, max %d), " +
+						"processing: mean %.0f us, p99 %d us, max %d us, filter hit ratio: %.2f, " +
+						"publishes: %d (%.1f/s), registry: %d, evictions: %d, " +
+						"background: %d wake-ups, %d results, %d ms CPU",
+				getAdvertCount(), getAdvertsPerSecond(),
+				batchSizes.getCount(), batchSizes.getMean(), batchSizes.getMax(),
+				processingTimes.getMean(), processingTimes.getPercentile(99), processingTimes.getMax(),
+				getFilterHitRatio(), getPublishCount(), getPublishesPerSecond(),
+				getRegistrySize(), getEvictionCount(),
+				getBackgroundWakeupCount(), getBackgroundResultCount(), getBackgroundCpuTimeMillis());
+	}
+
+	private static void increment(@NonNull final AtomicLong counter) {
+		// There's only one writer, so the increment doesn't need to be atomic.
+		counter.lazySet(counter.get() + 1);
+	}
+}
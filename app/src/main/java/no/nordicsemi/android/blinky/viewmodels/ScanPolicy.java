@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.viewmodels;
+
+import androidx.annotation.NonNull;
+
+import no.nordicsemi.android.support.v18.scanner.ScanSettings;
+
+/**
+ * Scan policies used by the {@link AdaptiveScanScheduler}, from the most aggressive to the most
+ * power efficient one. Policies with a scan pause use a duty cycle: the scanner is started
+ * for the scan window and stopped for the pause.
+ * <p>
+ * The {@link #INVENTORY} policy is not chosen automatically. It's used for long unattended
+ * sweeps, where CPU wake-ups matter more than latency.
+ */
+public enum ScanPolicy {
+	/** Used while new devices keep appearing. */
+	AGGRESSIVE(ScanSettings.SCAN_MODE_LOW_LATENCY, 500, 0, 0, false),
+	/** Used when no new device has been found for a while. */
+	BALANCED(ScanSettings.SCAN_MODE_BALANCED, 1000, 0, 0, false),
+	/** Used when the discovery has levelled off. */
+	LOW_POWER(ScanSettings.SCAN_MODE_LOW_POWER, 2000, 10000, 20000, false),
+	/**
+	 * Background inventory mode. Results are batched by the controller, if supported,
+	 * and delivered every few seconds. The report delay may be changed with
+	 * {@link AdaptiveScanScheduler#setInventoryMode(boolean, long)}.
+	 */
+	INVENTORY(ScanSettings.SCAN_MODE_LOW_POWER, 5000, 0, 0, true);
+
+	private final int scanMode;
+	private final long reportDelayMillis;
+	private final long scanWindowMillis;
+	private final long scanPauseMillis;
+	private final boolean hardwareBatching;
+
+	ScanPolicy(final int scanMode, final long reportDelayMillis,
+			   final long scanWindowMillis, final long scanPauseMillis,
+			   final boolean hardwareBatching) {
+		this.scanMode = scanMode;
+		this.reportDelayMillis = reportDelayMillis;
+		this.scanWindowMillis = scanWindowMillis;
+		this.scanPauseMillis = scanPauseMillis;
+		this.hardwareBatching = hardwareBatching;
+	}
+
+	/**
+	 * Returns the scan mode, one of the {@code SCAN_MODE_*} constants from {@link ScanSettings}.
+	 */
+	public int getScanMode() {
+		return scanMode;
+	}
+
+	public long getReportDelayMillis() {
+		return reportDelayMillis;
+	}
+
+	/**
+	 * Returns the time for which the scanner is on in each duty cycle, or 0 if the scanner
+	 * is on all the time.
+	 */
+	public long getScanWindowMillis() {
+		return scanWindowMillis;
+	}
+
+	/**
+	 * Returns the time for which the scanner is off in each duty cycle.
+	 */
+	public long getScanPauseMillis() {
+		return scanPauseMillis;
+	}
+
+	/**
+	 * Returns whether the results should be batched by the Bluetooth controller, if supported.
+	 */
+	public boolean isHardwareBatching() {
+		return hardwareBatching;
+	}
+
+	/**
+	 * Returns whether the scanner is turned off periodically.
+	 */
+	public boolean isDutyCycled() {
+		return scanWindowMillis > 0 && scanPauseMillis > 0;
+	}
+
+	/**
+	 * Returns the scan settings for this policy with the given report delay.
+	 *
+	 * @param reportDelayMillis the report delay, in milliseconds.
+	 */
+	@NonNull
+	/* package */ ScanSettings toScanSettings(final long reportDelayMillis) {
+		return new ScanSettings.Builder()
+				.setScanMode(scanMode)
+				.setReportDelay(reportDelayMillis)
+				.setUseHardwareBatchingIfSupported(hardwareBatching)
+				.build();
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.viewmodels;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The thread on which scan results are delivered and the device registry is modified.
+ * <p>
+ * All mutation of {@link DevicesLiveData} is confined to this thread, so it does not need
+ * locking. Commands from other threads, like clearing the list or changing the filter, are
+ * passed through a lock-free queue and executed in order, between scan results. The queue
+ * is drained by a single message posted to the thread's {@link android.os.MessageQueue},
+ * so a burst of commands wakes the thread once, not once per command.
+ * The results are published as immutable snapshots.
+ */
+/* package */ final class ScanProcessingThread extends HandlerThread {
+	private final Queue<Runnable> commands = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean drainScheduled = new AtomicBoolean();
+	private final Handler handler;
+
+	/* package */ ScanProcessingThread() {
+		super("ScanProcessing", Process.THREAD_PRIORITY_BACKGROUND);
+		start();
+		handler = new Handler(getLooper());
+	}
+
+	/**
+	 * Creates a processing thread that executes the commands on the given looper, instead
+	 * of starting a new thread. Used by tests which advance the looper themselves.
+	 *
+	 * @param looper the looper on which the commands are executed.
+	 */
+	/* package */ ScanProcessingThread(@NonNull final Looper looper) {
+		super("ScanProcessing", Process.THREAD_PRIORITY_BACKGROUND);
+		handler = new Handler(looper);
+	}
+
+	/**
+	 * Returns the handler of this thread, to be used for scan callbacks.
+	 */
+	@NonNull
+	/* package */ Handler getHandler() {
+		return handler;
+	}
+
+	/**
+	 * Queues the command to be executed on this thread. This method may be called from any
+	 * thread. A message is posted to wake the thread only if no drain is pending, otherwise
+	 * the command is executed by the pending one.
+	 *
+	 * @param command the command to be executed.
+	 */
+	/* package */ void execute(@NonNull final Runnable command) {
+		commands.offer(command);
+		if (drainScheduled.compareAndSet(false, true))
+			handler.post(drainCommands);
+	}
+
+	private final Runnable drainCommands = new Runnable() {
+		@Override
+		public void run() {
+			drainScheduled.set(false);
+			Runnable command;
+			while ((command = commands.poll()) != null)
+				command.run();
+		}
+	};
+}
@@ -0,0 +1,794 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.viewmodels;
+
+import android.app.PendingIntent;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.location.LocationManager;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import no.nordicsemi.android.blinky.BackgroundScanReceiver;
+import no.nordicsemi.android.blinky.filter.FilterExpression;
+import no.nordicsemi.android.blinky.profile.BlinkyProfile;
+import no.nordicsemi.android.blinky.scanner.BleScanner;
+import no.nordicsemi.android.blinky.scanner.CompatBleScanner;
+import no.nordicsemi.android.blinky.scanner.KnownDevice;
+import no.nordicsemi.android.blinky.scanner.KnownDeviceStore;
+import no.nordicsemi.android.blinky.scanner.ScanResultBuffer;
+import no.nordicsemi.android.blinky.scanner.ScanResultListener;
+import no.nordicsemi.android.blinky.scanner.ScanSessionRecorder;
+import no.nordicsemi.android.blinky.scanner.ScanSessionReplay;
+import no.nordicsemi.android.blinky.utils.LocationState;
+import no.nordicsemi.android.blinky.utils.Utils;
+import no.nordicsemi.android.support.v18.scanner.BluetoothLeScannerCompat;
+import no.nordicsemi.android.support.v18.scanner.ScanFilter;
+import no.nordicsemi.android.support.v18.scanner.ScanResult;
+import no.nordicsemi.android.support.v18.scanner.ScanSettings;
+
+/**
+ * The process-wide scan session. It owns the scan pipeline: the processing thread, the device
+ * list, the metrics and the known devices. The foreground scan of the
+ * {@link no.nordicsemi.android.blinky.ScannerActivity} and the background scan both feed it.
+ * <p>
+ * Only one scan runs at a time. While the scanner screen is visible, the
+ * {@link AdaptiveScanScheduler} scans with a callback. When it stops, and the background scan
+ * is enabled, the scan is handed over to the system using a {@link PendingIntent}. The system
+ * filters the packets using the hardware filter on the Led-Button Service UUID, and delivers
+ * the results in batches to the {@link BackgroundScanReceiver}, which wakes the app up only
+ * once every {@link #BACKGROUND_REPORT_DELAY} ms. If the app was killed, it's restarted for
+ * the delivery and a new session is created.
+ * <p>
+ * Methods, unless noted otherwise, must be called on the main thread.
+ */
+public final class ScanSession {
+	private static final String TAG = "ScanSession";
+	/* package */ static final String PREFS_FILTER_UUID_REQUIRED = "filter_uuid";
+	/* package */ static final String PREFS_FILTER_NEARBY_ONLY = "filter_nearby";
+	/* package */ static final String PREFS_FILTER_EXPRESSION = "filter_expression";
+	/* package */ static final String PREFS_SORT_ORDER = "sort_order";
+	/* package */ static final String PREFS_BACKGROUND_SCAN = "background_scan";
+	/** Devices not seen for this time are removed from the list. */
+	private static final long DEVICE_TIMEOUT = 5 * 60 * 1000; // [ms]
+	/** The interval at which the devices seen are saved in the known devices. */
+	private static final long KNOWN_DEVICES_SAVE_INTERVAL = 10 * 1000; // [ms]
+	/** The report delay of the background scan. */
+	private static final long BACKGROUND_REPORT_DELAY = 30 * 1000; // [ms]
+	private static final int REQUEST_BACKGROUND_SCAN = 1;
+
+	private static ScanSession instance;
+
+	@NonNull
+	private final Context context;
+	@NonNull
+	private final SharedPreferences preferences;
+	/**
+	 * MutableLiveData containing the list of devices.
+	 */
+	@NonNull
+	private final DevicesLiveData devicesLiveData;
+	/**
+	 * MutableLiveData containing the scanner state.
+	 */
+	@NonNull
+	private final ScannerStateLiveData scannerStateLiveData;
+	/**
+	 * The thread on which scan results are processed.
+	 */
+	@NonNull
+	private final ScanProcessingThread processingThread;
+	/**
+	 * The scheduler adjusting the settings of the foreground scan at runtime.
+	 */
+	@NonNull
+	private final AdaptiveScanScheduler scanScheduler;
+	/**
+	 * The metrics of the scan pipeline.
+	 */
+	@NonNull
+	private final ScanMetrics metrics = new ScanMetrics();
+	/**
+	 * The source of scan results for the foreground scan. Accessed only on the main thread.
+	 */
+	@NonNull
+	private BleScanner scanner;
+	@NonNull
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	/**
+	 * The recorder of the current scan session, or null. Accessed only on the processing thread.
+	 */
+	@Nullable
+	private ScanSessionRecorder recorder;
+	/**
+	 * The replay of a recorded scan session, or null. Accessed only on the processing thread.
+	 */
+	@Nullable
+	private ScanSessionReplay replay;
+	/**
+	 * The number of replays requested that have not ended yet. The background scan is not
+	 * started while replaying, as its results would be mixed with the replayed ones.
+	 * Accessed only on the main thread.
+	 */
+	private int activeReplays;
+	/**
+	 * The buffer of the results delivered by the background scan. Accessed only on the
+	 * processing thread.
+	 */
+	@NonNull
+	private final ScanResultBuffer backgroundBuffer = new ScanResultBuffer();
+	/**
+	 * Whether the filtered list has changed during the current batch of scan results.
+	 * Accessed only on the processing thread.
+	 */
+	private boolean filteredListChanged;
+	/**
+	 * The number of scan results in the current batch, and the time when the first one was
+	 * received, from {@link System#nanoTime()}. Accessed only on the processing thread.
+	 */
+	private int batchSize;
+	private long batchStartNanos;
+	/**
+	 * The cached Location state, read by the scan callbacks.
+	 */
+	@NonNull
+	private final LocationState locationState;
+	/**
+	 * The store of recently seen and connected devices, shown before they are scanned.
+	 */
+	@NonNull
+	private final KnownDeviceStore knownDeviceStore;
+	/**
+	 * Whether the devices seen are saved in the known devices. Devices from synthetic scanners
+	 * and replayed sessions are not saved.
+	 */
+	private volatile boolean saveKnownDevices = true;
+	/**
+	 * The time the known devices were last saved, in milliseconds since boot.
+	 * Accessed only on the processing thread.
+	 */
+	private long knownDevicesSaveTime;
+	/**
+	 * The time at which the eviction timer is due, in milliseconds since boot, or -1 if it's
+	 * not scheduled. Accessed only on the processing thread.
+	 */
+	private long evictionTime = -1;
+	/**
+	 * The intent the background scan results are delivered with.
+	 */
+	@NonNull
+	private final PendingIntent backgroundScanIntent;
+
+	/**
+	 * Returns the scan session of this process, creating it if needed.
+	 *
+	 * @param context the context.
+	 * @return The scan session.
+	 */
+	@MainThread
+	@NonNull
+	public static ScanSession getInstance(@NonNull final Context context) {
+		if (instance == null)
+			instance = new ScanSession(context.getApplicationContext());
+		return instance;
+	}
+
+	private ScanSession(@NonNull final Context context) {
+		this.context = context;
+		preferences = PreferenceManager.getDefaultSharedPreferences(context);
+
+		locationState = new LocationState(context);
+		scannerStateLiveData = new ScannerStateLiveData(Utils.isBleEnabled(),
+				locationState.isLocationEnabled());
+		scanner = new CompatBleScanner(locationState);
+		processingThread = new ScanProcessingThread();
+		devicesLiveData = new DevicesLiveData(processingThread, metrics,
+				isUuidFilterEnabled(), isNearbyFilterEnabled(), getFilterExpression(), getSortOrder());
+		devicesLiveData.setDeviceTimeout(DEVICE_TIMEOUT);
+		scanScheduler = new AdaptiveScanScheduler(schedulerCallback);
+		backgroundScanIntent = PendingIntent.getBroadcast(context, REQUEST_BACKGROUND_SCAN,
+				new Intent(context, BackgroundScanReceiver.class), PendingIntent.FLAG_UPDATE_CURRENT);
+		registerBroadcastReceivers();
+
+		// Show the known devices while waiting for the first scan results.
+		knownDeviceStore = KnownDeviceStore.getInstance(context);
+		loadKnownDevices();
+	}
+
+	@NonNull
+	/* package */ DevicesLiveData getDevices() {
+		return devicesLiveData;
+	}
+
+	@NonNull
+	/* package */ ScannerStateLiveData getScannerState() {
+		return scannerStateLiveData;
+	}
+
+	@NonNull
+	/* package */ AdaptiveScanScheduler getScanScheduler() {
+		return scanScheduler;
+	}
+
+	@NonNull
+	/* package */ ScanProcessingThread getProcessingThread() {
+		return processingThread;
+	}
+
+	@NonNull
+	/* package */ SharedPreferences getPreferences() {
+		return preferences;
+	}
+
+	@NonNull
+	public ScanMetrics getMetrics() {
+		return metrics;
+	}
+
+	/* package */ boolean isUuidFilterEnabled() {
+		return preferences.getBoolean(PREFS_FILTER_UUID_REQUIRED, true);
+	}
+
+	/* package */ boolean isNearbyFilterEnabled() {
+		return preferences.getBoolean(PREFS_FILTER_NEARBY_ONLY, false);
+	}
+
+	/* package */ boolean isBackgroundScanEnabled() {
+		return preferences.getBoolean(PREFS_BACKGROUND_SCAN, false);
+	}
+
+	@Nullable
+	/* package */ FilterExpression getFilterExpression() {
+		final String text = preferences.getString(PREFS_FILTER_EXPRESSION, null);
+		if (text == null)
+			return null;
+		try {
+			return FilterExpression.parse(text);
+		} catch (final IllegalArgumentException e) {
+			Log.w(TAG, "Invalid filter expression", e);
+			return null;
+		}
+	}
+
+	@NonNull
+	/* package */ DeviceSortOrder getSortOrder() {
+		final String name = preferences.getString(PREFS_SORT_ORDER, null);
+		if (name != null) {
+			try {
+				return DeviceSortOrder.valueOf(name);
+			} catch (final IllegalArgumentException e) {
+				// Fall back to the default order.
+			}
+		}
+		return DeviceSortOrder.DISCOVERY;
+	}
+
+	/**
+	 * Starts the foreground scan. The background scan, if running, is stopped, so that only
+	 * one scanner feeds the session.
+	 */
+	/* package */ void startScan() {
+		if (scannerStateLiveData.isScanning()) {
+			return;
+		}
+
+		stopBackgroundScan();
+		scanScheduler.start();
+		scannerStateLiveData.scanningStarted();
+	}
+
+	/**
+	 * Stops the foreground scan. If the background scan is enabled, it takes over.
+	 */
+	/* package */ void stopScan() {
+		if (scannerStateLiveData.isScanning() && scannerStateLiveData.isBluetoothEnabled()) {
+			scanScheduler.stop();
+			scannerStateLiveData.scanningStopped();
+			if (activeReplays == 0 && isBackgroundScanEnabled())
+				startBackgroundScan();
+		}
+	}
+
+	/**
+	 * Enables or disables the background scan. The background scan runs only while the
+	 * foreground scan is stopped.
+	 *
+	 * @param enabled true to scan in the background.
+	 */
+	/* package */ void setBackgroundScanEnabled(final boolean enabled) {
+		preferences.edit().putBoolean(PREFS_BACKGROUND_SCAN, enabled).apply();
+		if (!enabled)
+			stopBackgroundScan();
+		else if (activeReplays == 0 && !scannerStateLiveData.isScanning() && scannerStateLiveData.isBluetoothEnabled())
+			startBackgroundScan();
+	}
+
+	/**
+	 * Starts the background scan after a replay, if it's enabled and the foreground scan
+	 * is stopped. This must be called on the main thread.
+	 */
+	private void resumeBackgroundScan() {
+		if (activeReplays == 0 && !scannerStateLiveData.isScanning()
+				&& scannerStateLiveData.isBluetoothEnabled() && isBackgroundScanEnabled())
+			startBackgroundScan();
+	}
+
+	private void startBackgroundScan() {
+		// The report delay makes the system batch the results, in the controller if supported.
+		final ScanSettings settings = new ScanSettings.Builder()
+				.setScanMode(ScanSettings.SCAN_MODE_LOW_POWER)
+				.setReportDelay(BACKGROUND_REPORT_DELAY)
+				.setUseHardwareBatchingIfSupported(true)
+				.setUseHardwareFilteringIfSupported(true)
+				.build();
+		// Only our peripherals are monitored in the background.
+		final List<ScanFilter> filters = Collections.singletonList(new ScanFilter.Builder()
+				.setServiceUuid(new ParcelUuid(BlinkyProfile.LBS_UUID_SERVICE))
+				.build());
+		try {
+			BluetoothLeScannerCompat.getScanner()
+					.startScan(filters, settings, context, backgroundScanIntent);
+		} catch (final RuntimeException e) {
+			Log.w(TAG, "Failed to start background scan", e);
+		}
+	}
+
+	private void stopBackgroundScan() {
+		// The scan may have been started before the process was restarted, so it's stopped
+		// even if this session did not start it.
+		try {
+			BluetoothLeScannerCompat.getScanner().stopScan(context, backgroundScanIntent);
+		} catch (final RuntimeException e) {
+			Log.w(TAG, "Failed to stop background scan", e);
+		}
+	}
+
+	/**
+	 * Processes a batch of results delivered by the background scan. This method is called
+	 * by the {@link BackgroundScanReceiver}. The results are processed on the processing thread,
+	 * like the results of the foreground scan.
+	 *
+	 * @param results   the scan results, or null if none were delivered.
+	 * @param errorCode the error code, or 0 if the scan has not failed.
+	 * @param onDone    called on the processing thread when the results have been processed.
+	 */
+	public void onBackgroundScanResults(@Nullable final List<ScanResult> results, final int errorCode,
+										@NonNull final Runnable onDone) {
+		if (errorCode != 0)
+			Log.w(TAG, "Background scan failed with error " + errorCode);
+		if (results == null || results.isEmpty()) {
+			onDone.run();
+			return;
+		}
+
+		locationState.onScanResultReceived();
+		processingThread.execute(() -> {
+			final long cpuStart = Debug.threadCpuTimeNanos();
+			backgroundBuffer.deliver(results, backgroundListener, SystemClock.elapsedRealtime());
+			metrics.backgroundBatchProcessed(results.size(), Debug.threadCpuTimeNanos() - cpuStart);
+			// The process may be killed soon after the delivery, so the broadcast is finished
+			// only when the devices have been written.
+			saveKnownDevices();
+			knownDeviceStore.flush(onDone);
+		});
+	}
+
+	/**
+	 * Replaces the source of scan results for the foreground scan. If scanning, the scan is
+	 * restarted with the new scanner.
+	 *
+	 * @param scanner the new scanner.
+	 */
+	/* package */ void setScanner(@NonNull final BleScanner scanner) {
+		final boolean scanning = scannerStateLiveData.isScanning();
+		scanScheduler.stop();
+		this.scanner = scanner;
+		saveKnownDevices = scanner instanceof CompatBleScanner;
+		if (scanning)
+			scanScheduler.start();
+	}
+
+	/**
+	 * Clears the list of devices. The known devices are shown again as last seen, until they
+	 * are scanned. They are restored from memory, the store is not read again.
+	 * This method may be called from any thread.
+	 */
+	/* package */ void clearDevices() {
+		processingThread.execute(() -> {
+			// Save the devices seen recently, so that they are restored.
+			saveKnownDevices();
+			devicesLiveData.clear();
+			knownDeviceStore.getKnownDevices(knownDevices -> processingThread.execute(() -> {
+				if (devicesLiveData.restoreKnownDevices(knownDevices))
+					scannerStateLiveData.recordFound();
+				else
+					scannerStateLiveData.clearRecords();
+			}));
+		});
+	}
+
+	/**
+	 * Saves the devices seen recently and writes the known devices without delay.
+	 * This method may be called from any thread.
+	 */
+	/* package */ void flushKnownDevices() {
+		processingThread.execute(() -> {
+			saveKnownDevices();
+			knownDeviceStore.flush(null);
+		});
+	}
+
+	/* package */ void startRecording(@NonNull final File file) {
+		processingThread.execute(() -> {
+			stopRecordingInternal();
+			try {
+				recorder = new ScanSessionRecorder(file);
+			} catch (final IOException e) {
+				Log.w(TAG, "Failed to start recording", e);
+			}
+		});
+	}
+
+	/* package */ void stopRecording() {
+		processingThread.execute(this::stopRecordingInternal);
+	}
+
+	private void stopRecordingInternal() {
+		if (recorder == null)
+			return;
+		try {
+			recorder.close();
+		} catch (final IOException e) {
+			Log.w(TAG, "Failed to close recording", e);
+		}
+		recorder = null;
+	}
+
+	private void record(final long key, final int rssi, final long timestampNanos,
+						@Nullable final byte[] data, final int dataLength) {
+		try {
+			recorder.record(key, rssi, timestampNanos, data, dataLength);
+		} catch (final IOException e) {
+			Log.w(TAG, "Failed to record scan result", e);
+			stopRecordingInternal();
+		}
+	}
+
+	/**
+	 * Replays a recorded scan session. The foreground and background scans are stopped
+	 * until the replay ends.
+	 */
+	/* package */ void startReplay(@NonNull final File file, final boolean realTime) {
+		activeReplays++;
+		stopScan();
+		stopBackgroundScan();
+		processingThread.execute(() -> {
+			stopReplayInternal();
+			try {
+				replay = new ScanSessionReplay(file, processingThread.getHandler(), replayListener, realTime);
+				replay.start();
+			} catch (final IOException e) {
+				Log.w(TAG, "Failed to start replay", e);
+				replayEnded();
+			}
+		});
+	}
+
+	/* package */ void stopReplay() {
+		processingThread.execute(this::stopReplayInternal);
+	}
+
+	private void stopReplayInternal() {
+		if (replay != null) {
+			replay.stop();
+			replayEnded();
+		}
+	}
+
+	/**
+	 * Called on the processing thread when a replay has ended, or failed to start. Each
+	 * replay requested with {@link #startReplay(File, boolean)} ends exactly once.
+	 */
+	private void replayEnded() {
+		replay = null;
+		mainHandler.post(() -> {
+			activeReplays--;
+			resumeBackgroundScan();
+		});
+	}
+
+	private final ScanSessionReplay.Listener replayListener = new ScanSessionReplay.Listener() {
+		@Override
+		public void onScanResult(final long key, @NonNull final BluetoothDevice device,
+								 final int rssi, final long timestampNanos,
+								 @Nullable final byte[] data, final int dataLength) {
+			onDeviceDiscovered(key, device, rssi, timestampNanos, data, dataLength);
+		}
+
+		@Override
+		public void onBatchComplete(final long now) {
+			onScanResultsProcessed(now);
+		}
+
+		@Override
+		public void onScanFailed(final int errorCode) {
+			Log.w(TAG, "Replay failed with error " + errorCode);
+			replayEnded();
+		}
+
+		@Override
+		public void onReplayFinished() {
+			replayEnded();
+		}
+	};
+
+	private final AdaptiveScanScheduler.Callback schedulerCallback = new AdaptiveScanScheduler.Callback() {
+		@Override
+		public void onStartScan(@NonNull final ScanSettings settings) {
+			// Scan results are delivered on the processing thread.
+			scanner.startScan(getScanFilters(), settings, scanListener, processingThread.getHandler());
+		}
+
+		@Override
+		public void onStopScan() {
+			scanner.stopScan(scanListener);
+		}
+	};
+
+	/**
+	 * Returns the scan filters to be used by the scanner. With the UUID filter enabled,
+	 * advertising packets without the Led-Button Service UUID are dropped by the Bluetooth
+	 * controller or the system, before they reach the app. The filter in
+	 * {@link DevicesLiveData} is still applied, in case filtering is not supported.
+	 *
+	 * @return The list of scan filters, or null to receive all packets.
+	 */
+	@Nullable
+	private List<ScanFilter> getScanFilters() {
+		if (!isUuidFilterEnabled())
+			return null;
+		return Collections.singletonList(new ScanFilter.Builder()
+				.setServiceUuid(new ParcelUuid(BlinkyProfile.LBS_UUID_SERVICE))
+				.build());
+	}
+
+	private final ScanResultListener scanListener = new ScanResultListener() {
+		@Override
+		public void onScanResult(final long key, @NonNull final BluetoothDevice device,
+								 final int rssi, final long timestampNanos,
+								 @Nullable final byte[] data, final int dataLength) {
+			if (recorder != null)
+				record(key, rssi, timestampNanos, data, dataLength);
+			onDeviceDiscovered(key, device, rssi, timestampNanos, data, dataLength);
+		}
+
+		@Override
+		public void onBatchComplete(final long now) {
+			onScanResultsProcessed(now);
+			scanScheduler.onScanResultsProcessed(devicesLiveData.getDeviceCount());
+		}
+
+		@Override
+		public void onScanFailed(final int errorCode) {
+			// TODO This should be handled
+			mainHandler.post(() -> {
+				scanScheduler.stop();
+				scannerStateLiveData.scanningStopped();
+			});
+		}
+	};
+
+	/**
+	 * The listener of the background scan results. The results are processed like the results
+	 * of the foreground scan, but the scheduler is not involved.
+	 */
+	private final ScanResultListener backgroundListener = new ScanResultListener() {
+		@Override
+		public void onScanResult(final long key, @NonNull final BluetoothDevice device,
+								 final int rssi, final long timestampNanos,
+								 @Nullable final byte[] data, final int dataLength) {
+			if (recorder != null)
+				record(key, rssi, timestampNanos, data, dataLength);
+			onDeviceDiscovered(key, device, rssi, timestampNanos, data, dataLength);
+		}
+
+		@Override
+		public void onBatchComplete(final long now) {
+			onScanResultsProcessed(now);
+		}
+
+		@Override
+		public void onScanFailed(final int errorCode) {
+			// Errors are delivered to onBackgroundScanResults.
+		}
+	};
+
+	/**
+	 * Updates the device registry with a scan result. This method is called on the processing
+	 * thread for each scan result.
+	 */
+	private void onDeviceDiscovered(final long key, @NonNull final BluetoothDevice device,
+									final int rssi, final long timestampNanos,
+									@Nullable final byte[] data, final int dataLength) {
+		if (batchSize++ == 0)
+			batchStartNanos = System.nanoTime();
+		metrics.advertReceived();
+		filteredListChanged = devicesLiveData.deviceDiscovered(key, device, rssi, timestampNanos, data, dataLength)
+				|| filteredListChanged;
+	}
+
+	/**
+	 * Removes expired devices and publishes the filtered list, if it has changed.
+	 * This method is called on the processing thread after each batch of scan results.
+	 *
+	 * @param now the current time, in milliseconds since boot.
+	 */
+	private void onScanResultsProcessed(final long now) {
+		if (batchSize == 0)
+			batchStartNanos = System.nanoTime();
+		final boolean changed = devicesLiveData.evictExpiredDevices(now) || filteredListChanged;
+		filteredListChanged = false;
+		if (changed)
+			publishDevices();
+		metrics.batchProcessed(batchSize, System.nanoTime() - batchStartNanos,
+				devicesLiveData.getDeviceCount(), now);
+		batchSize = 0;
+		scheduleEviction(now);
+
+		if (now - knownDevicesSaveTime >= KNOWN_DEVICES_SAVE_INTERVAL) {
+			knownDevicesSaveTime = now;
+			saveKnownDevices();
+		}
+	}
+
+	private void publishDevices() {
+		if (devicesLiveData.publish())
+			scannerStateLiveData.recordFound();
+		else
+			scannerStateLiveData.clearRecords();
+	}
+
+	/**
+	 * Schedules the eviction timer, so that devices expire also while no scan results arrive,
+	 * for example when the scanner is paused or stopped. The timer is due when the next
+	 * device may expire, not periodically. This must be called on the processing thread.
+	 *
+	 * @param now the current time, in milliseconds since boot.
+	 */
+	private void scheduleEviction(final long now) {
+		final long time = devicesLiveData.getNextEvictionTime();
+		if (time == evictionTime)
+			return;
+		final Handler handler = processingThread.getHandler();
+		handler.removeCallbacks(evictionTimer);
+		evictionTime = time;
+		if (time >= 0)
+			handler.postDelayed(evictionTimer, Math.max(0, time - now));
+	}
+
+	private final Runnable evictionTimer = new Runnable() {
+		@Override
+		public void run() {
+			evictionTime = -1;
+			final long now = SystemClock.elapsedRealtime();
+			if (devicesLiveData.evictExpiredDevices(now))
+				publishDevices();
+			scheduleEviction(now);
+		}
+	};
+
+	/**
+	 * Loads the known devices on the store thread and adds them to the device list.
+	 */
+	private void loadKnownDevices() {
+		knownDeviceStore.load(knownDevices -> processingThread.execute(() -> {
+			if (devicesLiveData.restoreKnownDevices(knownDevices))
+				scannerStateLiveData.recordFound();
+		}));
+	}
+
+	/**
+	 * Passes the devices seen since the last save to the known device store, which writes
+	 * them in the background. This must be called on the processing thread.
+	 */
+	private void saveKnownDevices() {
+		// The devices are collected anyway, so that they are not saved later.
+		final List<KnownDevice> seenDevices = devicesLiveData.collectKnownDevices();
+		if (saveKnownDevices && replay == null)
+			knownDeviceStore.save(seenDevices);
+	}
+
+	/**
+	 * Register for required broadcast receivers. The session lives as long as the process,
+	 * so they are never unregistered.
+	 */
+	private void registerBroadcastReceivers() {
+		context.registerReceiver(bluetoothStateBroadcastReceiver, new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED));
+		if (Utils.isMarshmallowOrAbove()) {
+			context.registerReceiver(locationProviderChangedReceiver, new IntentFilter(LocationManager.MODE_CHANGED_ACTION));
+		}
+	}
+
+	/**
+	 * Broadcast receiver to monitor the changes in the location provider.
+	 */
+	private final BroadcastReceiver locationProviderChangedReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(final Context context, final Intent intent) {
+			final boolean enabled = locationState.refreshLocationEnabled();
+			scannerStateLiveData.setLocationEnabled(enabled);
+		}
+	};
+
+	/**
+	 * Broadcast receiver to monitor the changes in the bluetooth adapter.
+	 */
+	private final BroadcastReceiver bluetoothStateBroadcastReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(final Context context, final Intent intent) {
+			final int state = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.STATE_OFF);
+			final int previousState = intent.getIntExtra(BluetoothAdapter.EXTRA_PREVIOUS_STATE, BluetoothAdapter.STATE_OFF);
+
+			switch (state) {
+				case BluetoothAdapter.STATE_ON:
+					scannerStateLiveData.bluetoothEnabled();
+					// The background scan is stopped by the system when Bluetooth is disabled.
+					if (activeReplays == 0 && !scannerStateLiveData.isScanning() && isBackgroundScanEnabled())
+						startBackgroundScan();
+					break;
+				case BluetoothAdapter.STATE_TURNING_OFF:
+				case BluetoothAdapter.STATE_OFF:
+					if (previousState != BluetoothAdapter.STATE_TURNING_OFF && previousState != BluetoothAdapter.STATE_OFF) {
+						if (scannerStateLiveData.isScanning()) {
+							scanScheduler.stop();
+							scannerStateLiveData.scanningStopped();
+						}
+						scannerStateLiveData.bluetoothDisabled();
+						// The session outlives the screens, so the devices are cleared here
+						// even if no scanner is shown.
+						clearDevices();
+					}
+					break;
+			}
+		}
+	};
+}
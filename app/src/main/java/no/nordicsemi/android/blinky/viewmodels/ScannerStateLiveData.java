@@ -30,7 +30,11 @@ import androidx.lifecycle.LiveData;
 @SuppressWarnings("unused")
 public class ScannerStateLiveData extends LiveData<ScannerStateLiveData> {
 	private boolean scanningStarted;
-	private boolean hasRecords;
+	/**
+	 * Written only on the {@link ScanProcessingThread}, together with the device list, and
+	 * read on the main thread.
+	 */
+	private volatile boolean hasRecords;
 	private boolean bluetoothEnabled;
 	private boolean locationEnabled;
 
@@ -61,9 +65,8 @@ public class ScannerStateLiveData extends LiveData<ScannerStateLiveData> {
 		postValue(this);
 	}
 
-	/* package */ synchronized void bluetoothDisabled() {
+	/* package */ void bluetoothDisabled() {
 		bluetoothEnabled = false;
-		hasRecords = false;
 		postValue(this);
 	}
 
@@ -72,9 +75,16 @@ public class ScannerStateLiveData extends LiveData<ScannerStateLiveData> {
 		postValue(this);
 	}
 
+	/**
+	 * Notifies the observers that records matching the filter were found.
+	 * This method must be called on the {@link ScanProcessingThread}.
+	 */
 	/* package */ void recordFound() {
-		hasRecords = true;
-		postValue(this);
+		// Notify the observers only when the state changes, not for every scan batch.
+		if (!hasRecords) {
+			hasRecords = true;
+			postValue(this);
+		}
 	}
 
 	/**
@@ -106,10 +116,14 @@ public class ScannerStateLiveData extends LiveData<ScannerStateLiveData> {
 	}
 
 	/**
-	 * Notifies the observer that scanner has no records to show.
+	 * Notifies the observer that scanner has no records to show. The observers are notified
+	 * only when the state changes.
+	 * This method must be called on the {@link ScanProcessingThread}.
 	 */
 	public void clearRecords() {
-		hasRecords = false;
-		postValue(this);
+		if (hasRecords) {
+			hasRecords = false;
+			postValue(this);
+		}
 	}
 }
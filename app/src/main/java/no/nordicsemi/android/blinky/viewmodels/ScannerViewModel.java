@@ -23,30 +23,29 @@
 package no.nordicsemi.android.blinky.viewmodels;
 
 import android.app.Application;
-import android.bluetooth.BluetoothAdapter;
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.SharedPreferences;
-import android.location.LocationManager;
-import android.preference.PreferenceManager;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.lifecycle.AndroidViewModel;
 
-import java.util.List;
+import java.io.File;
 
-import no.nordicsemi.android.blinky.utils.Utils;
-import no.nordicsemi.android.support.v18.scanner.BluetoothLeScannerCompat;
-import no.nordicsemi.android.support.v18.scanner.ScanCallback;
-import no.nordicsemi.android.support.v18.scanner.ScanResult;
-import no.nordicsemi.android.support.v18.scanner.ScanSettings;
+import no.nordicsemi.android.blinky.filter.FilterExpression;
+import no.nordicsemi.android.blinky.scanner.BleScanner;
+import no.nordicsemi.android.blinky.scanner.ScanSessionRecorder;
+import no.nordicsemi.android.blinky.scanner.ScanSessionReplay;
 
+/**
+ * The view model of the scanner screen. The scan pipeline is owned by the process-wide
+ * {@link ScanSession}, which is shared with the background scan, so that the device list
+ * survives the activity and only one scan runs at a time.
+ */
 public class ScannerViewModel extends AndroidViewModel {
-	private static final String PREFS_FILTER_UUID_REQUIRED = "filter_uuid";
-	private static final String PREFS_FILTER_NEARBY_ONLY = "filter_nearby";
-
+	/**
+	 * The scan session shared with the background scan.
+	 */
+	private final ScanSession session;
 	/**
 	 * MutableLiveData containing the list of devices.
 	 */
@@ -55,46 +54,99 @@ public class ScannerViewModel extends AndroidViewModel {
 	 * MutableLiveData containing the scanner state.
 	 */
 	private final ScannerStateLiveData scannerStateLiveData;
-
+	/**
+	 * The thread on which scan results are processed.
+	 */
+	private final ScanProcessingThread processingThread;
+	/**
+	 * The scheduler adjusting the scan settings at runtime.
+	 */
+	private final AdaptiveScanScheduler scanScheduler;
 	private final SharedPreferences preferences;
+	/**
+	 * The current search query, kept so that it can be restored in a new activity.
+	 */
+	@Nullable
+	private String searchQuery;
 
 	public DevicesLiveData getDevices() {
 		return devicesLiveData;
 	}
 
+	/**
+	 * Clears the list of devices. The known devices are shown again as last seen, until they
+	 * are scanned.
+	 */
+	public void clearDevices() {
+		session.clearDevices();
+	}
+
 	public ScannerStateLiveData getScannerState() {
 		return scannerStateLiveData;
 	}
 
-	public ScannerViewModel(final Application application) {
-		super(application);
-		preferences = PreferenceManager.getDefaultSharedPreferences(application);
+	public AdaptiveScanScheduler getScanScheduler() {
+		return scanScheduler;
+	}
+
+	public ScanMetrics getMetrics() {
+		return session.getMetrics();
+	}
 
-		final boolean filterUuidRequired = isUuidFilterEnabled();
-		final boolean filerNearbyOnly = isNearbyFilterEnabled();
+	/**
+	 * Clears the scan metrics.
+	 */
+	public void resetMetrics() {
+		processingThread.execute(session.getMetrics()::reset);
+	}
 
-		scannerStateLiveData = new ScannerStateLiveData(Utils.isBleEnabled(),
-				Utils.isLocationEnabled(application));
-		devicesLiveData = new DevicesLiveData(filterUuidRequired, filerNearbyOnly);
-		registerBroadcastReceivers(application);
+	public ScannerViewModel(final Application application) {
+		super(application);
+		session = ScanSession.getInstance(application);
+		preferences = session.getPreferences();
+		devicesLiveData = session.getDevices();
+		scannerStateLiveData = session.getScannerState();
+		processingThread = session.getProcessingThread();
+		scanScheduler = session.getScanScheduler();
 	}
 
 	@Override
 	protected void onCleared() {
 		super.onCleared();
-		getApplication().unregisterReceiver(bluetoothStateBroadcastReceiver);
-
-		if (Utils.isMarshmallowOrAbove()) {
-			getApplication().unregisterReceiver(locationProviderChangedReceiver);
-		}
+		// The session outlives the view model. If enabled, the background scan takes over.
+		session.stopScan();
+		session.stopReplay();
+		session.stopRecording();
+		session.flushKnownDevices();
+		// The search is not restored in a new activity.
+		processingThread.execute(() -> devicesLiveData.search(null));
 	}
 
 	public boolean isUuidFilterEnabled() {
-		return preferences.getBoolean(PREFS_FILTER_UUID_REQUIRED, true);
+		return session.isUuidFilterEnabled();
 	}
 
 	public boolean isNearbyFilterEnabled() {
-		return preferences.getBoolean(PREFS_FILTER_NEARBY_ONLY, false);
+		return session.isNearbyFilterEnabled();
+	}
+
+	/**
+	 * Returns whether the Led-Button devices are monitored while the scanner screen
+	 * is not visible.
+	 */
+	public boolean isBackgroundScanEnabled() {
+		return session.isBackgroundScanEnabled();
+	}
+
+	/**
+	 * Enables or disables the background scan. The background scan is handed over to the
+	 * system, which delivers the results in batches, and runs only while this screen is not
+	 * scanning. On Android 10+ it requires the background location permission.
+	 *
+	 * @param enabled true to monitor the devices in the background.
+	 */
+	public void setBackgroundScanEnabled(final boolean enabled) {
+		session.setBackgroundScanEnabled(enabled);
 	}
 
 	/**
@@ -103,6 +155,7 @@ public class ScannerViewModel extends AndroidViewModel {
 	 * {@link no.nordicsemi.android.blinky.ScannerActivity} will try to start scanning.
 	 */
 	public void refresh() {
+		scanScheduler.boost();
 		scannerStateLiveData.refresh();
 	}
 
@@ -115,140 +168,188 @@ public class ScannerViewModel extends AndroidViewModel {
 	 *                     in the advertising packet.
 	 */
 	public void filterByUuid(final boolean uuidRequired) {
-		preferences.edit().putBoolean(PREFS_FILTER_UUID_REQUIRED, uuidRequired).apply();
-		if (devicesLiveData.filterByUuid(uuidRequired))
-			scannerStateLiveData.recordFound();
-		else
-			scannerStateLiveData.clearRecords();
+		preferences.edit().putBoolean(ScanSession.PREFS_FILTER_UUID_REQUIRED, uuidRequired).apply();
+		// Restart the scanner, so that the scan filter is added or removed. If the policy
+		// changes, the scanner has already been restarted with the new filter.
+		if (!scanScheduler.boost())
+			scanScheduler.restart();
+		processingThread.execute(() -> {
+			if (devicesLiveData.filterByUuid(uuidRequired))
+				scannerStateLiveData.recordFound();
+			else
+				scannerStateLiveData.clearRecords();
+		});
 	}
 
 	/**
-	 * Updates the device filter. Devices that once passed the filter will still be shown
-	 * even if they move away from the phone, or change the advertising packet. This is to
-	 * avoid removing devices from the list.
+	 * Updates the device filter. The filter uses the smoothed RSSI with a hysteresis margin,
+	 * so devices near the threshold do not keep appearing and disappearing from the list.
 	 *
 	 * @param nearbyOnly if true, the list will show only devices with high RSSI.
 	 */
 	public void filterByDistance(final boolean nearbyOnly) {
-		preferences.edit().putBoolean(PREFS_FILTER_NEARBY_ONLY, nearbyOnly).apply();
-		if (devicesLiveData.filterByDistance(nearbyOnly))
-			scannerStateLiveData.recordFound();
-		else
-			scannerStateLiveData.clearRecords();
+		preferences.edit().putBoolean(ScanSession.PREFS_FILTER_NEARBY_ONLY, nearbyOnly).apply();
+		scanScheduler.boost();
+		processingThread.execute(() -> {
+			if (devicesLiveData.filterByDistance(nearbyOnly))
+				scannerStateLiveData.recordFound();
+			else
+				scannerStateLiveData.clearRecords();
+		});
 	}
 
 	/**
-	 * Start scanning for Bluetooth devices.
+	 * Returns the custom filter expression saved in the preferences.
+	 *
+	 * @return The filter expression, or null if not set.
 	 */
-	public void startScan() {
-		if (scannerStateLiveData.isScanning()) {
-			return;
-		}
+	@Nullable
+	public FilterExpression getFilterExpression() {
+		return session.getFilterExpression();
+	}
+
+	/**
+	 * Updates the custom device filter, for example on name prefix, manufacturer data, RSSI
+	 * range or address lists. The expression is combined with the UUID and the distance filters.
+	 * Only the predicates that were not part of the previous filter are evaluated for the
+	 * known devices.
+	 *
+	 * @param expression the filter expression, or null to remove the custom filter.
+	 */
+	public void filterByExpression(@Nullable final FilterExpression expression) {
+		preferences.edit().putString(ScanSession.PREFS_FILTER_EXPRESSION,
+				expression != null ? expression.toString() : null).apply();
+		scanScheduler.boost();
+		processingThread.execute(() -> {
+			if (devicesLiveData.filterByExpression(expression))
+				scannerStateLiveData.recordFound();
+			else
+				scannerStateLiveData.clearRecords();
+		});
+	}
 
-		// Scanning settings
-		final ScanSettings settings = new ScanSettings.Builder()
-				.setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
-				.setReportDelay(500)
-				.setUseHardwareBatchingIfSupported(false)
-				.build();
+	/**
+	 * Returns the current search query, or null if the device list is not searched.
+	 */
+	@Nullable
+	public String getSearchQuery() {
+		return searchQuery;
+	}
 
-		final BluetoothLeScannerCompat scanner = BluetoothLeScannerCompat.getScanner();
-		scanner.startScan(null, settings, scanCallback);
-		scannerStateLiveData.scanningStarted();
+	/**
+	 * Shows only devices with the name or the address starting with the query. The search is
+	 * combined with the other filters and is not saved in the preferences.
+	 *
+	 * @param query the text to search for, or null or empty to show all devices.
+	 */
+	public void search(@Nullable final String query) {
+		searchQuery = query;
+		processingThread.execute(() -> {
+			if (devicesLiveData.search(query))
+				scannerStateLiveData.recordFound();
+			else
+				scannerStateLiveData.clearRecords();
+		});
 	}
 
 	/**
-	 * Stop scanning for bluetooth devices.
+	 * Returns the order of the device list saved in the preferences.
+	 */
+	@NonNull
+	public DeviceSortOrder getSortOrder() {
+		return session.getSortOrder();
+	}
+
+	/**
+	 * Changes the order of the device list. The order is kept up to date while the devices
+	 * are updated, and changes are shown as moves in the list.
+	 *
+	 * @param order the new order.
+	 */
+	public void sortBy(@NonNull final DeviceSortOrder order) {
+		preferences.edit().putString(ScanSession.PREFS_SORT_ORDER, order.name()).apply();
+		processingThread.execute(() -> {
+			if (devicesLiveData.sortBy(order))
+				scannerStateLiveData.recordFound();
+			else
+				scannerStateLiveData.clearRecords();
+		});
+	}
+
+	/**
+	 * Enables or disables the background inventory mode. In this mode the scanner uses
+	 * hardware batching, if the controller supports it, and delivers results only every few
+	 * seconds, which reduces CPU wake-ups during long unattended sweeps.
+	 *
+	 * @param enabled           true to enable the inventory mode.
+	 * @param reportDelayMillis the report delay, in milliseconds.
+	 */
+	public void setInventoryMode(final boolean enabled, final long reportDelayMillis) {
+		scanScheduler.setInventoryMode(enabled, reportDelayMillis);
+	}
+
+	/**
+	 * Replaces the source of scan results. By default the Bluetooth LE scanner is used.
+	 * If scanning, the scan is restarted with the new scanner.
+	 *
+	 * @param scanner the new scanner, for example a
+	 *                {@link no.nordicsemi.android.blinky.scanner.SyntheticBleScanner}.
+	 */
+	public void setScanner(@NonNull final BleScanner scanner) {
+		session.setScanner(scanner);
+	}
+
+	/**
+	 * Start scanning for Bluetooth devices. The scan settings are adjusted by the
+	 * {@link AdaptiveScanScheduler} while scanning. The background scan, if enabled,
+	 * is stopped while scanning.
+	 */
+	public void startScan() {
+		session.startScan();
+	}
+
+	/**
+	 * Stop scanning for bluetooth devices. If enabled, the background scan is started.
 	 */
 	public void stopScan() {
-		if (scannerStateLiveData.isScanning() && scannerStateLiveData.isBluetoothEnabled()) {
-			final BluetoothLeScannerCompat scanner = BluetoothLeScannerCompat.getScanner();
-			scanner.stopScan(scanCallback);
-			scannerStateLiveData.scanningStopped();
-		}
+		session.stopScan();
+	}
+
+	/**
+	 * Starts recording the scan results to the given file. If the file already contains
+	 * a recording, the results are appended to it. Replayed results are not recorded.
+	 *
+	 * @param file the file to record to.
+	 * @see ScanSessionRecorder
+	 */
+	public void startRecording(@NonNull final File file) {
+		session.startRecording(file);
 	}
 
-	private final ScanCallback scanCallback = new ScanCallback() {
-		@Override
-		public void onScanResult(final int callbackType, @NonNull final ScanResult result) {
-			// This callback will be called only if the scan report delay is not set or is set to 0.
+	/**
+	 * Stops recording the scan results and closes the file.
+	 */
+	public void stopRecording() {
+		session.stopRecording();
+	}
 
-			// If the packet has been obtained while Location was disabled, mark Location as not required
-			if (Utils.isLocationRequired(getApplication()) && !Utils.isLocationEnabled(getApplication()))
-				Utils.markLocationNotRequired(getApplication());
+	/**
+	 * Stops scanning and replays the scan session recorded to the given file. The results
+	 * go through the same processing as the results from the scanner.
+	 *
+	 * @param file     the file recorded with {@link #startRecording(File)}.
+	 * @param realTime true to replay the results at the recorded pace, false to replay them
+	 *                 as fast as possible.
+	 * @see ScanSessionReplay
+	 */
+	public void startReplay(@NonNull final File file, final boolean realTime) {
+		session.startReplay(file, realTime);
+	}
 
-			if (devicesLiveData.deviceDiscovered(result)) {
-				devicesLiveData.applyFilter();
-				scannerStateLiveData.recordFound();
-			}
-		}
-
-		@Override
-		public void onBatchScanResults(@NonNull final List<ScanResult> results) {
-			// This callback will be called only if the report delay set above is greater then 0.
-
-			// If the packet has been obtained while Location was disabled, mark Location as not required
-			if (Utils.isLocationRequired(getApplication()) && !Utils.isLocationEnabled(getApplication()))
-				Utils.markLocationNotRequired(getApplication());
-
-			boolean atLeastOneMatchedFilter = false;
-			for (final ScanResult result : results)
-				atLeastOneMatchedFilter = devicesLiveData.deviceDiscovered(result) || atLeastOneMatchedFilter;
-			if (atLeastOneMatchedFilter) {
-				devicesLiveData.applyFilter();
-				scannerStateLiveData.recordFound();
-			}
-		}
-
-		@Override
-		public void onScanFailed(final int errorCode) {
-			// TODO This should be handled
-			scannerStateLiveData.scanningStopped();
-		}
-	};
-
-	/**
-	 * Register for required broadcast receivers.
-	 */
-	private void registerBroadcastReceivers(@NonNull final Application application) {
-		application.registerReceiver(bluetoothStateBroadcastReceiver, new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED));
-		if (Utils.isMarshmallowOrAbove()) {
-			application.registerReceiver(locationProviderChangedReceiver, new IntentFilter(LocationManager.MODE_CHANGED_ACTION));
-		}
-	}
-
-	/**
-	 * Broadcast receiver to monitor the changes in the location provider.
-	 */
-	private final BroadcastReceiver locationProviderChangedReceiver = new BroadcastReceiver() {
-		@Override
-		public void onReceive(final Context context, final Intent intent) {
-			final boolean enabled = Utils.isLocationEnabled(context);
-			scannerStateLiveData.setLocationEnabled(enabled);
-		}
-	};
-
-	/**
-	 * Broadcast receiver to monitor the changes in the bluetooth adapter.
-	 */
-	private final BroadcastReceiver bluetoothStateBroadcastReceiver = new BroadcastReceiver() {
-		@Override
-		public void onReceive(final Context context, final Intent intent) {
-			final int state = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.STATE_OFF);
-			final int previousState = intent.getIntExtra(BluetoothAdapter.EXTRA_PREVIOUS_STATE, BluetoothAdapter.STATE_OFF);
-
-			switch (state) {
-				case BluetoothAdapter.STATE_ON:
-					scannerStateLiveData.bluetoothEnabled();
-					break;
-				case BluetoothAdapter.STATE_TURNING_OFF:
-				case BluetoothAdapter.STATE_OFF:
-					if (previousState != BluetoothAdapter.STATE_TURNING_OFF && previousState != BluetoothAdapter.STATE_OFF) {
-						stopScan();
-						scannerStateLiveData.bluetoothDisabled();
-					}
-					break;
-			}
-		}
-	};
+	/**
+	 * Stops the replay started with {@link #startReplay(File, boolean)}.
+	 */
+	public void stopReplay() {
+		session.stopReplay();
+	}
 }
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.viewmodels;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+import no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice;
+import no.nordicsemi.android.blinky.utils.LongHashMap;
+
+/**
+ * The filtered device list, kept in the chosen {@link DeviceSortOrder}.
+ * <p>
+ * The list is an ordered index of entries holding the sort key of each device, as it was when
+ * the device was positioned. After a device has been updated, {@link #update(DiscoveredBluetoothDevice)}
+ * compares its current sort key with the indexed one and repositions the device only if the key
+ * has changed, in O(log n). The whole list is sorted only when the order changes.
+ * <p>
+ * The smoothed RSSI is indexed with 1 dB resolution, so that small fluctuations do not move
+ * devices around. Likewise, the last-seen time is indexed with 1 second resolution, so that
+ * a device is repositioned at most once per second, not on every advertising packet.
+ * Devices with equal sort keys are kept in the discovery order, see
+ * {@link DiscoveredBluetoothDevice#getDiscoverySequence()}, so a device that stops and starts
+ * matching the filter returns to the same position.
+ * <p>
+ * This class is not thread safe.
+ */
+/* package */ final class SortedDeviceList implements Iterable<DiscoveredBluetoothDevice> {
+	private static final long LAST_SEEN_RESOLUTION = 1000; // [ms]
+
+	private static final class Entry {
+		@NonNull
+		private final DiscoveredBluetoothDevice device;
+		/** The discovery order of the device, used when sort keys are equal. */
+		private final long sequence;
+		/** The numeric sort key: the rounded RSSI or the last-seen time in seconds. */
+		private long key;
+		/** The name sort key. */
+		@Nullable
+		private String name;
+
+		private Entry(@NonNull final DiscoveredBluetoothDevice device) {
+			this.device = device;
+			this.sequence = device.getDiscoverySequence();
+		}
+	}
+
+	/** The entries, keyed by the packed device address. */
+	@NonNull
+	private final LongHashMap<Entry> entries = new LongHashMap<>();
+	@NonNull
+	private TreeSet<Entry> sorted;
+	@NonNull
+	private DeviceSortOrder order;
+
+	/* package */ SortedDeviceList(@NonNull final DeviceSortOrder order) {
+		this.order = order;
+		this.sorted = new TreeSet<>(comparatorFor(order));
+	}
+
+	@NonNull
+	/* package */ DeviceSortOrder getOrder() {
+		return order;
+	}
+
+	/**
+	 * Changes the order and sorts the whole list.
+	 *
+	 * @param order the new order.
+	 * @return True, if the order has changed.
+	 */
+	/* package */ boolean setOrder(@NonNull final DeviceSortOrder order) {
+		if (this.order == order)
+			return false;
+		this.order = order;
+		final TreeSet<Entry> resorted = new TreeSet<>(comparatorFor(order));
+		for (final Entry entry : sorted) {
+			index(entry);
+			resorted.add(entry);
+		}
+		sorted = resorted;
+		return true;
+	}
+
+	/* package */ int size() {
+		return sorted.size();
+	}
+
+	/* package */ boolean isEmpty() {
+		return sorted.isEmpty();
+	}
+
+	/* package */ boolean contains(@NonNull final DiscoveredBluetoothDevice device) {
+		return entries.containsKey(device.getKey());
+	}
+
+	/**
+	 * Adds the device to the list, if it's not there yet.
+	 *
+	 * @param device the device.
+	 * @return True, if the device has been added.
+	 */
+	/* package */ boolean add(@NonNull final DiscoveredBluetoothDevice device) {
+		if (entries.containsKey(device.getKey()))
+			return false;
+		final Entry entry = new Entry(device);
+		index(entry);
+		entries.put(device.getKey(), entry);
+		sorted.add(entry);
+		return true;
+	}
+
+	/**
+	 * Removes the device from the list.
+	 *
+	 * @param device the device.
+	 * @return True, if the device was on the list.
+	 */
+	/* package */ boolean remove(@NonNull final DiscoveredBluetoothDevice device) {
+		final Entry entry = entries.remove(device.getKey());
+		if (entry == null)
+			return false;
+		sorted.remove(entry);
+		return true;
+	}
+
+	/**
+	 * Repositions the device after it has been updated, if its sort key has changed.
+	 *
+	 * @param device the updated device.
+	 * @return True, if the device has been moved.
+	 */
+	/* package */ boolean update(@NonNull final DiscoveredBluetoothDevice device) {
+		final Entry entry = entries.get(device.getKey());
+		if (entry == null || !hasKeyChanged(entry))
+			return false;
+		// The entry must be removed using the old key.
+		sorted.remove(entry);
+		index(entry);
+		sorted.add(entry);
+		return true;
+	}
+
+	/* package */ void clear() {
+		entries.clear();
+		sorted.clear();
+	}
+
+	@NonNull
+	@Override
+	public Iterator<DiscoveredBluetoothDevice> iterator() {
+		final Iterator<Entry> iterator = sorted.iterator();
+		return new Iterator<DiscoveredBluetoothDevice>() {
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public DiscoveredBluetoothDevice next() {
+				return iterator.next().device;
+			}
+		};
+	}
+
+	private boolean hasKeyChanged(@NonNull final Entry entry) {
+		switch (order) {
+			case RSSI:
+				return entry.key != Math.round(entry.device.getSmoothedRssi());
+			case NAME:
+				return !isSameName(entry.name, entry.device.getName());
+			case LAST_SEEN:
+				return entry.key != entry.device.getLastSeenTime() / LAST_SEEN_RESOLUTION;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Stores the current sort key of the device in the entry.
+	 */
+	private void index(@NonNull final Entry entry) {
+		switch (order) {
+			case RSSI:
+				entry.key = Math.round(entry.device.getSmoothedRssi());
+				entry.name = null;
+				break;
+			case NAME:
+				entry.key = 0;
+				entry.name = entry.device.getName();
+				break;
+			case LAST_SEEN:
+				entry.key = entry.device.getLastSeenTime() / LAST_SEEN_RESOLUTION;
+				entry.name = null;
+				break;
+			default:
+				entry.key = 0;
+				entry.name = null;
+				break;
+		}
+	}
+
+	@NonNull
+	private static Comparator<Entry> comparatorFor(@NonNull final DeviceSortOrder order) {
+		switch (order) {
+			case RSSI:
+			case LAST_SEEN:
+				// Descending: the strongest or the most recent first.
+				return (a, b) -> {
+					final int result = Long.compare(b.key, a.key);
+					return result != 0 ? result : Long.compare(a.sequence, b.sequence);
+				};
+			case NAME:
+				return (a, b) -> {
+					final int result = compareNames(a.name, b.name);
+					return result != 0 ? result : Long.compare(a.sequence, b.sequence);
+				};
+			default:
+				return (a, b) -> Long.compare(a.sequence, b.sequence);
+		}
+	}
+
+	private static int compareNames(@Nullable final String a, @Nullable final String b) {
+		if (a == null)
+			return b == null ? 0 : 1;
+		if (b == null)
+			return -1;
+		return a.compareToIgnoreCase(b);
+	}
+
+	private static boolean isSameName(@Nullable final String a, @Nullable final String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
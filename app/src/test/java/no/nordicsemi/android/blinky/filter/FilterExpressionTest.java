@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.filter;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+public class FilterExpressionTest {
+
+	@Test
+	public void toString_roundTrip() {
+		// The textual form is what is saved in the preferences.
+		final FilterExpression expression = FilterExpression.and(
+				FilterExpression.or(FilterPredicate.namePrefix("Nordic"), FilterPredicate.manufacturerId(0x0059)),
+				FilterPredicate.rssiRange(-70, 0),
+				FilterExpression.not(FilterPredicate.address("C0:FF:EE:C0:FF:EE")),
+				FilterPredicate.manufacturerData(2, new byte[] { 0x01, (byte) 0xAB }, new byte[] { (byte) 0xFF, 0x0F }),
+				FilterPredicate.lbsService(),
+				FilterPredicate.nearby());
+		final String text = expression.toString();
+		assertEquals("and(or(name(\"Nordic\"), manufacturer(0x0059)), rssi(-70, 0), "
+				+ "not(address(\"C0:FF:EE:C0:FF:EE\")), data(2, \"01AB\", \"FF0F\"), lbs(), nearby())", text);
+		assertEquals(expression, FilterExpression.parse(text));
+		assertEquals(text, FilterExpression.parse(text).toString());
+	}
+
+	@Test
+	public void parse_whitespaceAndNumbers() {
+		final FilterExpression expression = FilterExpression.parse(
+				"  or ( manufacturer( 89 ) ,rssi(-0x50,-20) , data(0, \"c0ffee\") )  ");
+		assertEquals("or(manufacturer(0x0059), rssi(-80, -20), data(0, \"C0FFEE\"))", expression.toString());
+	}
+
+	@Test
+	public void parse_escapedName() {
+		final FilterExpression expression = FilterPredicate.namePrefix("a\"b\\c");
+		assertEquals("name(\"a\\\"b\\\\c\")", expression.toString());
+		assertEquals(expression, FilterExpression.parse(expression.toString()));
+	}
+
+	@Test
+	public void parse_emptyComposites() {
+		assertEquals(FilterExpression.and(), FilterExpression.parse("and()"));
+		assertEquals(FilterExpression.or(), FilterExpression.parse("or()"));
+	}
+
+	@Test
+	public void parse_nested() {
+		final FilterExpression expression = FilterExpression.parse("not(and(lbs(), not(or(nearby(), name(\"x\")))))");
+		assertEquals(FilterExpression.not(FilterExpression.and(FilterPredicate.lbsService(),
+				FilterExpression.not(FilterExpression.or(FilterPredicate.nearby(), FilterPredicate.namePrefix("x"))))),
+				expression);
+	}
+
+	@Test
+	public void equals_comparesOperatorAndOrder() {
+		final FilterExpression a = FilterPredicate.lbsService();
+		final FilterExpression b = FilterPredicate.nearby();
+		assertNotEquals(FilterExpression.and(a, b), FilterExpression.or(a, b));
+		assertNotEquals(FilterExpression.and(a, b), FilterExpression.and(b, a));
+		assertEquals(FilterPredicate.address("00:00:00:00:00:02", "00:00:00:00:00:01"),
+				FilterPredicate.address("00:00:00:00:00:01", "00:00:00:00:00:02"));
+	}
+
+	@Test
+	public void parse_malformed() {
+		assertInvalid("");
+		assertInvalid("lbs");
+		assertInvalid("lbs(");
+		assertInvalid("lbs() lbs()");
+		assertInvalid("and(lbs(),)");
+		assertInvalid("and(lbs() nearby())");
+		assertInvalid("unknown()");
+		assertInvalid("not()");
+		assertInvalid("not(lbs(), nearby())");
+		assertInvalid("name(Nordic)");
+		assertInvalid("name(\"Nordic)");
+		assertInvalid("manufacturer(0xZZ)");
+		assertInvalid("manufacturer()");
+		assertInvalid("rssi(-70)");
+		assertInvalid("rssi(0, -70)");
+		assertInvalid("data(0, \"ABC\")");
+		assertInvalid("data(0, \"XY\")");
+		assertInvalid("data(-1, \"AB\")");
+		assertInvalid("data(0, \"ABCD\", \"FF\")");
+	}
+
+	private static void assertInvalid(@NonNull final String text) {
+		try {
+			FilterExpression.parse(text);
+			fail("Parsed invalid filter: " + text);
+		} catch (final IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+}
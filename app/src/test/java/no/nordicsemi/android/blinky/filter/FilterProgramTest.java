@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.filter;
+
+import android.bluetooth.BluetoothAdapter;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Evaluates compiled programs for all combinations of the predicate results. The predicates
+ * are numbered in the order of their first occurrence in the expression.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class FilterProgramTest {
+	private static final FilterPredicate A = FilterPredicate.namePrefix("A");
+	private static final FilterPredicate B = FilterPredicate.namePrefix("B");
+	private static final FilterPredicate C = FilterPredicate.namePrefix("C");
+
+	/** The expected result of an expression of predicates A, B and C. */
+	private interface Expected {
+		boolean test(boolean a, boolean b, boolean c);
+	}
+
+	@Test
+	public void execute_and() {
+		assertProgram(FilterExpression.and(A, B, C), (a, b, c) -> a && b && c);
+	}
+
+	@Test
+	public void execute_or() {
+		assertProgram(FilterExpression.or(A, B, C), (a, b, c) -> a || b || c);
+	}
+
+	@Test
+	public void execute_not() {
+		assertProgram(FilterExpression.and(FilterExpression.not(A), B, C), (a, b, c) -> !a && b && c);
+		assertProgram(FilterExpression.not(FilterExpression.or(A, B, C)), (a, b, c) -> !(a || b || c));
+	}
+
+	@Test
+	public void execute_nesting() {
+		assertProgram(FilterExpression.or(FilterExpression.and(A, B), C), (a, b, c) -> a && b || c);
+		assertProgram(FilterExpression.and(A, FilterExpression.or(B, C)), (a, b, c) -> a && (b || c));
+		assertProgram(FilterExpression.or(A, FilterExpression.and(B, FilterExpression.not(C))),
+				(a, b, c) -> a || b && !c);
+		assertProgram(FilterExpression.and(FilterExpression.or(A, B), FilterExpression.not(FilterExpression.and(B, C))),
+				(a, b, c) -> (a || b) && !(b && c));
+	}
+
+	@Test
+	public void execute_repeatedPredicate() {
+		final FilterProgram program = FilterProgram.compile(FilterExpression.or(
+				FilterExpression.and(A, FilterExpression.not(A)), FilterExpression.and(A, B)));
+		assertEquals(2, program.getPredicateCount());
+		assertFalse(program.execute(0b01));
+		assertFalse(program.execute(0b10));
+		assertTrue(program.execute(0b11));
+	}
+
+	@Test
+	public void execute_constants() {
+		assertTrue(FilterProgram.MATCH_ALL.execute(0));
+		assertTrue(FilterProgram.compile(FilterExpression.and()).execute(0));
+		assertFalse(FilterProgram.compile(FilterExpression.or()).execute(0));
+		assertTrue(FilterProgram.compile(FilterExpression.and(FilterExpression.and(), A)).execute(1));
+		assertFalse(FilterProgram.compile(FilterExpression.or(FilterExpression.or(), A)).execute(0));
+	}
+
+	@Test
+	public void compile_tooManyPredicates() {
+		final FilterExpression[] operands = new FilterExpression[FilterProgram.MAX_PREDICATES + 1];
+		for (int i = 0; i < operands.length; ++i)
+			operands[i] = FilterPredicate.manufacturerId(i);
+		FilterProgram.compile(FilterExpression.or(Arrays.copyOf(operands, FilterProgram.MAX_PREDICATES)));
+		try {
+			FilterProgram.compile(FilterExpression.or(operands));
+			fail("Compiled a filter with too many predicates");
+		} catch (final IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void compile_nestedTooDeep() {
+		FilterExpression expression = A;
+		for (int i = 0; i < 64; ++i)
+			expression = FilterExpression.and(A, expression);
+		try {
+			FilterProgram.compile(expression);
+			fail("Compiled a filter nested too deep");
+		} catch (final IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void migrateResults_reusesCachedResults() {
+		final DiscoveredBluetoothDevice device = device("Blinky");
+		final FilterProgram previous = FilterProgram.compile(FilterExpression.and(A, B));
+		final FilterProgram program = FilterProgram.compile(
+				FilterExpression.or(B, FilterPredicate.namePrefix("Blin"), A));
+		final int[] mapping = program.mapPredicates(previous);
+		assertArrayEquals(new int[] { 1, -1, 0 }, mapping);
+
+		// The cached results are used even if they don't match the device,
+		// only the new predicate is evaluated.
+		assertEquals(0b110, program.migrateResults(mapping, 0b01, device));
+		assertEquals(0b011, program.migrateResults(mapping, 0b10, device));
+		assertEquals(program.evaluatePredicates(device), program.migrateResults(mapping,
+				previous.evaluatePredicates(device), device));
+	}
+
+	private static void assertProgram(@NonNull final FilterExpression expression,
+									  @NonNull final Expected expected) {
+		final FilterProgram program = FilterProgram.compile(expression);
+		assertEquals(3, program.getPredicateCount());
+		for (int results = 0; results < 8; ++results) {
+			final boolean a = (results & 0b001) != 0;
+			final boolean b = (results & 0b010) != 0;
+			final boolean c = (results & 0b100) != 0;
+			assertEquals(expression + " for " + Integer.toBinaryString(results),
+					expected.test(a, b, c), program.execute(results));
+		}
+	}
+
+	@NonNull
+	private static DiscoveredBluetoothDevice device(@NonNull final String name) {
+		final String address = "C0:FF:EE:C0:FF:EE";
+		return new DiscoveredBluetoothDevice(BluetoothAdapter.getDefaultAdapter().getRemoteDevice(address),
+				DiscoveredBluetoothDevice.toKey(address), name, -60, false, 0);
+	}
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.scanner;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KnownDeviceStoreTest {
+	private static final long KEY_1 = 0xC0FFEE123456L;
+	private static final long KEY_2 = 0x0000000000FFL;
+	private static final long KEY_3 = 0xFFFFFFFFFFFFL;
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("known_devices", null);
+	}
+
+	@After
+	public void tearDown() {
+		//noinspection ResultOfMethodCallIgnored
+		file.delete();
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		final List<KnownDevice> devices = Arrays.asList(
+				new KnownDevice(KEY_1, "Nordic_Blinky", -62, true, 1591000000000L, 0),
+				new KnownDevice(KEY_2, null, -127, false, 1590000000000L, 1590000500000L),
+				new KnownDevice(KEY_3, "Łódź ✓", 20, false, 1589000000000L, 0));
+		KnownDeviceStore.write(file, devices);
+
+		final List<KnownDevice> result = KnownDeviceStore.read(file);
+		assertEquals(devices.size(), result.size());
+		for (int i = 0; i < devices.size(); ++i)
+			assertDeviceEquals(devices.get(i), result.get(i));
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+	}
+
+	@Test
+	public void roundTrip_unknownRssi() throws IOException {
+		KnownDeviceStore.write(file, Collections.singletonList(
+				new KnownDevice(KEY_1, "Connected", KnownDevice.RSSI_UNKNOWN, false, 1591000000000L, 1591000000000L)));
+
+		final List<KnownDevice> result = KnownDeviceStore.read(file);
+		assertEquals(1, result.size());
+		assertEquals(KnownDevice.RSSI_UNKNOWN, result.get(0).getRssi());
+	}
+
+	@Test
+	public void roundTrip_empty() throws IOException {
+		KnownDeviceStore.write(file, Collections.emptyList());
+
+		assertEquals(10, file.length());
+		assertTrue(KnownDeviceStore.read(file).isEmpty());
+	}
+
+	@Test
+	public void roundTrip_tooLongName() throws IOException {
+		final char[] name = new char[249];
+		Arrays.fill(name, 'a');
+		KnownDeviceStore.write(file, Collections.singletonList(
+				new KnownDevice(KEY_1, new String(name), -70, false, 1591000000000L, 0)));
+
+		final List<KnownDevice> result = KnownDeviceStore.read(file);
+		assertEquals(1, result.size());
+		assertNull(result.get(0).getName());
+	}
+
+	@Test
+	public void format() throws IOException {
+		KnownDeviceStore.write(file, Collections.singletonList(
+				new KnownDevice(KEY_1, "AB", -62, true, 0x0102030405060708L, 0)));
+
+		final byte[] expected = bytes(
+				"42 4C 4B 44 00 01 00 00 00 01 " // "BLKD", version 1, 1 record
+						+ "C0 FF EE 12 34 56 C2 01 " // address, RSSI -62, LBS flag
+						+ "01 02 03 04 05 06 07 08 00 00 00 00 00 00 00 00 " // times
+						+ "02 41 42"); // name
+		final byte[] actual = new byte[(int) file.length()];
+		try (final RandomAccessFile input = new RandomAccessFile(file, "r")) {
+			input.readFully(actual);
+		}
+		assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+	}
+
+	@Test
+	public void read_truncatedRecord() throws IOException {
+		writeDevices(3);
+		truncate(file.length() - 1);
+
+		assertReadFails();
+	}
+
+	@Test
+	public void read_truncatedHeader() throws IOException {
+		writeDevices(1);
+		truncate(6);
+
+		assertReadFails();
+	}
+
+	@Test
+	public void read_invalidMagic() throws IOException {
+		writeDevices(1);
+		overwrite(0, (byte) 0);
+
+		assertReadFails();
+	}
+
+	@Test
+	public void read_unsupportedVersion() throws IOException {
+		writeDevices(1);
+		overwrite(5, (byte) 2);
+
+		try {
+			KnownDeviceStore.read(file);
+			fail("IOException expected");
+		} catch (final IOException e) {
+			assertEquals("Unsupported version: 2", e.getMessage());
+		}
+	}
+
+	@Test
+	public void read_invalidRecordCount() throws IOException {
+		writeDevices(1);
+		// The file claims more records than it contains.
+		overwrite(9, (byte) 2);
+
+		assertReadFails();
+	}
+
+	@Test
+	public void read_invalidNameLength() throws IOException {
+		writeDevices(1);
+		// The name length of the only record exceeds the end of the file.
+		overwrite(10 + 24, (byte) 200);
+
+		assertReadFails();
+	}
+
+	@Test
+	public void write_replacesFile() throws IOException {
+		writeDevices(3);
+		writeDevices(1);
+
+		assertEquals(1, KnownDeviceStore.read(file).size());
+	}
+
+	private void writeDevices(final int count) throws IOException {
+		final List<KnownDevice> devices = new ArrayList<>(count);
+		for (int i = 0; i < count; ++i)
+			devices.add(new KnownDevice(KEY_1 + i, "Device " + i, -60 - i, false, 1591000000000L - i, 0));
+		KnownDeviceStore.write(file, devices);
+	}
+
+	private void truncate(final long length) throws IOException {
+		try (final RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+			output.setLength(length);
+		}
+	}
+
+	private void overwrite(final long position, final byte value) throws IOException {
+		try (final RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+			output.seek(position);
+			output.write(value);
+		}
+	}
+
+	private void assertReadFails() {
+		try {
+			KnownDeviceStore.read(file);
+			fail("IOException expected");
+		} catch (final IOException e) {
+			// Expected.
+		}
+	}
+
+	private static void assertDeviceEquals(@NonNull final KnownDevice expected, @NonNull final KnownDevice actual) {
+		assertEquals(expected.getKey(), actual.getKey());
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getRssi(), actual.getRssi());
+		assertEquals(expected.isLbsServiceAdvertised(), actual.isLbsServiceAdvertised());
+		assertEquals(expected.getLastSeenTime(), actual.getLastSeenTime());
+		assertEquals(expected.getLastConnectedTime(), actual.getLastConnectedTime());
+	}
+
+	@NonNull
+	private static byte[] bytes(@NonNull final String hex) {
+		final String[] values = hex.trim().split(" +");
+		final byte[] result = new byte[values.length];
+		for (int i = 0; i < values.length; ++i)
+			result[i] = (byte) Integer.parseInt(values[i], 16);
+		return result;
+	}
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.utils;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AdvertisingDataParserTest {
+	private static final UUID LBS_UUID_SERVICE = UUID.fromString("00001523-1212-efde-1523-785feabcd123");
+
+	/**
+	 * nRF Blinky: flags and the complete local name in the advertising packet, the Led-Button
+	 * Service UUID in the scan response. The system concatenates both and pads them to 62 bytes.
+	 */
+	private static final byte[] BLINKY = packet(
+			"02 01 06 0E 09 4E 6F 72 64 69 63 5F 42 6C 69 6E 6B 79 "
+			+ "11 07 23 D1 BC EA 5F 78 23 15 DE EF 12 12 23 15 00 00");
+	/** iBeacon: manufacturer specific data of Apple, with the beacon UUID, major, minor and TX power. */
+	private static final byte[] IBEACON = packet(
+			"02 01 06 1A FF 4C 00 02 15 E2 C5 6D B5 DF FB 48 D2 B0 60 D0 F5 A7 10 96 E0 00 01 00 02 C5");
+	/** Eddystone-URL: 16-bit UUID 0xFEAA and the service data with https://google.com. */
+	private static final byte[] EDDYSTONE_URL = packet(
+			"02 01 06 03 03 AA FE 0D 16 AA FE 10 EB 03 67 6F 6F 67 6C 65 07");
+	/** A heart rate sensor: Heart Rate and Battery services, TX power and the local name. */
+	private static final byte[] HEART_RATE_SENSOR = packet(
+			"02 01 06 05 03 0D 18 0F 18 02 0A F4 09 09 50 6F 6C 61 72 20 48 37");
+
+	@Test
+	public void parse_blinky() {
+		final AdvertisingDataParser parser = new AdvertisingDataParser();
+		assertTrue(parser.parse(BLINKY));
+
+		assertEquals(0x06, parser.getFlags());
+		assertEquals("Nordic_Blinky", parser.getLocalName());
+		assertTrue(parser.isLocalNameEqualTo("Nordic_Blinky"));
+		assertFalse(parser.isLocalNameEqualTo("Nordic_Blinkz"));
+		assertFalse(parser.isLocalNameEqualTo(null));
+		assertTrue(parser.containsServiceUuid(LBS_UUID_SERVICE));
+		// The LBS UUID is not based on the Bluetooth Base UUID.
+		assertFalse(parser.containsServiceUuid16(0x1523));
+		assertEquals(AdvertisingDataParser.NOT_PRESENT, parser.getManufacturerId());
+		assertEquals(AdvertisingDataParser.NOT_PRESENT, parser.getManufacturerDataLength());
+		assertEquals(AdvertisingDataParser.TX_POWER_NOT_PRESENT, parser.getTxPowerLevel());
+	}
+
+	@Test
+	public void parse_iBeacon() {
+		final AdvertisingDataParser parser = new AdvertisingDataParser();
+		assertTrue(parser.parse(IBEACON));
+
+		assertEquals(0x004C, parser.getManufacturerId());
+		assertEquals(23, parser.getManufacturerDataLength());
+		assertEquals(7, parser.getManufacturerDataOffset());
+		// Beacon type and length follow the Company Identifier.
+		assertEquals(0x02, IBEACON[parser.getManufacturerDataOffset()]);
+		assertEquals(0x15, IBEACON[parser.getManufacturerDataOffset() + 1]);
+		assertNull(parser.getLocalName());
+		assertTrue(parser.isLocalNameEqualTo(null));
+		assertFalse(parser.containsServiceUuid(LBS_UUID_SERVICE));
+	}
+
+	@Test
+	public void parse_eddystone() {
+		final AdvertisingDataParser parser = new AdvertisingDataParser();
+		assertTrue(parser.parse(EDDYSTONE_URL));
+
+		assertTrue(parser.containsServiceUuid16(0xFEAA));
+		// The UUID in the service data is not a service UUID list.
+		assertFalse(parser.containsServiceUuid16(0x10EB));
+		assertEquals(AdvertisingDataParser.NOT_PRESENT, parser.getManufacturerId());
+	}
+
+	@Test
+	public void parse_heartRateSensor() {
+		final AdvertisingDataParser parser = new AdvertisingDataParser();
+		assertTrue(parser.parse(HEART_RATE_SENSOR));
+
+		assertTrue(parser.containsServiceUuid16(0x180D));
+		assertTrue(parser.containsServiceUuid16(0x180F));
+		assertFalse(parser.containsServiceUuid16(0x1810));
+		assertTrue(parser.containsServiceUuid(UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb")));
+		assertEquals(-12, parser.getTxPowerLevel());
+		assertEquals("Polar H7", parser.getLocalName());
+	}
+
+	@Test
+	public void parse_uuid32List() {
+		final AdvertisingDataParser parser = new AdvertisingDataParser();
+		assertTrue(parser.parse(bytes("02 01 06 09 05 0D 18 00 00 78 56 34 12")));
+
+		assertTrue(parser.containsServiceUuid16(0x180D));
+		assertTrue(parser.containsServiceUuid(UUID.fromString("12345678-0000-1000-8000-00805f9b34fb")));
+		assertFalse(parser.containsServiceUuid16(0x5678));
+		assertFalse(parser.containsServiceUuid16(0x1234));
+	}
+
+	@Test
+	public void parse_uuid128List() {
+		final AdvertisingDataParser parser = new AdvertisingDataParser();
+		// The Heart Rate service UUID in the 128-bit form, followed by the LBS UUID.
+		assertTrue(parser.parse(bytes("21 06 FB 34 9B 5F 80 00 00 80 00 10 00 00 0D 18 00 00 "
+				+ "23 D1 BC EA 5F 78 23 15 DE EF 12 12 23 15 00 00")));
+
+		assertTrue(parser.containsServiceUuid16(0x180D));
+		assertTrue(parser.containsServiceUuid(LBS_UUID_SERVICE));
+		assertFalse(parser.containsServiceUuid16(0x180F));
+	}
+
+	@Test
+	public void parse_uuidListWithIncompleteEntry() {
+		final AdvertisingDataParser parser = new AdvertisingDataParser();
+		// A 16-bit UUID list with 3 bytes: the last, incomplete UUID is ignored.
+		assertTrue(parser.parse(bytes("04 03 0D 18 0F")));
+
+		assertTrue(parser.containsServiceUuid16(0x180D));
+		assertFalse(parser.containsServiceUuid16(0x000F));
+		assertEquals(1, parser.getServiceUuidCount());
+	}
+
+	@Test
+	public void getServiceUuid_allLists() {
+		final AdvertisingDataParser parser = new AdvertisingDataParser();
+		assertTrue(parser.parse(bytes("05 03 0D 18 0F 18 05 05 78 56 34 12 "
+				+ "11 07 23 D1 BC EA 5F 78 23 15 DE EF 12 12 23 15 00 00")));
+
+		assertEquals(4, parser.getServiceUuidCount());
+		assertEquals(UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb"), parser.getServiceUuid(0));
+		assertEquals(UUID.fromString("0000180f-0000-1000-8000-00805f9b34fb"), parser.getServiceUuid(1));
+		assertEquals(UUID.fromString("12345678-0000-1000-8000-00805f9b34fb"), parser.getServiceUuid(2));
+		assertEquals(LBS_UUID_SERVICE, parser.getServiceUuid(3));
+	}
+
+	@Test
+	public void getServiceUuid_indexOutOfRange() {
+		final AdvertisingDataParser parser = new AdvertisingDataParser();
+		assertTrue(parser.parse(HEART_RATE_SENSOR));
+
+		try {
+			parser.getServiceUuid(2);
+			fail("IndexOutOfBoundsException expected");
+		} catch (final IndexOutOfBoundsException e) {
+			assertEquals("Index: 2, count: 2", e.getMessage());
+		}
+	}
+
+	@Test
+	public void getServiceUuid_manyUuids() {
+		// More UUIDs than the initial capacity of the parser.
+		final StringBuilder hex = new StringBuilder("15 03");
+		for (int i = 0; i < 10; ++i)
+			hex.append(" 0").append(i).append(" 18");
+		final AdvertisingDataParser parser = new AdvertisingDataParser();
+		assertTrue(parser.parse(bytes(hex.toString())));
+
+		assertEquals(10, parser.getServiceUuidCount());
+		for (int i = 0; i < 10; ++i)
+			assertEquals(new UUID(((0x1800L + i) << 32) | 0x1000L, 0x800000805F9B34FBL), parser.getServiceUuid(i));
+	}
+
+	@Test
+	public void parse_truncatedField() {
+		final AdvertisingDataParser parser = new AdvertisingDataParser();
+		// The name field claims 5 bytes, but only 3 follow.
+		assertFalse(parser.parse(bytes("02 01 06 05 09 41 42")));
+
+		// The valid part is still available.
+		assertEquals(0x06, parser.getFlags());
+		assertNull(parser.getLocalName());
+		assertFalse(parser.containsServiceUuid16(0x4241));
+	}
+
+	@Test
+	public void parse_truncatedLengthByte() {
+		final AdvertisingDataParser parser = new AdvertisingDataParser();
+		// The last byte is a length without the type.
+		assertFalse(parser.parse(bytes("02 01 06 03")));
+
+		assertEquals(0x06, parser.getFlags());
+		assertFalse(parser.containsServiceUuid16(0x180D));
+	}
+
+	@Test
+	public void parse_zeroLengthStructure() {
+		final AdvertisingDataParser parser = new AdvertisingDataParser();
+		// A zero length marks the end of the significant part, the rest is ignored.
+		assertTrue(parser.parse(bytes("02 01 06 00 05 09 41 42 43 44")));
+
+		assertEquals(0x06, parser.getFlags());
+		assertNull(parser.getLocalName());
+	}
+
+	@Test
+	public void parse_manufacturerDataShorterThanCompanyId() {
+		final AdvertisingDataParser parser = new AdvertisingDataParser();
+		assertTrue(parser.parse(bytes("02 01 06 02 FF 59")));
+
+		assertEquals(AdvertisingDataParser.NOT_PRESENT, parser.getManufacturerId());
+		assertEquals(AdvertisingDataParser.NOT_PRESENT, parser.getManufacturerDataOffset());
+		assertEquals(AdvertisingDataParser.NOT_PRESENT, parser.getManufacturerDataLength());
+
+		// An empty block is ignored as well.
+		assertTrue(parser.parse(bytes("01 FF")));
+		assertEquals(AdvertisingDataParser.NOT_PRESENT, parser.getManufacturerId());
+	}
+
+	@Test
+	public void parse_manufacturerDataAfterInvalidBlock() {
+		final AdvertisingDataParser parser = new AdvertisingDataParser();
+		// The first, too short block is skipped and the next one is used.
+		assertTrue(parser.parse(bytes("02 FF 59 05 FF 59 00 01 02")));
+
+		assertEquals(0x0059, parser.getManufacturerId());
+		assertEquals(2, parser.getManufacturerDataLength());
+		assertEquals(7, parser.getManufacturerDataOffset());
+	}
+
+	@Test
+	public void parse_completeNameTakesPrecedence() {
+		final AdvertisingDataParser parser = new AdvertisingDataParser();
+		assertTrue(parser.parse(bytes("05 08 4E 6F 72 64 07 09 4E 6F 72 64 69 63")));
+		assertEquals("Nordic", parser.getLocalName());
+
+		assertTrue(parser.parse(bytes("07 09 4E 6F 72 64 69 63 05 08 4E 6F 72 64")));
+		assertEquals("Nordic", parser.getLocalName());
+
+		assertTrue(parser.parse(bytes("05 08 4E 6F 72 64")));
+		assertEquals("Nord", parser.getLocalName());
+	}
+
+	@Test
+	public void parse_nonAsciiName() {
+		final AdvertisingDataParser parser = new AdvertisingDataParser();
+		// "Lampa Łódź" in UTF-8.
+		assertTrue(parser.parse(bytes("0E 09 4C 61 6D 70 61 20 C5 81 C3 B3 64 C5 BA")));
+
+		assertEquals("Lampa Łódź", parser.getLocalName());
+		assertTrue(parser.isLocalNameEqualTo("Lampa Łódź"));
+		assertFalse(parser.isLocalNameEqualTo("Lampa Lodz"));
+	}
+
+	@Test
+	public void parse_null() {
+		final AdvertisingDataParser parser = new AdvertisingDataParser();
+		assertFalse(parser.parse(null));
+
+		assertNull(parser.getData());
+		assertEquals(AdvertisingDataParser.NOT_PRESENT, parser.getFlags());
+		assertNull(parser.getLocalName());
+		assertFalse(parser.containsServiceUuid(LBS_UUID_SERVICE));
+	}
+
+	@Test
+	public void parse_dataLength() {
+		final AdvertisingDataParser parser = new AdvertisingDataParser();
+		// Only the flags are within the given length.
+		assertTrue(parser.parse(BLINKY, 3));
+
+		assertEquals(0x06, parser.getFlags());
+		assertNull(parser.getLocalName());
+		assertFalse(parser.containsServiceUuid(LBS_UUID_SERVICE));
+	}
+
+	@Test
+	public void parse_reusedParserIsReset() {
+		final AdvertisingDataParser parser = new AdvertisingDataParser();
+		assertTrue(parser.parse(HEART_RATE_SENSOR));
+		assertTrue(parser.parse(IBEACON));
+
+		assertSame(IBEACON, parser.getData());
+		assertNull(parser.getLocalName());
+		assertEquals(AdvertisingDataParser.TX_POWER_NOT_PRESENT, parser.getTxPowerLevel());
+		assertFalse(parser.containsServiceUuid16(0x180D));
+		assertEquals(0, parser.getServiceUuidCount());
+	}
+
+	@Test
+	public void parse_doesNotModifyData() {
+		final byte[] copy = BLINKY.clone();
+		final AdvertisingDataParser parser = new AdvertisingDataParser();
+		assertTrue(parser.parse(copy));
+		assertTrue(parser.containsServiceUuid(LBS_UUID_SERVICE));
+
+		assertArrayEquals(BLINKY, copy);
+	}
+
+	/**
+	 * Returns the advertising data padded with zeros to 62 bytes, as returned by
+	 * {@code ScanRecord#getBytes()} for legacy advertising.
+	 */
+	@NonNull
+	private static byte[] packet(@NonNull final String hex) {
+		final byte[] data = bytes(hex);
+		final byte[] packet = new byte[62];
+		System.arraycopy(data, 0, packet, 0, data.length);
+		return packet;
+	}
+
+	@NonNull
+	private static byte[] bytes(@NonNull final String hex) {
+		final String[] values = hex.trim().split(" +");
+		final byte[] bytes = new byte[values.length];
+		for (int i = 0; i < values.length; ++i)
+			bytes[i] = (byte) Integer.parseInt(values[i], 16);
+		return bytes;
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.viewmodels;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.Observer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import no.nordicsemi.android.blinky.adapter.DeviceSnapshot;
+import no.nordicsemi.android.blinky.scanner.DeviceRegistry;
+import no.nordicsemi.android.blinky.scanner.ScanResultListener;
+import no.nordicsemi.android.blinky.scanner.SyntheticBleScanner;
+import no.nordicsemi.android.support.v18.scanner.ScanSettings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Drives a population of synthetic devices through {@link DevicesLiveData}. The scan results
+ * and the commands of the {@link ScanProcessingThread} are executed on the main looper, which
+ * is advanced by the test, so the test thread takes the role of the processing thread.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class DevicesLiveDataLoadTest {
+	private static final int DEVICE_COUNT = 5000;
+
+	private DevicesLiveData devicesLiveData;
+	private SyntheticBleScanner scanner;
+	private List<DeviceSnapshot> published;
+	private int batchCount;
+
+	private final Observer<List<DeviceSnapshot>> observer = devices -> published = devices;
+
+	private final ScanResultListener listener = new ScanResultListener() {
+		@Override
+		public void onScanResult(final long key, @NonNull final BluetoothDevice device,
+								 final int rssi, final long timestampNanos,
+								 @Nullable final byte[] data, final int dataLength) {
+			devicesLiveData.deviceDiscovered(key, device, rssi, timestampNanos, data, dataLength);
+		}
+
+		@Override
+		public void onBatchComplete(final long now) {
+			devicesLiveData.evictExpiredDevices(now);
+			devicesLiveData.publish();
+			batchCount++;
+		}
+
+		@Override
+		public void onScanFailed(final int errorCode) {
+			throw new AssertionError("Scan failed with error " + errorCode);
+		}
+	};
+
+	@Before
+	public void setUp() {
+		final ScanProcessingThread processingThread = new ScanProcessingThread(Looper.getMainLooper());
+		devicesLiveData = new DevicesLiveData(processingThread, new ScanMetrics(),
+				false, false, null, DeviceSortOrder.DISCOVERY);
+		devicesLiveData.observeForever(observer);
+		scanner = new SyntheticBleScanner.Builder()
+				.setDeviceCount(DEVICE_COUNT)
+				.setAdvertisingInterval(100, 1000)
+				.setNameChurnProbability(0.01f)
+				.setSeed(1)
+				.build();
+	}
+
+	@After
+	public void tearDown() {
+		scanner.stopScan(listener);
+		devicesLiveData.removeObserver(observer);
+		DeviceRegistry.getInstance().clear();
+	}
+
+	@Test
+	public void allDevicesDiscovered() {
+		scan(2000);
+
+		assertTrue(batchCount > 0);
+		assertEquals(DEVICE_COUNT, devicesLiveData.getDeviceCount());
+		assertEquals(DEVICE_COUNT, DeviceRegistry.getInstance().size());
+		assertNotNull(published);
+		assertEquals(DEVICE_COUNT, published.size());
+		final Set<Long> keys = new HashSet<>();
+		for (final DeviceSnapshot snapshot : published)
+			assertTrue(keys.add(snapshot.getDevice().getKey()));
+	}
+
+	@Test
+	public void uuidFilter() {
+		devicesLiveData.filterByUuid(true);
+		scan(2000);
+
+		assertEquals(DEVICE_COUNT, devicesLiveData.getDeviceCount());
+		assertNotNull(published);
+		assertTrue(published.size() > 0);
+		assertTrue(published.size() < DEVICE_COUNT);
+		for (final DeviceSnapshot snapshot : published)
+			assertTrue(snapshot.getDevice().isLbsServiceAdvertised());
+
+		// The cached predicate results are used when the filter is removed.
+		devicesLiveData.filterByUuid(false);
+		idle(100);
+		assertEquals(DEVICE_COUNT, published.size());
+	}
+
+	@Test
+	public void search() {
+		scan(2000);
+		// The synthetic names are "SYN", the device number in hex and the name generation.
+		devicesLiveData.search("syn00a");
+		idle(100);
+
+		assertNotNull(published);
+		assertEquals(16, published.size());
+		for (final DeviceSnapshot snapshot : published)
+			assertTrue(snapshot.getName().startsWith("SYN00A"));
+	}
+
+	@Test
+	public void devicesExpire() {
+		devicesLiveData.setDeviceTimeout(3000);
+		scan(2000);
+		assertEquals(DEVICE_COUNT, devicesLiveData.getDeviceCount());
+
+		// No packets are received after the scan has stopped.
+		scanner.stopScan(listener);
+		idle(5000);
+		devicesLiveData.evictExpiredDevices(SystemClock.elapsedRealtime());
+		devicesLiveData.publish();
+		idle(100);
+
+		assertEquals(0, devicesLiveData.getDeviceCount());
+		assertEquals(0, DeviceRegistry.getInstance().size());
+		assertNotNull(published);
+		assertTrue(published.isEmpty());
+	}
+
+	/**
+	 * Scans for the given time, and lets the last list be published.
+	 */
+	private void scan(final long millis) {
+		final ScanSettings settings = new ScanSettings.Builder()
+				.setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
+				.setReportDelay(100)
+				.build();
+		scanner.startScan(null, settings, listener, new Handler(Looper.getMainLooper()));
+		idle(millis);
+	}
+
+	private static void idle(final long millis) {
+		shadowOf(Looper.getMainLooper()).idleFor(millis, TimeUnit.MILLISECONDS);
+	}
+}
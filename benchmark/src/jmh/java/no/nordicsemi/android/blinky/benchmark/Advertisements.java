@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.benchmark;
+
+import androidx.annotation.NonNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.UUID;
+
+import no.nordicsemi.android.blinky.profile.BlinkyProfile;
+
+/**
+ * A deterministic population of advertising packets, similar to the ones generated by
+ * {@code SyntheticBleScanner} in the app.
+ */
+public final class Advertisements {
+	public static final UUID LBS_UUID_SERVICE = BlinkyProfile.LBS_UUID_SERVICE;
+	/** The part of devices advertising the Led-Button Service UUID. */
+	private static final float LBS_SERVICE_RATIO = 0.1f;
+
+	public final long[] keys;
+	public final String[] names;
+	public final byte[][] packets;
+
+	public Advertisements(final int deviceCount, final long seed) {
+		final Random random = new Random(seed);
+		keys = new long[deviceCount];
+		names = new String[deviceCount];
+		packets = new byte[deviceCount][];
+		for (int i = 0; i < deviceCount; ++i) {
+			keys[i] = 0xC00000000000L | (random.nextLong() & 0x3FFFFFFF0000L) | i;
+			names[i] = String.format("SYN%04X0", i & 0xFFFF);
+			packets[i] = createPacket(names[i], random.nextFloat() < LBS_SERVICE_RATIO);
+		}
+	}
+
+	/**
+	 * Creates a packet with flags, the complete local name and optionally the Led-Button
+	 * Service UUID, padded with zeros to 62 bytes, as returned by the system.
+	 */
+	@NonNull
+	private static byte[] createPacket(@NonNull final String name, final boolean lbsService) {
+		final byte[] packet = new byte[62];
+		int offset = 0;
+		packet[offset++] = 2;
+		packet[offset++] = 0x01; // Flags
+		packet[offset++] = 0x06;
+
+		final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		packet[offset++] = (byte) (nameBytes.length + 1);
+		packet[offset++] = 0x09; // Complete Local Name
+		System.arraycopy(nameBytes, 0, packet, offset, nameBytes.length);
+		offset += nameBytes.length;
+
+		if (lbsService) {
+			packet[offset++] = 17;
+			packet[offset++] = 0x07; // Complete List of 128-bit Service UUIDs
+			final long lsb = LBS_UUID_SERVICE.getLeastSignificantBits();
+			final long msb = LBS_UUID_SERVICE.getMostSignificantBits();
+			for (int i = 0; i < 8; ++i) {
+				packet[offset + i] = (byte) (lsb >>> (8 * i));
+				packet[offset + 8 + i] = (byte) (msb >>> (8 * i));
+			}
+		}
+		return packet;
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import no.nordicsemi.android.blinky.utils.AdvertisingDataParser;
+
+/**
+ * Measures parsing of a batch of advertising packets, as done for each scan result in
+ * {@code DiscoveredBluetoothDevice.update}: the packet is parsed, the name is compared with
+ * the known one and the Led-Button Service UUID is looked up. The score is in batches per
+ * second, the allocation rate should be 0 bytes per batch.
+ */
+@State(Scope.Thread)
+public class AdvertisingDataParserBenchmark {
+	@Param({"10", "100", "1000", "10000"})
+	public int deviceCount;
+
+	@Param({"1", "32", "256"})
+	public int batchSize;
+
+	private final AdvertisingDataParser parser = new AdvertisingDataParser();
+	private Advertisements advertisements;
+	private long lbsMsb;
+	private long lbsLsb;
+	private int cursor;
+
+	@Setup
+	public void setUp() {
+		advertisements = new Advertisements(deviceCount, 1);
+		lbsMsb = Advertisements.LBS_UUID_SERVICE.getMostSignificantBits();
+		lbsLsb = Advertisements.LBS_UUID_SERVICE.getLeastSignificantBits();
+	}
+
+	@Benchmark
+	public void parseBatch(final Blackhole blackhole) {
+		for (int i = 0; i < batchSize; ++i) {
+			final int index = next();
+			parser.parse(advertisements.packets[index]);
+			blackhole.consume(parser.isLocalNameEqualTo(advertisements.names[index]));
+			blackhole.consume(parser.containsServiceUuid(lbsMsb, lbsLsb));
+			blackhole.consume(parser.getManufacturerId());
+		}
+	}
+
+	private int next() {
+		final int index = cursor;
+		cursor = index + 1 == deviceCount ? 0 : index + 1;
+		return index;
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.benchmark;
+
+import android.bluetooth.BluetoothAdapter;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import no.nordicsemi.android.blinky.adapter.DeviceDiffCallback;
+import no.nordicsemi.android.blinky.adapter.DeviceSnapshot;
+import no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice;
+import no.nordicsemi.android.blinky.utils.AdvertisingDataParser;
+
+/**
+ * Measures diffing two published lists with {@link DeviceDiffCallback}, as done by the
+ * adapter's list differ for each list delivered to the main thread. Between two lists,
+ * a batch of devices is updated, so their snapshots are replaced. The score is in diffs
+ * per second and includes updating the devices and creating the new list.
+ */
+@State(Scope.Thread)
+public class DeviceDiffBenchmark {
+	@Param({"10", "100", "1000", "10000"})
+	public int deviceCount;
+
+	@Param({"1", "32", "256"})
+	public int batchSize;
+
+	private final AdvertisingDataParser parser = new AdvertisingDataParser();
+	private final DeviceDiffCallback diffCallback = new DeviceDiffCallback();
+	private final CountingUpdateCallback updateCallback = new CountingUpdateCallback();
+	private Advertisements advertisements;
+	private DiscoveredBluetoothDevice[] devices;
+	private List<DeviceSnapshot> oldList;
+	private long timestampNanos = 1000000000L;
+	private int cursor;
+	private int round;
+
+	@Setup
+	public void setUp() {
+		advertisements = new Advertisements(deviceCount, 1);
+		devices = new DiscoveredBluetoothDevice[deviceCount];
+		final BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+		for (int i = 0; i < deviceCount; ++i) {
+			final long key = advertisements.keys[i];
+			devices[i] = new DiscoveredBluetoothDevice(
+					adapter.getRemoteDevice(DiscoveredBluetoothDevice.toAddress(key)), key);
+			update(i);
+		}
+		oldList = snapshots();
+	}
+
+	@Benchmark
+	public int diff() {
+		for (int i = 0; i < batchSize; ++i)
+			update(next());
+		final List<DeviceSnapshot> newList = snapshots();
+		DiffUtil.calculateDiff(new ListCallback(oldList, newList)).dispatchUpdatesTo(updateCallback);
+		oldList = newList;
+		return updateCallback.count;
+	}
+
+	private void update(final int index) {
+		final byte[] packet = advertisements.packets[index];
+		devices[index].update(-40 - ((index * 7 + round * 13) & 63), timestampNanos += 1000000L,
+				packet, packet.length, parser);
+	}
+
+	@NonNull
+	private List<DeviceSnapshot> snapshots() {
+		final List<DeviceSnapshot> list = new ArrayList<>(deviceCount);
+		for (final DiscoveredBluetoothDevice device : devices)
+			list.add(device.getSnapshot());
+		return list;
+	}
+
+	private int next() {
+		final int index = cursor;
+		if (index + 1 == deviceCount) {
+			cursor = 0;
+			round++;
+		} else {
+			cursor = index + 1;
+		}
+		return index;
+	}
+
+	/**
+	 * Compares two lists using the item callback, like the list differ of the adapter.
+	 */
+	private final class ListCallback extends DiffUtil.Callback {
+		private final List<DeviceSnapshot> oldList;
+		private final List<DeviceSnapshot> newList;
+
+		private ListCallback(@NonNull final List<DeviceSnapshot> oldList,
+							 @NonNull final List<DeviceSnapshot> newList) {
+			this.oldList = oldList;
+			this.newList = newList;
+		}
+
+		@Override
+		public int getOldListSize() {
+			return oldList.size();
+		}
+
+		@Override
+		public int getNewListSize() {
+			return newList.size();
+		}
+
+		@Override
+		public boolean areItemsTheSame(final int oldItemPosition, final int newItemPosition) {
+			return diffCallback.areItemsTheSame(oldList.get(oldItemPosition), newList.get(newItemPosition));
+		}
+
+		@Override
+		public boolean areContentsTheSame(final int oldItemPosition, final int newItemPosition) {
+			return diffCallback.areContentsTheSame(oldList.get(oldItemPosition), newList.get(newItemPosition));
+		}
+
+		@Nullable
+		@Override
+		public Object getChangePayload(final int oldItemPosition, final int newItemPosition) {
+			return diffCallback.getChangePayload(oldList.get(oldItemPosition), newList.get(newItemPosition));
+		}
+	}
+
+	/**
+	 * Counts the changes, so that dispatching them is not eliminated.
+	 */
+	private static final class CountingUpdateCallback implements ListUpdateCallback {
+		private int count;
+
+		@Override
+		public void onInserted(final int position, final int count) {
+			this.count += count;
+		}
+
+		@Override
+		public void onRemoved(final int position, final int count) {
+			this.count += count;
+		}
+
+		@Override
+		public void onMoved(final int fromPosition, final int toPosition) {
+			this.count++;
+		}
+
+		@Override
+		public void onChanged(final int position, final int count, @Nullable final Object payload) {
+			this.count += count;
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.benchmark;
+
+import android.bluetooth.BluetoothAdapter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice;
+import no.nordicsemi.android.blinky.utils.AdvertisingDataParser;
+
+/**
+ * Measures {@link DiscoveredBluetoothDevice#update(int, long, byte[], int, AdvertisingDataParser)}:
+ * parsing the advertising data, smoothing the RSSI and updating the name and the cached
+ * snapshot. The score is in batches per second.
+ */
+@State(Scope.Thread)
+public class DeviceUpdateBenchmark {
+	@Param({"10", "100", "1000", "10000"})
+	public int deviceCount;
+
+	@Param({"1", "32", "256"})
+	public int batchSize;
+
+	private final AdvertisingDataParser parser = new AdvertisingDataParser();
+	private Advertisements advertisements;
+	private DiscoveredBluetoothDevice[] devices;
+	private long timestampNanos = 1000000000L;
+	private int cursor;
+	private int round;
+
+	@Setup
+	public void setUp() {
+		advertisements = new Advertisements(deviceCount, 1);
+		devices = new DiscoveredBluetoothDevice[deviceCount];
+		final BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+		for (int i = 0; i < deviceCount; ++i) {
+			final long key = advertisements.keys[i];
+			devices[i] = new DiscoveredBluetoothDevice(
+					adapter.getRemoteDevice(DiscoveredBluetoothDevice.toAddress(key)), key);
+		}
+	}
+
+	@Benchmark
+	public void updateBatch(final Blackhole blackhole) {
+		for (int i = 0; i < batchSize; ++i) {
+			final int index = next();
+			final byte[] packet = advertisements.packets[index];
+			devices[index].update(-40 - ((index * 7 + round * 13) & 63), timestampNanos += 1000000L,
+					packet, packet.length, parser);
+			blackhole.consume(devices[index]);
+		}
+	}
+
+	private int next() {
+		final int index = cursor;
+		if (index + 1 == deviceCount) {
+			cursor = 0;
+			round++;
+		} else {
+			cursor = index + 1;
+		}
+		return index;
+	}
+}
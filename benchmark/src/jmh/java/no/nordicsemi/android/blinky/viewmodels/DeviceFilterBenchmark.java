@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.viewmodels;
+
+import android.bluetooth.BluetoothAdapter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice;
+import no.nordicsemi.android.blinky.benchmark.Advertisements;
+import no.nordicsemi.android.blinky.scanner.DeviceRegistry;
+
+/**
+ * Measures rebuilding the filtered list of {@link DevicesLiveData} when the filter or the
+ * search query changes. The cost depends on the number of discovered devices, not on the
+ * scan batches. The score is in rebuilds per second.
+ */
+@State(Scope.Thread)
+public class DeviceFilterBenchmark {
+	@Param({"10", "100", "1000", "10000"})
+	public int deviceCount;
+
+	@Param({"DISCOVERY", "RSSI"})
+	public DeviceSortOrder sortOrder;
+
+	private DevicesLiveData devicesLiveData;
+	private ScanProcessingThread processingThread;
+	private boolean uuidRequired;
+
+	@Setup
+	public void setUp() {
+		final Advertisements advertisements = new Advertisements(deviceCount, 1);
+		final BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+		processingThread = new ScanProcessingThread();
+		devicesLiveData = new DevicesLiveData(processingThread, new ScanMetrics(),
+				false, false, null, sortOrder);
+		for (int i = 0; i < deviceCount; ++i) {
+			final long key = advertisements.keys[i];
+			final byte[] packet = advertisements.packets[i];
+			devicesLiveData.deviceDiscovered(key, adapter.getRemoteDevice(DiscoveredBluetoothDevice.toAddress(key)),
+					-40 - (i & 63), 1000000000L + i * 1000000L, packet, packet.length);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		processingThread.quit();
+		DeviceRegistry.getInstance().clear();
+	}
+
+	/**
+	 * Rebuilds the list with the cached predicate results.
+	 */
+	@Benchmark
+	public boolean applyFilter() {
+		return devicesLiveData.applyFilter();
+	}
+
+	/**
+	 * Toggles the UUID filter, which compiles a new filter program, migrates the cached
+	 * predicate results and rebuilds the list.
+	 */
+	@Benchmark
+	public boolean filterByUuid() {
+		uuidRequired = !uuidRequired;
+		return devicesLiveData.filterByUuid(uuidRequired);
+	}
+
+	/**
+	 * Searches the devices by a name prefix, matching up to 256 of them, and clears
+	 * the search.
+	 */
+	@Benchmark
+	public void search(final Blackhole blackhole) {
+		blackhole.consume(devicesLiveData.search("syn00"));
+		blackhole.consume(devicesLiveData.search(null));
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package no.nordicsemi.android.blinky.viewmodels;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import no.nordicsemi.android.blinky.adapter.DiscoveredBluetoothDevice;
+import no.nordicsemi.android.blinky.benchmark.Advertisements;
+import no.nordicsemi.android.blinky.scanner.DeviceRegistry;
+
+/**
+ * Measures {@link DevicesLiveData#deviceDiscovered(long, BluetoothDevice, int, long, byte[], int)}
+ * with the real device registry, filter program, sorted list, search index and expiry wheel,
+ * as done on the {@link ScanProcessingThread} for each batch of scan results.
+ * <p>
+ * The benchmarks use a simulated clock, so the results do not depend on the speed of the
+ * machine. The score is in batches per second.
+ */
+@State(Scope.Thread)
+public class DevicesLiveDataBenchmark {
+	/** The time after which devices are evicted in {@link #churnBatch(Blackhole)}. */
+	private static final long DEVICE_TIMEOUT = 10000; // [ms]
+
+	@Param({"10", "100", "1000", "10000"})
+	public int deviceCount;
+
+	@Param({"1", "32", "256"})
+	public int batchSize;
+
+	@Param({"DISCOVERY", "RSSI"})
+	public DeviceSortOrder sortOrder;
+
+	private Advertisements advertisements;
+	private BluetoothDevice[] bluetoothDevices;
+	private DevicesLiveData devicesLiveData;
+	private DevicesLiveData churnDevicesLiveData;
+	private ScanProcessingThread processingThread;
+	/** The simulated time, in nanoseconds since boot. */
+	private long timestampNanos;
+	/** The time between two scan results in the churn benchmark. */
+	private long churnStepNanos;
+	private long churnTimestampNanos;
+	private long nextKey;
+	private int cursor;
+	private int round;
+
+	@Setup
+	public void setUp() {
+		advertisements = new Advertisements(deviceCount, 1);
+		bluetoothDevices = new BluetoothDevice[deviceCount];
+		final BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+		for (int i = 0; i < deviceCount; ++i)
+			bluetoothDevices[i] = adapter.getRemoteDevice(DiscoveredBluetoothDevice.toAddress(advertisements.keys[i]));
+
+		processingThread = new ScanProcessingThread();
+		devicesLiveData = new DevicesLiveData(processingThread, new ScanMetrics(),
+				false, false, null, sortOrder);
+		timestampNanos = 1000000000L;
+		for (int i = 0; i < deviceCount; ++i)
+			discover(devicesLiveData, i, timestampNanos += 1000000L);
+		devicesLiveData.publish();
+
+		// In the churn benchmark each scan result is from a new device, and the devices not seen
+		// for the timeout are evicted, so the registry size stays close to the device count.
+		churnDevicesLiveData = new DevicesLiveData(processingThread, new ScanMetrics(),
+				false, false, null, sortOrder);
+		churnDevicesLiveData.setDeviceTimeout(DEVICE_TIMEOUT);
+		churnStepNanos = DEVICE_TIMEOUT * 1000000L / deviceCount;
+		churnTimestampNanos = 1000000000L;
+		// New keys are outside of the static random address range, so they never collide.
+		nextKey = 0x800000000000L;
+		for (int i = 0; i < deviceCount; ++i)
+			discoverNew(churnDevicesLiveData, i);
+	}
+
+	@TearDown
+	public void tearDown() {
+		processingThread.quit();
+		DeviceRegistry.getInstance().clear();
+	}
+
+	/**
+	 * Updates already discovered devices.
+	 */
+	@Benchmark
+	public void deviceDiscovered(final Blackhole blackhole) {
+		for (int i = 0; i < batchSize; ++i)
+			blackhole.consume(discover(devicesLiveData, next(), timestampNanos += 1000000L));
+	}
+
+	/**
+	 * Updates already discovered devices and publishes the list, like each batch of scan results
+	 * in {@code ScanSession}.
+	 */
+	@Benchmark
+	public void deviceDiscoveredAndPublished(final Blackhole blackhole) {
+		for (int i = 0; i < batchSize; ++i)
+			blackhole.consume(discover(devicesLiveData, next(), timestampNanos += 1000000L));
+		blackhole.consume(devicesLiveData.evictExpiredDevices(timestampNanos / 1000000L));
+		blackhole.consume(devicesLiveData.publish());
+	}
+
+	/**
+	 * Discovers new devices and evicts the expired ones. The allocation rate includes
+	 * the {@link BluetoothDevice} of each new device, which the system creates on Android.
+	 */
+	@Benchmark
+	public void churnBatch(final Blackhole blackhole) {
+		for (int i = 0; i < batchSize; ++i)
+			blackhole.consume(discoverNew(churnDevicesLiveData, next()));
+		blackhole.consume(churnDevicesLiveData.evictExpiredDevices(churnTimestampNanos / 1000000L));
+		blackhole.consume(churnDevicesLiveData.publish());
+	}
+
+	private boolean discover(final DevicesLiveData devicesLiveData, final int index, final long timestampNanos) {
+		final byte[] packet = advertisements.packets[index];
+		return devicesLiveData.deviceDiscovered(advertisements.keys[index], bluetoothDevices[index],
+				rssi(index), timestampNanos, packet, packet.length);
+	}
+
+	private boolean discoverNew(final DevicesLiveData devicesLiveData, final int index) {
+		final long key = nextKey++;
+		final BluetoothDevice device = BluetoothAdapter.getDefaultAdapter()
+				.getRemoteDevice(DiscoveredBluetoothDevice.toAddress(key));
+		final byte[] packet = advertisements.packets[index];
+		return devicesLiveData.deviceDiscovered(key, device, rssi(index),
+				churnTimestampNanos += churnStepNanos, packet, packet.length);
+	}
+
+	/**
+	 * Returns the RSSI of the device in the current round. It changes between rounds,
+	 * so that devices move in the list sorted by RSSI.
+	 */
+	private int rssi(final int index) {
+		return -40 - ((index * 7 + round * 13) & 63);
+	}
+
+	private int next() {
+		final int index = cursor;
+		if (index + 1 == deviceCount) {
+			cursor = 0;
+			round++;
+		} else {
+			cursor = index + 1;
+		}
+		return index;
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package android.os;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A minimal replacement of the framework class. Runnables posted without a delay are run
+ * immediately on the calling thread, so commands queued for the processing thread, and lists
+ * delivered to the main thread, are executed by the benchmark thread as part of the measured
+ * operation. There is no message queue, so the cost of enqueuing and dispatching messages,
+ * and of switching threads, is not measured.
+ * <p>
+ * Delayed runnables are dropped. None of the benchmarked classes post them; the eviction
+ * timer of {@code ScanSession}, which does, is not benchmarked.
+ */
+public class Handler {
+	public Handler() {
+		// empty
+	}
+
+	public Handler(@NonNull final Looper looper) {
+		// empty
+	}
+
+	public final boolean post(@NonNull final Runnable runnable) {
+		runnable.run();
+		return true;
+	}
+
+	public final boolean postDelayed(@NonNull final Runnable runnable, final long delayMillis) {
+		return true;
+	}
+
+	public final boolean postAtTime(@NonNull final Runnable runnable, final long uptimeMillis) {
+		return true;
+	}
+
+	public final void removeCallbacks(@NonNull final Runnable runnable) {
+		// empty
+	}
+}
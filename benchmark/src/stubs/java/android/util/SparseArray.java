@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package android.util;
+
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * A replacement of the framework class. As the original, it keeps the keys sorted in an array
+ * and looks them up with a binary search, so that the cost of {@code ScanRecord} parsing
+ * measured on the JVM is close to the one on a device.
+ */
+public class SparseArray<E> implements Cloneable {
+	private int[] keys;
+	private Object[] values;
+	private int size;
+
+	public SparseArray() {
+		this(10);
+	}
+
+	public SparseArray(final int initialCapacity) {
+		keys = new int[Math.max(initialCapacity, 1)];
+		values = new Object[keys.length];
+	}
+
+	@Nullable
+	public E get(final int key) {
+		return get(key, null);
+	}
+
+	@SuppressWarnings("unchecked")
+	public E get(final int key, final E valueIfKeyNotFound) {
+		final int index = Arrays.binarySearch(keys, 0, size, key);
+		return index >= 0 ? (E) values[index] : valueIfKeyNotFound;
+	}
+
+	public void put(final int key, final E value) {
+		int index = Arrays.binarySearch(keys, 0, size, key);
+		if (index >= 0) {
+			values[index] = value;
+			return;
+		}
+		index = ~index;
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+		}
+		System.arraycopy(keys, index, keys, index + 1, size - index);
+		System.arraycopy(values, index, values, index + 1, size - index);
+		keys[index] = key;
+		values[index] = value;
+		size++;
+	}
+
+	public void append(final int key, final E value) {
+		put(key, value);
+	}
+
+	public void remove(final int key) {
+		delete(key);
+	}
+
+	public void delete(final int key) {
+		final int index = Arrays.binarySearch(keys, 0, size, key);
+		if (index >= 0) {
+			System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+			System.arraycopy(values, index + 1, values, index, size - index - 1);
+			values[--size] = null;
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int keyAt(final int index) {
+		return keys[index];
+	}
+
+	@SuppressWarnings("unchecked")
+	public E valueAt(final int index) {
+		return (E) values[index];
+	}
+
+	public int indexOfKey(final int key) {
+		return Arrays.binarySearch(keys, 0, size, key);
+	}
+
+	public void clear() {
+		Arrays.fill(values, 0, size, null);
+		size = 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public SparseArray<E> clone() {
+		try {
+			final SparseArray<E> clone = (SparseArray<E>) super.clone();
+			clone.keys = keys.clone();
+			clone.values = values.clone();
+			return clone;
+		} catch (final CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package android.view;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A minimal replacement of the framework class. There is no display, so frame callbacks
+ * are called immediately, as if each one started a new frame. Published device lists are
+ * then built on every publication, which is the worst case of the frame pacing. The delay is
+ * ignored, so the minimum publish interval of {@code DevicesLiveData} has no effect.
+ */
+public final class Choreographer {
+	private static final Choreographer INSTANCE = new Choreographer();
+
+	public interface FrameCallback {
+		void doFrame(long frameTimeNanos);
+	}
+
+	private Choreographer() {
+		// empty
+	}
+
+	@NonNull
+	public static Choreographer getInstance() {
+		return INSTANCE;
+	}
+
+	public void postFrameCallback(@NonNull final FrameCallback callback) {
+		callback.doFrame(System.nanoTime());
+	}
+
+	public void postFrameCallbackDelayed(@NonNull final FrameCallback callback, final long delayMillis) {
+		callback.doFrame(System.nanoTime());
+	}
+
+	public void removeFrameCallback(@NonNull final FrameCallback callback) {
+		// empty
+	}
+}